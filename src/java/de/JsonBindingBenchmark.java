@@ -0,0 +1,120 @@
+package de;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import utils.JsonRecord;
+import utils.JsonUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares binding JSON by reflection (a plain Gson) with the adapters
+ * generated for {@link JsonRecord} classes (the Gson of {@link JsonUtils}):
+ * time and bytes allocated to write and read the same records.
+ * <pre>
+ * java de.JsonBindingBenchmark [records] [rounds]
+ * </pre>
+ */
+public class JsonBindingBenchmark {
+
+	@JsonRecord
+	public static class Category {
+		int id;
+		String name;
+	}
+
+	@JsonRecord
+	public static class Product {
+		long id;
+		String name;
+		double price;
+		int stock;
+		boolean active;
+		Category category;
+		List<String> tags;
+		Map<String, String> attributes;
+	}
+
+	private static final Random RAND = new Random(42);
+
+	private static String randomString() {
+		final int len = RAND.nextInt(30) + 1;
+		final char[] value = new char[len];
+		for (int i = 0; i < len; i++) {
+			value[i] = (char) ('a' + RAND.nextInt('z' - 'a'));
+		}
+		return new String(value);
+	}
+
+	private static List<Product> products(int size) {
+		List<Product> products = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Product product = new Product();
+			product.id = RAND.nextLong();
+			product.name = randomString();
+			product.price = RAND.nextInt(1_000_000) / 100.0;
+			product.stock = RAND.nextInt(1000);
+			product.active = RAND.nextBoolean();
+			product.category = new Category();
+			product.category.id = RAND.nextInt(100);
+			product.category.name = randomString();
+			product.tags = Arrays.asList(randomString(), randomString());
+			product.attributes = new HashMap<>();
+			product.attributes.put("color", randomString());
+			products.add(product);
+		}
+		return products;
+	}
+
+	private static long allocatedBytes() {
+		// HotSpot only, -1 elsewhere
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static void run(String label, Gson gson, List<Product> products, String json, boolean print) {
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		String written = gson.toJson(products);
+		long writeNanos = System.nanoTime() - start;
+		long writeBytes = allocatedBytes() - bytes;
+
+		bytes = allocatedBytes();
+		start = System.nanoTime();
+		List<Product> read = gson.fromJson(json, new TypeToken<List<Product>>() {}.getType());
+		long readNanos = System.nanoTime() - start;
+		long readBytes = allocatedBytes() - bytes;
+
+		if (!written.equals(json) || read.size() != products.size()) {
+			throw new IllegalStateException(label + " doesn't bind like reflection");
+		}
+		if (print) {
+			System.out.println(String.format("%-10s write %6d ms %8d KB, read %6d ms %8d KB", label,
+					writeNanos / 1_000_000, writeBytes / 1024, readNanos / 1_000_000, readBytes / 1024));
+		}
+	}
+
+	public static void main(String[] args) {
+		final int size = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<Product> products = products(size);
+		Gson reflective = new Gson();
+		Gson generated = JsonUtils.getGson();
+		String json = reflective.toJson(products);
+		System.out.println("Binding " + size + " products, " + json.length() / 1024 + " KB of JSON");
+		for (int round = 0; round < rounds; round++) {
+			// the first round warms up the JIT
+			run("reflection", reflective, products, json, round > 0);
+			run("generated", generated, products, json, round > 0);
+		}
+	}
+}
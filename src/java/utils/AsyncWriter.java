@@ -0,0 +1,298 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A writer that encodes and writes on a background thread.
+ * <p>
+ * The caller fills a char buffer; a full buffer is handed to the background
+ * thread, which encodes it and writes it to the stream (where compression
+ * happens), while the caller goes on with the next free buffer. With all
+ * buffers waiting for the background thread, the caller blocks until one is
+ * written. A failure of the background thread is thrown by the next call of
+ * {@code write}, {@code flush} or {@code close}.
+ * <p>
+ * Not thread-safe, like other writers it is meant for one producer.
+ */
+public final class AsyncWriter extends Writer {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	public static final int DEFAULT_BUFFERS = 4;
+
+	private final OutputStream out;
+	private final BlockingQueue<Buffer> free;
+	private final BlockingQueue<Buffer> full;
+	private final Thread thread;
+	private Buffer current;
+	private volatile Throwable failure;
+	private boolean closed = false;
+	// not this, wrapping writers such as BufferedWriter lock on it while they call us
+	private final Object monitor = new Object();
+	// sequence numbers of buffers handed over and written, for flush(), guarded by monitor
+	private long submitted = 0;
+	private long written = 0;
+
+	public AsyncWriter(@NotNull OutputStream out, @NotNull Charset charset) {
+		this(out, charset, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+	}
+
+	/**
+	 * @param bufferSize chars per buffer
+	 * @param buffers    number of buffers, at least 2
+	 */
+	public AsyncWriter(@NotNull OutputStream out, @NotNull Charset charset, int bufferSize, int buffers) {
+		if (buffers < 2) {
+			throw new IllegalArgumentException("buffers < 2");
+		}
+		if (bufferSize < 2) {
+			throw new IllegalArgumentException("bufferSize < 2");
+		}
+		this.out = out;
+		this.free = new ArrayBlockingQueue<>(buffers);
+		this.full = new ArrayBlockingQueue<>(buffers + 1);
+		for (int i = 1; i < buffers; i++) {
+			free.add(new Buffer(bufferSize));
+		}
+		this.current = new Buffer(bufferSize);
+		this.thread = ConcurrentUtils.newThreadFactory("async-writer").newThread(new Encoder(charset, bufferSize));
+		this.thread.start();
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		ensureOpen();
+		if (current.count == current.chars.length) {
+			swap(false, false);
+		}
+		current.chars[current.count++] = (char) c;
+	}
+
+	@Override
+	public void write(@NotNull char[] cbuf, int off, int len) throws IOException {
+		ensureOpen();
+		if ((off | len | (off + len) | (cbuf.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (current.count == current.chars.length) {
+				swap(false, false);
+			}
+			int n = Math.min(len, current.chars.length - current.count);
+			System.arraycopy(cbuf, off, current.chars, current.count, n);
+			current.count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write(@NotNull String str, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (current.count == current.chars.length) {
+				swap(false, false);
+			}
+			int n = Math.min(len, current.chars.length - current.count);
+			str.getChars(off, off + n, current.chars, current.count);
+			current.count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Waits until everything written so far is encoded and flushed to the stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		swap(true, false);
+		synchronized (monitor) {
+			while (written < submitted && failure == null) {
+				try {
+					monitor.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while flushing");
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (failure == null) {
+				swap(false, true);
+			}
+			put(full, Buffer.END);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			thread.interrupt();
+			throw new InterruptedIOException("interrupted while closing");
+		} finally {
+			if (failure == null) {
+				out.close();
+			} else {
+				FileUtils.closeAll(out);
+			}
+		}
+		checkFailure();
+	}
+
+	/*
+	 * hands the current buffer to the background thread and takes a free one
+	 */
+	private void swap(boolean flush, boolean last) throws IOException {
+		checkFailure();
+		Buffer next = last ? null : take(free);
+		// a surrogate pair must not be split between two buffers
+		if (!last && current.count > 0 && Character.isHighSurrogate(current.chars[current.count - 1])) {
+			next.chars[next.count++] = current.chars[--current.count];
+		}
+		current.flush = flush;
+		current.last = last;
+		synchronized (monitor) {
+			submitted++;
+		}
+		put(full, current);
+		current = next;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		checkFailure();
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure;
+		if (t != null) {
+			throw new IOException("async write failed", t);
+		}
+	}
+
+	private static <T> T take(BlockingQueue<T> queue) throws InterruptedIOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while writing");
+		}
+	}
+
+	private static <T> void put(BlockingQueue<T> queue, T value) throws InterruptedIOException {
+		try {
+			queue.put(value);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while writing");
+		}
+	}
+
+	private static final class Buffer {
+		private static final Buffer END = new Buffer(0);
+
+		private final char[] chars;
+		private int count = 0;
+		private boolean flush = false;
+		private boolean last = false;
+
+		private Buffer(int size) {
+			this.chars = new char[size];
+		}
+	}
+
+	private final class Encoder implements Runnable {
+		private final CharsetEncoder encoder;
+		private final ByteBuffer bytes;
+
+		private Encoder(Charset charset, int bufferSize) {
+			this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.bytes = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8,
+					(long) Math.ceil(bufferSize * (double) encoder.maxBytesPerChar())));
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Buffer buffer;
+				try {
+					buffer = full.take();
+				} catch (InterruptedException e) {
+					fail(new InterruptedIOException("async writer interrupted"));
+					return;
+				}
+				if (buffer == Buffer.END) {
+					return;
+				}
+				if (failure == null) {
+					try {
+						encode(CharBuffer.wrap(buffer.chars, 0, buffer.count), buffer.last);
+						if (buffer.flush) {
+							out.flush();
+						}
+					} catch (Throwable t) {
+						fail(t);
+					}
+				}
+				// after a failure buffers are only recycled, so the producer never blocks forever
+				buffer.count = 0;
+				buffer.flush = false;
+				free.add(buffer);
+				synchronized (monitor) {
+					written++;
+					monitor.notifyAll();
+				}
+			}
+		}
+
+		private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+			while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+				drain();
+			}
+			if (endOfInput) {
+				while (encoder.flush(bytes).isOverflow()) {
+					drain();
+				}
+			}
+			drain();
+		}
+
+		private void drain() throws IOException {
+			if (bytes.position() > 0) {
+				out.write(bytes.array(), 0, bytes.position());
+				bytes.clear();
+			}
+		}
+
+		private void fail(Throwable t) {
+			synchronized (monitor) {
+				if (failure == null) {
+					failure = t;
+				}
+				monitor.notifyAll();
+			}
+		}
+	}
+}
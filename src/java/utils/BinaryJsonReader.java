@@ -0,0 +1,361 @@
+package utils;
+
+import com.google.gson.stream.JsonToken;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link com.google.gson.stream.JsonReader} over the values of a block of
+ * a {@link BinaryRecordFile}, for Gson to bind them as it binds JSON text.
+ * Numbers read as strings give the text JsonWriter wrote for them.
+ */
+final class BinaryJsonReader extends com.google.gson.stream.JsonReader {
+
+	// per open container, what comes next in it
+	private static final byte IN_ARRAY = 1;
+	private static final byte IN_OBJECT_NAME = 2;
+	private static final byte IN_OBJECT_VALUE = 3;
+
+	private final List<String> names = new ObjectArrayList<>();
+	private byte[] bytes;
+	private int position;
+	private byte[] stack = new byte[32];
+	private int depth = 0;
+	private boolean valueRead = false;
+
+	BinaryJsonReader() {
+		super(new StringReader(""));
+	}
+
+	void addName(String name) {
+		names.add(name);
+	}
+
+	/*
+	 * the next value starts at position
+	 */
+	void reset(byte[] bytes, int position) {
+		this.bytes = bytes;
+		this.position = position;
+		depth = 0;
+		valueRead = false;
+	}
+
+	int position() {
+		return position;
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		if (depth == 0) {
+			return valueRead ? JsonToken.END_DOCUMENT : token(bytes[position]);
+		}
+		switch (stack[depth - 1]) {
+			case IN_OBJECT_NAME:
+				return bytes[position] == 0 ? JsonToken.END_OBJECT : JsonToken.NAME;
+			case IN_ARRAY:
+				return bytes[position] == BinaryRecordFile.END ? JsonToken.END_ARRAY : token(bytes[position]);
+			default:
+				return token(bytes[position]);
+		}
+	}
+
+	private JsonToken token(byte tag) throws IOException {
+		switch (tag) {
+			case BinaryRecordFile.NULL:
+				return JsonToken.NULL;
+			case BinaryRecordFile.FALSE:
+			case BinaryRecordFile.TRUE:
+				return JsonToken.BOOLEAN;
+			case BinaryRecordFile.INTEGER:
+			case BinaryRecordFile.DOUBLE:
+			case BinaryRecordFile.NUMBER:
+				return JsonToken.NUMBER;
+			case BinaryRecordFile.STRING:
+				return JsonToken.STRING;
+			case BinaryRecordFile.ARRAY:
+				return JsonToken.BEGIN_ARRAY;
+			case BinaryRecordFile.OBJECT:
+				return JsonToken.BEGIN_OBJECT;
+			default:
+				throw new IOException("Corrupted value, unknown tag " + tag + " at " + position);
+		}
+	}
+
+	/*
+	 * the tag of the value about to be read, after checking a value is expected
+	 */
+	private byte valueTag(String expected) throws IOException {
+		if (depth == 0 ? valueRead : stack[depth - 1] == IN_OBJECT_NAME
+				|| bytes[position] == BinaryRecordFile.END) {
+			throw unexpected(expected);
+		}
+		return bytes[position];
+	}
+
+	/*
+	 * the value is being read, what comes after it is next
+	 */
+	private void consumeValue() {
+		if (depth == 0) {
+			valueRead = true;
+		} else if (stack[depth - 1] == IN_OBJECT_VALUE) {
+			stack[depth - 1] = IN_OBJECT_NAME;
+		}
+	}
+
+	private IllegalStateException unexpected(String expected) throws IOException {
+		return new IllegalStateException("Expected " + expected + " but was " + peek() + " at " + position);
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		if (valueTag("BEGIN_ARRAY") != BinaryRecordFile.ARRAY) {
+			throw unexpected("BEGIN_ARRAY");
+		}
+		consumeValue();
+		position++;
+		push(IN_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		if (depth == 0 || stack[depth - 1] != IN_ARRAY || bytes[position] != BinaryRecordFile.END) {
+			throw unexpected("END_ARRAY");
+		}
+		position++;
+		depth--;
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		if (valueTag("BEGIN_OBJECT") != BinaryRecordFile.OBJECT) {
+			throw unexpected("BEGIN_OBJECT");
+		}
+		consumeValue();
+		position++;
+		push(IN_OBJECT_NAME);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		if (depth == 0 || stack[depth - 1] != IN_OBJECT_NAME || bytes[position] != 0) {
+			throw unexpected("END_OBJECT");
+		}
+		position++;
+		depth--;
+	}
+
+	private void push(byte state) {
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = state;
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		JsonToken token = peek();
+		return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		if (depth == 0 || stack[depth - 1] != IN_OBJECT_NAME || bytes[position] == 0) {
+			throw unexpected("a name");
+		}
+		long id = readVarLong() - 1;
+		if (id >= names.size()) {
+			throw new IOException("Corrupted value, unknown field " + id + " before " + position);
+		}
+		stack[depth - 1] = IN_OBJECT_VALUE;
+		return names.get((int) id);
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		switch (valueTag("a string")) {
+			case BinaryRecordFile.STRING:
+			case BinaryRecordFile.NUMBER:
+				consumeValue();
+				position++;
+				return readString();
+			case BinaryRecordFile.INTEGER:
+				return Long.toString(nextLong());
+			case BinaryRecordFile.DOUBLE:
+				return Double.toString(nextDouble());
+			default:
+				throw unexpected("a string");
+		}
+	}
+
+	private String readString() throws IOException {
+		long length = readVarLong();
+		if (length > bytes.length - position) {
+			throw new IOException("Corrupted string length " + length + " before " + position);
+		}
+		String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+		position += (int) length;
+		return value;
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		byte tag = valueTag("a boolean");
+		if (tag != BinaryRecordFile.TRUE && tag != BinaryRecordFile.FALSE) {
+			throw unexpected("a boolean");
+		}
+		consumeValue();
+		position++;
+		return tag == BinaryRecordFile.TRUE;
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		if (valueTag("null") != BinaryRecordFile.NULL) {
+			throw unexpected("null");
+		}
+		consumeValue();
+		position++;
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		switch (valueTag("a double")) {
+			case BinaryRecordFile.DOUBLE:
+				consumeValue();
+				long bits = 0;
+				for (int i = 1; i <= 8; i++) {
+					bits = bits << 8 | bytes[position + i] & 0xFF;
+				}
+				position += 9;
+				return Double.longBitsToDouble(bits);
+			case BinaryRecordFile.INTEGER:
+				return nextLong();
+			case BinaryRecordFile.STRING:
+			case BinaryRecordFile.NUMBER:
+				// as JsonReader, a string can be read as a number
+				return Double.parseDouble(nextString());
+			default:
+				throw unexpected("a double");
+		}
+	}
+
+	@Override
+	public long nextLong() throws IOException {
+		switch (valueTag("a long")) {
+			case BinaryRecordFile.INTEGER:
+				consumeValue();
+				position++;
+				long zigzag = readVarLong();
+				return zigzag >>> 1 ^ -(zigzag & 1);
+			case BinaryRecordFile.DOUBLE:
+				int start = position;
+				double number = nextDouble();
+				if ((long) number != number) {
+					throw new NumberFormatException("Expected a long but was " + number + " at " + start);
+				}
+				return (long) number;
+			case BinaryRecordFile.STRING:
+			case BinaryRecordFile.NUMBER:
+				start = position;
+				String text = nextString();
+				try {
+					return Long.parseLong(text);
+				} catch (NumberFormatException e) {
+					double value = Double.parseDouble(text);
+					if ((long) value != value) {
+						throw new NumberFormatException("Expected a long but was " + text + " at " + start);
+					}
+					return (long) value;
+				}
+			default:
+				throw unexpected("a long");
+		}
+	}
+
+	@Override
+	public int nextInt() throws IOException {
+		int start = position;
+		long value = nextLong();
+		if ((int) value != value) {
+			throw new NumberFormatException("Expected an int but was " + value + " at " + start);
+		}
+		return (int) value;
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		if (depth > 0 && stack[depth - 1] == IN_OBJECT_NAME) {
+			nextName();
+			return;
+		}
+		valueTag("a value");
+		consumeValue();
+		skip();
+	}
+
+	/*
+	 * moves position after the value starting at it
+	 */
+	private void skip() throws IOException {
+		byte tag = bytes[position++];
+		switch (tag) {
+			case BinaryRecordFile.NULL:
+			case BinaryRecordFile.FALSE:
+			case BinaryRecordFile.TRUE:
+				break;
+			case BinaryRecordFile.INTEGER:
+				readVarLong();
+				break;
+			case BinaryRecordFile.DOUBLE:
+				position += 8;
+				break;
+			case BinaryRecordFile.STRING:
+			case BinaryRecordFile.NUMBER:
+				int length = (int) readVarLong();
+				position += length;
+				break;
+			case BinaryRecordFile.ARRAY:
+				while (bytes[position] != BinaryRecordFile.END) {
+					skip();
+				}
+				position++;
+				break;
+			case BinaryRecordFile.OBJECT:
+				while (readVarLong() != 0) {
+					skip();
+				}
+				break;
+			default:
+				throw new IOException("Corrupted value, unknown tag " + tag + " at " + (position - 1));
+		}
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = bytes[position++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint before " + position);
+	}
+
+	@Override
+	public void close() {
+		bytes = null;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " at " + position;
+	}
+}
@@ -0,0 +1,321 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link com.google.gson.stream.JsonWriter} that encodes the values Gson
+ * writes into a byte buffer, in the encoding of {@link BinaryRecordFile}.
+ * Field names are numbered in a dictionary shared by all the values written;
+ * the names added since {@link #takeNewNames()} go into the next block.
+ */
+final class BinaryJsonWriter extends com.google.gson.stream.JsonWriter {
+
+	private static final Writer NO_WRITER = new Writer() {
+		@Override
+		public void write(char[] buffer, int offset, int length) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	private byte[] buffer = new byte[64 * 1024];
+	private int length = 0;
+	private final Object2IntOpenHashMap<String> ids = new Object2IntOpenHashMap<>();
+	private List<String> newNames = new ObjectArrayList<>();
+	// OBJECT or ARRAY per open container
+	private byte[] stack = new byte[32];
+	private int depth = 0;
+	private String pendingName = null;
+
+	BinaryJsonWriter() {
+		super(NO_WRITER);
+		ids.defaultReturnValue(-1);
+	}
+
+	byte[] buffer() {
+		return buffer;
+	}
+
+	int length() {
+		return length;
+	}
+
+	/*
+	 * back to length, dropping a value that failed half-way
+	 */
+	void truncate(int length) {
+		this.length = length;
+		depth = 0;
+		pendingName = null;
+	}
+
+	List<String> takeNewNames() {
+		List<String> names = newNames;
+		newNames = new ObjectArrayList<>();
+		return names;
+	}
+
+	@Override
+	public BinaryJsonWriter beginArray() throws IOException {
+		open(BinaryRecordFile.ARRAY);
+		return this;
+	}
+
+	@Override
+	public BinaryJsonWriter endArray() throws IOException {
+		close(BinaryRecordFile.ARRAY);
+		ensureCapacity(1);
+		buffer[length++] = BinaryRecordFile.END;
+		return this;
+	}
+
+	@Override
+	public BinaryJsonWriter beginObject() throws IOException {
+		open(BinaryRecordFile.OBJECT);
+		return this;
+	}
+
+	@Override
+	public BinaryJsonWriter endObject() throws IOException {
+		close(BinaryRecordFile.OBJECT);
+		ensureCapacity(1);
+		buffer[length++] = 0;
+		return this;
+	}
+
+	private void open(byte container) {
+		beforeValue();
+		ensureCapacity(1);
+		buffer[length++] = container;
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = container;
+	}
+
+	private void close(byte container) {
+		if (depth == 0 || stack[depth - 1] != container || pendingName != null) {
+			throw new IllegalStateException("Nesting problem.");
+		}
+		depth--;
+	}
+
+	@Override
+	public BinaryJsonWriter name(String name) throws IOException {
+		if (name == null) {
+			throw new NullPointerException("name == null");
+		}
+		if (depth == 0 || stack[depth - 1] != BinaryRecordFile.OBJECT || pendingName != null) {
+			throw new IllegalStateException();
+		}
+		pendingName = name;
+		return this;
+	}
+
+	/*
+	 * writes the number of the pending name for a value in an object
+	 */
+	private void beforeValue() {
+		if (depth == 0 || stack[depth - 1] != BinaryRecordFile.OBJECT) {
+			return;
+		}
+		if (pendingName == null) {
+			throw new IllegalStateException("Nesting problem.");
+		}
+		int id = ids.getInt(pendingName);
+		if (id < 0) {
+			id = ids.size();
+			ids.put(pendingName, id);
+			newNames.add(pendingName);
+		}
+		pendingName = null;
+		ensureCapacity(5);
+		length = RecordFile.writeVarLong(buffer, length, id + 1);
+	}
+
+	@Override
+	public BinaryJsonWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		beforeValue();
+		writeString(BinaryRecordFile.STRING, value);
+		return this;
+	}
+
+	private void writeString(byte tag, String value) {
+		int chars = value.length();
+		boolean ascii = true;
+		for (int i = 0; i < chars; i++) {
+			if (value.charAt(i) >= 0x80) {
+				ascii = false;
+				break;
+			}
+		}
+		if (ascii) {
+			ensureCapacity(chars + 6);
+			buffer[length++] = tag;
+			length = RecordFile.writeVarLong(buffer, length, chars);
+			for (int i = 0; i < chars; i++) {
+				buffer[length++] = (byte) value.charAt(i);
+			}
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			ensureCapacity(bytes.length + 6);
+			buffer[length++] = tag;
+			length = RecordFile.writeVarLong(buffer, length, bytes.length);
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+		}
+	}
+
+	@Override
+	public BinaryJsonWriter nullValue() throws IOException {
+		if (pendingName != null && !getSerializeNulls()) {
+			// as JsonWriter, the field is left out
+			pendingName = null;
+			return this;
+		}
+		beforeValue();
+		ensureCapacity(1);
+		buffer[length++] = BinaryRecordFile.NULL;
+		return this;
+	}
+
+	@Override
+	public BinaryJsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		ensureCapacity(1);
+		buffer[length++] = value ? BinaryRecordFile.TRUE : BinaryRecordFile.FALSE;
+		return this;
+	}
+
+	@Override
+	public BinaryJsonWriter value(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		}
+		beforeValue();
+		writeDouble(value);
+		return this;
+	}
+
+	private void writeDouble(double value) {
+		ensureCapacity(9);
+		buffer[length++] = BinaryRecordFile.DOUBLE;
+		long bits = Double.doubleToRawLongBits(value);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer[length++] = (byte) (bits >>> shift);
+		}
+	}
+
+	@Override
+	public BinaryJsonWriter value(long value) throws IOException {
+		beforeValue();
+		writeLong(value);
+		return this;
+	}
+
+	private void writeLong(long value) {
+		ensureCapacity(11);
+		buffer[length++] = BinaryRecordFile.INTEGER;
+		length = RecordFile.writeVarLong(buffer, length, (value << 1) ^ (value >> 63));
+	}
+
+	/*
+	 * JsonWriter writes the toString of a number: integers and the doubles
+	 * whose text Double.toString gives back are encoded as such, any other
+	 * text (1.50, 1e3, big integers) is kept as it is
+	 */
+	@Override
+	public BinaryJsonWriter value(Number value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+				|| value instanceof AtomicInteger || value instanceof AtomicLong) {
+			return value(value.longValue());
+		}
+		String text = value.toString();
+		if (!isLenient() && (text.equals("-Infinity") || text.equals("Infinity") || text.equals("NaN"))) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		}
+		beforeValue();
+		if (value instanceof Double) {
+			writeDouble(value.doubleValue());
+			return this;
+		}
+		if (isLong(text)) {
+			writeLong(Long.parseLong(text));
+			return this;
+		}
+		try {
+			double number = Double.parseDouble(text);
+			if (Double.toString(number).equals(text)) {
+				writeDouble(number);
+				return this;
+			}
+		} catch (NumberFormatException e) {
+			// written as text, as JsonWriter would
+		}
+		writeString(BinaryRecordFile.NUMBER, text);
+		return this;
+	}
+
+	/*
+	 * the text Long.toString would give, without leading zeros or plus sign
+	 */
+	private static boolean isLong(String text) {
+		int start = text.startsWith("-") ? 1 : 0;
+		int digits = text.length() - start;
+		if (digits == 0 || digits > 19 || digits > 1 && text.charAt(start) == '0' || text.equals("-0")) {
+			return false;
+		}
+		for (int i = start; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		if (digits < 19) {
+			return true;
+		}
+		try {
+			Long.parseLong(text);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private void ensureCapacity(int more) {
+		if (length + more > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(length + more,
+					(int) Math.min(Integer.MAX_VALUE - 8, buffer.length * 2L)));
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,138 @@
+package utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.InstanceCreator;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.$Gson$Types;
+import com.google.gson.internal.ConstructorConstructor;
+import com.google.gson.internal.ObjectConstructor;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A file of JSON records in a compact binary encoding, for the datasets
+ * passed between the stages of a pipeline. Written by {@link BinaryRecordWriter}
+ * and read by {@link BinaryRecordReader}, with the Gson binding of
+ * {@link JsonUtils}, so whatever goes into a JSON array file goes into a
+ * binary record file and comes back equal.
+ * <p>
+ * Layout:
+ * <pre>
+ * header: "BJSN", version, compression
+ * block:  raw length (varint &gt; 0), stored length (varint), stored bytes
+ * footer: 0 (varint), records (varint)
+ * </pre>
+ * A raw block starts with the field names first used in it, a varint count
+ * and every name as a varint length and UTF-8 bytes; they are numbered from 0
+ * after the names of the blocks before. Then come a varint count of records
+ * and the records, each one value:
+ * <pre>
+ * null, false, true:  the tag
+ * integer:            tag, zigzag varint
+ * double:             tag, 8 bytes big-endian, for numbers Double.toString writes back as they were
+ * other number:       tag, its text as a string
+ * string:             tag, varint length, UTF-8 bytes
+ * array:              tag, values, END tag
+ * object:             tag, per field its number + 1 (varint) and value, 0 (varint)
+ * </pre>
+ * Numbers keep their text, so a file converted from JSON converts back to the same values.
+ */
+public final class BinaryRecordFile {
+
+	static final byte[] MAGIC = {'B', 'J', 'S', 'N'};
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = MAGIC.length + 2;
+
+	static final byte NULL = 0;
+	static final byte FALSE = 1;
+	static final byte TRUE = 2;
+	static final byte INTEGER = 3;
+	static final byte DOUBLE = 4;
+	static final byte NUMBER = 5;
+	static final byte STRING = 6;
+	static final byte ARRAY = 7;
+	static final byte OBJECT = 8;
+	static final byte END = 9;
+
+	/*
+	 * MapTypeAdapterFactory reads the keys of a map through an internal hook of
+	 * JsonReader that only works on text, this one reads them with nextName
+	 */
+	private static final TypeAdapterFactory MAP_FACTORY = new TypeAdapterFactory() {
+		private final ConstructorConstructor constructors =
+				new ConstructorConstructor(Collections.<Type, InstanceCreator<?>>emptyMap());
+
+		@Override
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+			Class<? super T> raw = type.getRawType();
+			if (!Map.class.isAssignableFrom(raw)) {
+				return null;
+			}
+			Type[] keyAndValue = $Gson$Types.getMapKeyAndValueTypes(type.getType(), raw);
+			return new MapAdapter<>(gson.getDelegateAdapter(this, type), constructors.get(type),
+					keyAndValue[0] == String.class ? null : gson.getAdapter(TypeToken.get(keyAndValue[0])),
+					gson.getAdapter(TypeToken.get(keyAndValue[1])));
+		}
+	};
+
+	/**
+	 * The Gson of {@link JsonUtils} with maps readable from a binary record.
+	 */
+	static final Gson GSON = new GsonBuilder().registerTypeAdapterFactory(JsonRecords.FACTORY)
+			.registerTypeAdapterFactory(MAP_FACTORY).create();
+
+	private BinaryRecordFile() {
+	}
+
+	private static final class MapAdapter<T> extends TypeAdapter<T> {
+		private final TypeAdapter<T> delegate;
+		private final ObjectConstructor<T> constructor;
+		// null for String keys
+		private final TypeAdapter<?> keyAdapter;
+		private final TypeAdapter<?> valueAdapter;
+
+		private MapAdapter(TypeAdapter<T> delegate, ObjectConstructor<T> constructor,
+						   TypeAdapter<?> keyAdapter, TypeAdapter<?> valueAdapter) {
+			this.delegate = delegate;
+			this.constructor = constructor;
+			this.keyAdapter = keyAdapter;
+			this.valueAdapter = valueAdapter;
+		}
+
+		@Override
+		public void write(JsonWriter out, T value) throws IOException {
+			delegate.write(out, value);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T read(JsonReader in) throws IOException {
+			if (!(in instanceof BinaryJsonReader) || in.peek() != JsonToken.BEGIN_OBJECT) {
+				return delegate.read(in);
+			}
+			T result = constructor.construct();
+			Map<Object, Object> map = (Map<Object, Object>) result;
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				Object key = keyAdapter == null ? name : keyAdapter.fromJsonTree(new JsonPrimitive(name));
+				if (map.put(key, valueAdapter.read(in)) != null) {
+					throw new JsonSyntaxException("duplicate key: " + key);
+				}
+			}
+			in.endObject();
+			return result;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package utils;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a {@link BinaryRecordFile}, the binary counterpart of
+ * {@link JsonUtils.JsonArrayReader}: every record is bound by Gson straight
+ * from the bytes of its block, as it would be from JSON text.
+ */
+public final class BinaryRecordReader<T> implements Closeable {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final File file;
+	private final TypeAdapter<T> adapter;
+	private final DataInputStream in;
+	private final RecordFile.Compression compression;
+	private final BinaryJsonReader reader = new BinaryJsonReader();
+	private byte[] stored = new byte[0];
+	private byte[] raw = new byte[0];
+	private int rawLength = 0;
+	private long blockRecords = 0;
+	private long records = 0;
+	private boolean finish = false;
+
+	public BinaryRecordReader(@NotNull File file, @NotNull Class<T> classOfT) throws IOException {
+		this(file, (Type) classOfT);
+	}
+
+	@SuppressWarnings("unchecked")
+	public BinaryRecordReader(@NotNull File file, @NotNull Type type) throws IOException {
+		FileUtils.assertFileExists(file);
+		this.file = file;
+		this.adapter = (TypeAdapter<T>) BinaryRecordFile.GSON.getAdapter(TypeToken.get(type));
+		this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			byte[] magic = new byte[BinaryRecordFile.MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, BinaryRecordFile.MAGIC)) {
+				throw new IOException("Not a binary record file: " + file);
+			}
+			int version = in.read();
+			if (version != BinaryRecordFile.VERSION) {
+				throw new IOException("Unsupported version " + version + " of " + file);
+			}
+			int compression = in.read();
+			if (compression < 0 || compression >= RecordFile.Compression.values().length) {
+				throw new IOException("Unknown compression " + compression + " in " + file);
+			}
+			this.compression = RecordFile.Compression.values()[compression];
+		} catch (EOFException e) {
+			in.close();
+			throw new IOException("Truncated header in " + file);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	public boolean hasNext() throws IOException {
+		return blockRecords > 0 || !finish && readBlock();
+	}
+
+	/**
+	 * @return the next record, null at the end of the file
+	 */
+	public T next() throws IOException {
+		if (!hasNext()) {
+			return null;
+		}
+		T value;
+		// the adapter is looked up once, Gson.fromJson would look it up for every record
+		try {
+			value = adapter.read(reader);
+		} catch (IllegalStateException e) {
+			throw new JsonSyntaxException("Record " + records + " of " + file + ": " + e.getMessage(), e);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupted block in " + file + " at record " + records);
+		}
+		if (reader.position() > rawLength) {
+			throw new IOException("Corrupted block in " + file + " at record " + records);
+		}
+		blockRecords--;
+		records++;
+		reader.reset(raw, reader.position());
+		return value;
+	}
+
+	/*
+	 * false at the footer
+	 */
+	private boolean readBlock() throws IOException {
+		try {
+			long rawLength = RecordFile.readVarLong(in);
+			if (rawLength == 0) {
+				long total = RecordFile.readVarLong(in);
+				if (total != records) {
+					throw new IOException("Footer of " + file + " counts " + total + " records, read " + records);
+				}
+				finish = true;
+				return false;
+			}
+			long storedLength = RecordFile.readVarLong(in);
+			if (rawLength > Integer.MAX_VALUE - 8 || storedLength > Integer.MAX_VALUE - 8) {
+				throw new IOException("Corrupted block length in " + file);
+			}
+			if (stored.length < storedLength) {
+				stored = new byte[(int) storedLength];
+			}
+			if (raw.length < rawLength) {
+				raw = new byte[(int) rawLength];
+			}
+			in.readFully(stored, 0, (int) storedLength);
+			compression.uncompress(stored, (int) storedLength, raw, (int) rawLength);
+			this.rawLength = (int) rawLength;
+		} catch (EOFException e) {
+			throw new IOException("Truncated file " + file + " after " + records + " records");
+		}
+		BlockInput block = new BlockInput();
+		long names = block.readVarLong();
+		for (long i = 0; i < names; i++) {
+			reader.addName(block.readString());
+		}
+		blockRecords = block.readVarLong();
+		reader.reset(raw, block.position);
+		return blockRecords > 0 || hasNext();
+	}
+
+	/*
+	 * reads the head of the raw block
+	 */
+	private final class BlockInput {
+		private int position = 0;
+
+		private long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64 && position < rawLength; shift += 7) {
+				byte b = raw[position++];
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IOException("Corrupted block head in " + file);
+		}
+
+		private String readString() throws IOException {
+			long length = readVarLong();
+			if (length > rawLength - position) {
+				throw new IOException("Corrupted block head in " + file);
+			}
+			String value = new String(raw, position, (int) length, StandardCharsets.UTF_8);
+			position += (int) length;
+			return value;
+		}
+	}
+
+	public List<T> readAll() throws IOException {
+		try {
+			List<T> result = new ObjectArrayList<>();
+			while (hasNext()) {
+				result.add(next());
+			}
+			return result;
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+		in.close();
+	}
+}
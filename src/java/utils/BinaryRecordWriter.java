@@ -0,0 +1,149 @@
+package utils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a {@link BinaryRecordFile}, the binary counterpart of
+ * {@link JsonUtils.JsonArrayWriter}: objects are encoded as Gson would write
+ * them, JSON trees keep their null fields. Records are collected in a block
+ * until it reaches {@link #setBlockSize(int)} bytes, then the block is
+ * compressed and written. The file is complete only after {@link #close()}.
+ */
+public final class BinaryRecordWriter implements Closeable {
+
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final RecordFile.Compression compression;
+	private final DataOutputStream out;
+	private final BinaryJsonWriter writer = new BinaryJsonWriter();
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private byte[] raw = new byte[0];
+	private int blockRecords = 0;
+	private long records = 0;
+	private boolean closed = false;
+
+	public BinaryRecordWriter(@NotNull File file) throws IOException {
+		this(file, RecordFile.Compression.SNAPPY);
+	}
+
+	public BinaryRecordWriter(@NotNull File file, @NotNull RecordFile.Compression compression) throws IOException {
+		this.compression = compression;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		out.write(BinaryRecordFile.MAGIC);
+		out.write(BinaryRecordFile.VERSION);
+		out.write(compression.ordinal());
+	}
+
+	/**
+	 * Uncompressed bytes of records per block, 256KB by default.
+	 */
+	public BinaryRecordWriter setBlockSize(int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("blockSize <= 0");
+		}
+		this.blockSize = blockSize;
+		return this;
+	}
+
+	public synchronized void write(@NotNull Object object) throws IOException {
+		if (closed) {
+			throw new IOException("Writer closed");
+		}
+		int start = writer.length();
+		try {
+			if (object instanceof JsonElement) {
+				JsonUtils.getTreeGson().toJson((JsonElement) object, writer);
+			} else {
+				BinaryRecordFile.GSON.toJson(object, object.getClass(), writer);
+			}
+		} catch (RuntimeException e) {
+			// the names it added are kept, unused
+			writer.truncate(start);
+			throw e;
+		}
+		blockRecords++;
+		records++;
+		if (writer.length() >= blockSize) {
+			writeBlock();
+		}
+	}
+
+	public synchronized <T> void writeAll(Iterable<T> list) throws IOException {
+		for (T object : list) {
+			write(object == null ? JsonNull.INSTANCE : object);
+		}
+	}
+
+	public synchronized <T> void writeAll(T[] list) throws IOException {
+		writeAll(Arrays.asList(list));
+	}
+
+	/*
+	 * raw block: the new field names, the record count, the records
+	 */
+	private void writeBlock() throws IOException {
+		if (blockRecords == 0) {
+			return;
+		}
+		ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+		List<String> names = writer.takeNewNames();
+		RecordFile.writeVarLong(header, names.size());
+		for (String name : names) {
+			RecordFile.writeBytes(header, name.getBytes(StandardCharsets.UTF_8));
+		}
+		RecordFile.writeVarLong(header, blockRecords);
+		int rawLength = header.size() + writer.length();
+		if (raw.length < rawLength) {
+			raw = new byte[Math.max(rawLength, raw.length * 2)];
+		}
+		System.arraycopy(header.toByteArray(), 0, raw, 0, header.size());
+		System.arraycopy(writer.buffer(), 0, raw, header.size(), writer.length());
+		byte[] stored = compression.compress(raw, rawLength);
+		RecordFile.writeVarLong(out, rawLength);
+		RecordFile.writeVarLong(out, stored.length);
+		out.write(stored);
+		writer.truncate(0);
+		blockRecords = 0;
+	}
+
+	/**
+	 * Records written so far.
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				writeBlock();
+				RecordFile.writeVarLong(out, 0);
+				RecordFile.writeVarLong(out, records);
+			} finally {
+				out.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,370 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of I/O buffers, to avoid allocating (and zeroing) megabytes for every
+ * small file that is read or copied.
+ * <p>
+ * Sizes are rounded up to powers of two between 4KB and 4MB, bigger buffers
+ * are allocated and dropped without pooling. Each thread keeps one buffer per
+ * size class; more go to a bounded global queue per class, the rest are left
+ * to the garbage collector. A taken buffer has undefined content and must be
+ * released at most once, and not used after:
+ * <pre>
+ * byte[] buffer = BufferPool.shared().takeBytes(64 * 1024);
+ * try {
+ *     ...
+ * } finally {
+ *     BufferPool.shared().release(buffer);
+ * }
+ * </pre>
+ * With {@code -Dutils.BufferPool.leakDetection=true} buffers that are never
+ * released or released twice are logged with the stack that took them.
+ */
+public final class BufferPool {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(BufferPool.class);
+
+	public static final String LEAK_DETECTION_PROPERTY = "utils.BufferPool.leakDetection";
+
+	private static final int MIN_SHIFT = 12;
+	private static final int MAX_SHIFT = 22;
+	public static final int MIN_SIZE = 1 << MIN_SHIFT;
+	public static final int MAX_SIZE = 1 << MAX_SHIFT;
+	// bytes the global tier keeps per size class and kind of buffer
+	private static final int GLOBAL_BYTES_PER_CLASS = 16 * 1024 * 1024;
+
+	private static final BufferPool SHARED = new BufferPool(Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+	private final Tier<byte[]> bytes = new Tier<byte[]>(1) {
+		@Override
+		byte[] allocate(int size) {
+			return new byte[size];
+		}
+
+		@Override
+		int capacity(byte[] buffer) {
+			return buffer.length;
+		}
+	};
+	private final Tier<char[]> chars = new Tier<char[]>(2) {
+		@Override
+		char[] allocate(int size) {
+			return new char[size];
+		}
+
+		@Override
+		int capacity(char[] buffer) {
+			return buffer.length;
+		}
+	};
+	private final Tier<ByteBuffer> direct = new Tier<ByteBuffer>(1) {
+		@Override
+		ByteBuffer allocate(int size) {
+			return ByteBuffer.allocateDirect(size);
+		}
+
+		@Override
+		int capacity(ByteBuffer buffer) {
+			return buffer.isDirect() ? buffer.capacity() : -1;
+		}
+	};
+
+	private final AtomicLong localHits = new AtomicLong();
+	private final AtomicLong globalHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong unpooled = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+	private final LeakDetector leakDetector;
+
+	public BufferPool(boolean leakDetection) {
+		this.leakDetector = leakDetection ? new LeakDetector() : null;
+	}
+
+	/**
+	 * The pool used by {@link FileUtils} and friends.
+	 */
+	@NotNull
+	public static BufferPool shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @return an array of at least {@code size} bytes
+	 */
+	@NotNull
+	public byte[] takeBytes(int size) {
+		return bytes.take(size);
+	}
+
+	public void release(@NotNull byte[] buffer) {
+		bytes.release(buffer);
+	}
+
+	/**
+	 * @return an array of at least {@code size} chars
+	 */
+	@NotNull
+	public char[] takeChars(int size) {
+		return chars.take(size);
+	}
+
+	public void release(@NotNull char[] buffer) {
+		chars.release(buffer);
+	}
+
+	/**
+	 * @return a cleared direct buffer with a capacity of at least {@code size} bytes
+	 */
+	@NotNull
+	public ByteBuffer takeDirect(int size) {
+		ByteBuffer buffer = direct.take(size);
+		buffer.clear();
+		return buffer;
+	}
+
+	public void release(@NotNull ByteBuffer buffer) {
+		direct.release(buffer);
+	}
+
+	@NotNull
+	public Stats getStats() {
+		if (leakDetector != null) {
+			leakDetector.expunge();
+		}
+		return new Stats(localHits.get(), globalHits.get(), misses.get(), unpooled.get(), dropped.get(), leaks.get());
+	}
+
+	/*
+	 * index of the smallest class holding size, -1 if it is too big to pool
+	 */
+	private static int sizeClass(int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	private abstract class Tier<T> {
+		private final ArrayBlockingQueue<T>[] global;
+		private final ThreadLocal<Object[]> local = new ThreadLocal<Object[]>() {
+			@Override
+			protected Object[] initialValue() {
+				return new Object[MAX_SHIFT - MIN_SHIFT + 1];
+			}
+		};
+
+		@SuppressWarnings("unchecked")
+		private Tier(int bytesPerElement) {
+			global = (ArrayBlockingQueue<T>[]) new ArrayBlockingQueue<?>[MAX_SHIFT - MIN_SHIFT + 1];
+			for (int i = 0; i < global.length; i++) {
+				long size = (long) bytesPerElement << (MIN_SHIFT + i);
+				global[i] = new ArrayBlockingQueue<>((int) Math.max(2, GLOBAL_BYTES_PER_CLASS / size));
+			}
+		}
+
+		abstract T allocate(int size);
+
+		/*
+		 * -1 for buffers the pool can't take
+		 */
+		abstract int capacity(T buffer);
+
+		@SuppressWarnings("unchecked")
+		T take(int size) {
+			if (size < 0) {
+				throw new IllegalArgumentException("size < 0");
+			}
+			int sizeClass = sizeClass(size);
+			if (sizeClass < 0) {
+				unpooled.incrementAndGet();
+				return allocate(size);
+			}
+			Object[] cache = local.get();
+			T buffer = (T) cache[sizeClass];
+			if (buffer != null) {
+				cache[sizeClass] = null;
+				localHits.incrementAndGet();
+			} else {
+				buffer = global[sizeClass].poll();
+				if (buffer != null) {
+					globalHits.incrementAndGet();
+				} else {
+					misses.incrementAndGet();
+					buffer = allocate(MIN_SIZE << sizeClass);
+				}
+			}
+			if (leakDetector != null) {
+				leakDetector.taken(buffer);
+			}
+			return buffer;
+		}
+
+		void release(T buffer) {
+			int capacity = capacity(buffer);
+			int sizeClass = capacity > 0 ? sizeClass(capacity) : -1;
+			// only buffers of exactly a class size came from the pool
+			if (sizeClass < 0 || capacity != MIN_SIZE << sizeClass) {
+				return;
+			}
+			if (leakDetector != null && !leakDetector.released(buffer)) {
+				return;
+			}
+			Object[] cache = local.get();
+			if (cache[sizeClass] == null) {
+				cache[sizeClass] = buffer;
+			} else if (!global[sizeClass].offer(buffer)) {
+				dropped.incrementAndGet();
+			}
+		}
+	}
+
+	/*
+	 * tracks taken buffers through weak references, one collected before it was released leaked
+	 */
+	private final class LeakDetector {
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+		// by identity hash code of the buffer, ByteBuffer.hashCode() depends on the content
+		private final Map<Integer, List<Taken>> taken = new HashMap<>();
+
+		private synchronized void taken(Object buffer) {
+			expunge();
+			int hash = System.identityHashCode(buffer);
+			List<Taken> list = taken.get(hash);
+			if (list == null) {
+				list = new LinkedList<>();
+				taken.put(hash, list);
+			}
+			list.add(new Taken(buffer, queue, hash));
+		}
+
+		/*
+		 * false if the buffer isn't taken, i.e. released twice or not from this pool
+		 */
+		private synchronized boolean released(Object buffer) {
+			expunge();
+			int hash = System.identityHashCode(buffer);
+			List<Taken> list = taken.get(hash);
+			if (list != null) {
+				for (Iterator<Taken> iterator = list.iterator(); iterator.hasNext(); ) {
+					Taken reference = iterator.next();
+					if (reference.get() == buffer) {
+						iterator.remove();
+						reference.clear();
+						if (list.isEmpty()) {
+							taken.remove(hash);
+						}
+						return true;
+					}
+				}
+			}
+			LOG.warn("Released a buffer that isn't taken from the pool, is it released twice?", new Throwable());
+			return false;
+		}
+
+		private synchronized void expunge() {
+			for (Taken reference; (reference = (Taken) queue.poll()) != null; ) {
+				List<Taken> list = taken.get(reference.hash);
+				if (list != null && list.remove(reference)) {
+					if (list.isEmpty()) {
+						taken.remove(reference.hash);
+					}
+					leaks.incrementAndGet();
+					LOG.warn("A pooled buffer was never released, taken at:", reference.stack);
+				}
+			}
+		}
+	}
+
+	private static final class Taken extends WeakReference<Object> {
+		private final int hash;
+		private final Throwable stack = new Throwable("buffer taken");
+
+		private Taken(Object buffer, ReferenceQueue<Object> queue, int hash) {
+			super(buffer, queue);
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Counters since the pool was created. A hit reuses a buffer of the thread
+	 * (local) or of the global queue, a miss allocates a poolable buffer.
+	 */
+	public static final class Stats {
+		private final long localHits;
+		private final long globalHits;
+		private final long misses;
+		private final long unpooled;
+		private final long dropped;
+		private final long leaks;
+
+		private Stats(long localHits, long globalHits, long misses, long unpooled, long dropped, long leaks) {
+			this.localHits = localHits;
+			this.globalHits = globalHits;
+			this.misses = misses;
+			this.unpooled = unpooled;
+			this.dropped = dropped;
+			this.leaks = leaks;
+		}
+
+		public long getLocalHits() {
+			return localHits;
+		}
+
+		public long getGlobalHits() {
+			return globalHits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * Buffers bigger than {@link #MAX_SIZE}, allocated every time.
+		 */
+		public long getUnpooled() {
+			return unpooled;
+		}
+
+		/**
+		 * Released buffers left to the garbage collector because the global queue was full.
+		 */
+		public long getDropped() {
+			return dropped;
+		}
+
+		/**
+		 * Buffers never released, only counted with leak detection.
+		 */
+		public long getLeaks() {
+			return leaks;
+		}
+
+		public double getHitRate() {
+			long hits = localHits + globalHits;
+			return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("local hits %d, global hits %d, misses %d (hit rate %.1f%%), unpooled %d, dropped %d, leaks %d",
+					localHits, globalHits, misses, getHitRate() * 100, unpooled, dropped, leaks);
+		}
+	}
+}
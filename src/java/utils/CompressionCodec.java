@@ -0,0 +1,49 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream compression format, chosen by {@link CompressionCodecs} from a file
+ * extension or from the first bytes of a stream.
+ * <p>
+ * Additional codecs are registered with {@link CompressionCodecs#register} or
+ * listed in {@code META-INF/services/utils.CompressionCodec}.
+ */
+public interface CompressionCodec {
+
+	/**
+	 * Short unique name, e.g. "gzip".
+	 */
+	@NotNull
+	String getName();
+
+	/**
+	 * File extension including the dot, e.g. ".gz"; empty for uncompressed data.
+	 */
+	@NotNull
+	String getExtension();
+
+	/**
+	 * Leading bytes every stream of this codec starts with; empty if there are none.
+	 */
+	@NotNull
+	byte[] getMagic();
+
+	/**
+	 * Wraps a raw stream, which the returned stream closes.
+	 */
+	@NotNull
+	InputStream openInputStream(@NotNull InputStream in) throws IOException;
+
+	/**
+	 * Wraps a raw stream, which the returned stream closes. Opening another
+	 * stream on the end of an existing file must produce a readable file, so
+	 * formats made of concatenable frames are required for append.
+	 */
+	@NotNull
+	OutputStream openOutputStream(@NotNull OutputStream out) throws IOException;
+}
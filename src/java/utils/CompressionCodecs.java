@@ -0,0 +1,267 @@
+package utils;
+
+import org.iq80.snappy.SnappyInputStream;
+import org.iq80.snappy.SnappyOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Registry of {@link CompressionCodec}s by file extension.
+ * <p>
+ * Built in: gzip ({@code .gz}), snappy ({@code .snappy}, the framed streams of
+ * org.iq80.snappy), LZ4 ({@code .lz4}, pure Java LZ4 frames) and {@link #NONE}.
+ * Snappy and LZ4 are several times faster than gzip and are the better choice
+ * for intermediate files.
+ */
+public final class CompressionCodecs {
+
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+	public static final CompressionCodec NONE = new AbstractCodec("none", "", new byte[0]) {
+		@NotNull
+		@Override
+		public InputStream openInputStream(@NotNull InputStream in) {
+			return in;
+		}
+
+		@NotNull
+		@Override
+		public OutputStream openOutputStream(@NotNull OutputStream out) {
+			return out;
+		}
+	};
+
+	public static final CompressionCodec GZIP = new AbstractCodec("gzip", ".gz", new byte[]{0x1f, (byte) 0x8b}) {
+		@NotNull
+		@Override
+		public InputStream openInputStream(@NotNull InputStream in) throws IOException {
+			return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+		}
+
+		@NotNull
+		@Override
+		public OutputStream openOutputStream(@NotNull OutputStream out) throws IOException {
+			return new GZIPOutputStream(out, GZIP_BUFFER_SIZE) {
+				{
+					def.setLevel(Deflater.BEST_SPEED);
+				}
+
+			};
+		}
+	};
+
+	public static final CompressionCodec SNAPPY = new AbstractCodec("snappy", ".snappy",
+			new byte[]{'s', 'n', 'a', 'p', 'p', 'y', 0}) {
+		@NotNull
+		@Override
+		public InputStream openInputStream(@NotNull InputStream in) throws IOException {
+			return new SnappyByteFix(new SnappyInputStream(in, true));
+		}
+
+		@NotNull
+		@Override
+		public OutputStream openOutputStream(@NotNull OutputStream out) throws IOException {
+			return new SnappyOutputStream(out);
+		}
+	};
+
+	public static final CompressionCodec LZ4 = new AbstractCodec("lz4", ".lz4", new byte[]{0x04, 0x22, 0x4d, 0x18}) {
+		@NotNull
+		@Override
+		public InputStream openInputStream(@NotNull InputStream in) throws IOException {
+			return new Lz4FrameInputStream(in);
+		}
+
+		@NotNull
+		@Override
+		public OutputStream openOutputStream(@NotNull OutputStream out) throws IOException {
+			return new Lz4FrameOutputStream(out);
+		}
+	};
+
+	private static final Map<String, CompressionCodec> BY_EXTENSION = new ConcurrentHashMap<>();
+	private static final List<CompressionCodec> CODECS = new CopyOnWriteArrayList<>();
+	private static volatile int maxMagicLength = 0;
+
+	static {
+		register(GZIP);
+		register(SNAPPY);
+		register(LZ4);
+		for (CompressionCodec codec : ServiceLoader.load(CompressionCodec.class)) {
+			register(codec);
+		}
+	}
+
+	private CompressionCodecs() {
+	}
+
+	/**
+	 * Registers a codec, replacing the one with the same extension.
+	 */
+	public static synchronized void register(@NotNull CompressionCodec codec) {
+		String extension = codec.getExtension();
+		if (extension.isEmpty() || extension.charAt(0) != '.') {
+			throw new IllegalArgumentException("Extension must start with a dot: '" + extension + "'");
+		}
+		CompressionCodec previous = BY_EXTENSION.put(extension, codec);
+		if (previous != null) {
+			CODECS.remove(previous);
+		}
+		CODECS.add(codec);
+		maxMagicLength = Math.max(maxMagicLength, codec.getMagic().length);
+	}
+
+	@NotNull
+	public static List<CompressionCodec> getCodecs() {
+		return new ArrayList<>(CODECS);
+	}
+
+	/**
+	 * Returns the codec of a file by its extension, {@link #NONE} if there is none.
+	 */
+	@NotNull
+	public static CompressionCodec forFile(@NotNull File file) {
+		return forName(file.getName());
+	}
+
+	@NotNull
+	public static CompressionCodec forName(@NotNull String fileName) {
+		int index = fileName.lastIndexOf('.');
+		if (index < 0) {
+			return NONE;
+		}
+		CompressionCodec codec = BY_EXTENSION.get(fileName.substring(index));
+		return codec != null ? codec : NONE;
+	}
+
+	/**
+	 * Returns the codec by extension and, for files without a known one, by
+	 * their first bytes.
+	 */
+	@NotNull
+	public static CompressionCodec detect(@NotNull File file) throws IOException {
+		CompressionCodec codec = forFile(file);
+		if (codec != NONE || !file.isFile()) {
+			return codec;
+		}
+		byte[] header = new byte[maxMagicLength];
+		int length = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			for (int n; length < header.length && (n = in.read(header, length, header.length - length)) > 0; ) {
+				length += n;
+			}
+		}
+		return detect(header, length);
+	}
+
+	/**
+	 * Returns the codec whose magic starts the given bytes, {@link #NONE} if none.
+	 */
+	@NotNull
+	public static CompressionCodec detect(@NotNull byte[] header, int length) {
+		for (CompressionCodec codec : CODECS) {
+			byte[] magic = codec.getMagic();
+			if (magic.length == 0 || magic.length > length) {
+				continue;
+			}
+			boolean match = true;
+			for (int i = 0; i < magic.length && match; i++) {
+				match = header[i] == magic[i];
+			}
+			if (match) {
+				return codec;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Peeks at the first bytes of a buffered stream and decompresses it if
+	 * they are the magic of a registered codec.
+	 */
+	@NotNull
+	public static InputStream detectAndOpen(@NotNull BufferedInputStream in) throws IOException {
+		byte[] header = new byte[maxMagicLength];
+		in.mark(header.length);
+		int length = 0;
+		for (int n; length < header.length && (n = in.read(header, length, header.length - length)) > 0; ) {
+			length += n;
+		}
+		in.reset();
+		return detect(header, length).openInputStream(in);
+	}
+
+	public static boolean isCompressed(@NotNull File file) {
+		return forFile(file) != NONE;
+	}
+
+	private abstract static class AbstractCodec implements CompressionCodec {
+		private final String name;
+		private final String extension;
+		private final byte[] magic;
+
+		private AbstractCodec(String name, String extension, byte[] magic) {
+			this.name = name;
+			this.extension = extension;
+			this.magic = magic;
+		}
+
+		@NotNull
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@NotNull
+		@Override
+		public String getExtension() {
+			return extension;
+		}
+
+		@NotNull
+		@Override
+		public byte[] getMagic() {
+			return magic.clone();
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/*
+	 * SnappyInputStream.read() returns the byte sign-extended, so 0xff reads as -1 (EOF)
+	 */
+	private static final class SnappyByteFix extends FilterInputStream {
+		private SnappyByteFix(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			int n;
+			while ((n = in.read(one, 0, 1)) == 0) {
+				// snappy returns whole blocks, 0 can't happen in practice
+			}
+			return n < 0 ? -1 : one[0] & 0xff;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package utils;
+
+import com.google.gson.Gson;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes a JSON array from many threads without a lock around serialization,
+ * the output is the same as {@link JsonUtils.JsonArrayWriter}'s.
+ * <p>
+ * Every producer serializes its object into a {@link StringBuilder} of its
+ * own thread and queues the text; a single flusher thread takes the queued
+ * texts and writes them, with the separators, to the file. The queue holds
+ * at most {@link #DEFAULT_MAX_QUEUED_CHARS} chars (or the limit given to the
+ * constructor), producers wait when it is full. Elements are in the order
+ * they were queued.
+ */
+public final class ConcurrentJsonArrayWriter implements Closeable {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ConcurrentJsonArrayWriter.class);
+
+	public static final int DEFAULT_MAX_QUEUED_CHARS = 8 * 1024 * 1024;
+	// buffers that grew past this for a huge element are not kept by their thread
+	private static final int MAX_KEPT_BUFFER = 1024 * 1024;
+
+	private static final Gson GSON = JsonUtils.getGson();
+
+	private static final ThreadLocal<StringBuilder> BUFFERS = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder();
+		}
+	};
+
+	private final File file;
+	private final BufferedWriter writer;
+	private final int maxQueuedChars;
+	private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+	// permits are chars that may still be queued
+	private final Semaphore space;
+	private final AtomicLong submitted = new AtomicLong();
+	private final Thread flusher;
+	private volatile long written = 0;
+	private volatile boolean parked = false;
+	private volatile boolean closed = false;
+	private volatile Throwable failure;
+
+	public ConcurrentJsonArrayWriter(@NotNull File file) throws IOException {
+		this(file, DEFAULT_MAX_QUEUED_CHARS);
+	}
+
+	public ConcurrentJsonArrayWriter(@NotNull File file, int maxQueuedChars) throws IOException {
+		if (maxQueuedChars <= 0) {
+			throw new IllegalArgumentException("maxQueuedChars <= 0");
+		}
+		this.file = file;
+		this.maxQueuedChars = maxQueuedChars;
+		this.space = new Semaphore(maxQueuedChars);
+		this.writer = FileUtils.openWriter(file);
+		this.writer.write("[");
+		this.flusher = ConcurrentUtils.newThreadFactory("json-flusher").newThread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+		this.flusher.start();
+	}
+
+	/**
+	 * Serializes {@code object} on the calling thread and queues it.
+	 */
+	public void write(@NotNull Object object) throws IOException {
+		StringBuilder buffer = BUFFERS.get();
+		buffer.setLength(0);
+		GSON.toJson(object, buffer);
+		String text = buffer.toString();
+		if (buffer.length() > MAX_KEPT_BUFFER) {
+			BUFFERS.remove();
+		}
+		// counted before checking closed, so close() waits for it or we see closed
+		submitted.incrementAndGet();
+		try {
+			if (closed) {
+				throw new IOException("writer is closed: " + file);
+			}
+			checkFailure();
+			space.acquire(permits(text));
+		} catch (InterruptedException e) {
+			submitted.decrementAndGet();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while writing " + file);
+		} catch (IOException | RuntimeException e) {
+			submitted.decrementAndGet();
+			throw e;
+		}
+		queue.add(text);
+		if (parked) {
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	public <T> void writeAll(@NotNull Iterable<T> list) throws IOException {
+		for (T object : list) {
+			write(object);
+		}
+	}
+
+	public <T> void writeAll(@NotNull T[] list) throws IOException {
+		for (T object : list) {
+			write(object);
+		}
+	}
+
+	/*
+	 * an element bigger than the whole queue takes all of it
+	 */
+	private int permits(String text) {
+		return Math.max(1, Math.min(text.length(), maxQueuedChars));
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("write to " + file + " failed", failure);
+		}
+	}
+
+	/*
+	 * the flusher loop, until closed and every submitted element is written
+	 */
+	private void flush() {
+		long count = 0;
+		while (true) {
+			String text = queue.poll();
+			if (text == null) {
+				if (closed && count == submitted.get()) {
+					return;
+				}
+				parked = true;
+				if (queue.isEmpty()) {
+					LockSupport.parkNanos(this, 10_000_000L);
+				}
+				parked = false;
+				continue;
+			}
+			if (failure == null) {
+				try {
+					if (count > 0) {
+						writer.write(",");
+						writer.newLine();
+					}
+					writer.write(text);
+				} catch (Throwable t) {
+					// keep taking elements so producers don't wait forever
+					LOG.error("Failed to write " + file, t);
+					failure = t;
+				}
+			}
+			count++;
+			written = count;
+			space.release(permits(text));
+		}
+	}
+
+	/**
+	 * Number of elements written to the file so far.
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Waits for the queued elements and closes the array and the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while closing " + file);
+		}
+		try {
+			checkFailure();
+			writer.write("]");
+		} finally {
+			writer.close();
+		}
+	}
+}
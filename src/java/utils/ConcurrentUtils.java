@@ -0,0 +1,68 @@
+package utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Small helpers shared by the multi-threaded file utilities.
+ */
+public final class ConcurrentUtils {
+
+	private ConcurrentUtils() {
+	}
+
+	/*
+	 * daemon threads named "<name>-<n>", so a forgotten pool never keeps the JVM alive
+	 */
+	public static ThreadFactory newThreadFactory(String name) {
+		return new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build();
+	}
+
+	public static ExecutorService newFixedPool(String name, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads <= 0");
+		}
+		return Executors.newFixedThreadPool(threads, newThreadFactory(name));
+	}
+
+	/*
+	 * number of threads to use when the caller passes 0 or less
+	 */
+	public static int threadsOrDefault(int threads) {
+		return threads > 0 ? threads : Utils.getAvailableCores();
+	}
+
+	/**
+	 * Waits for a task and rethrows its failure as an {@link IOException}.
+	 */
+	public static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a task");
+		} catch (ExecutionException e) {
+			throw asIOException(e.getCause());
+		}
+	}
+
+	public static IOException asIOException(Throwable t) {
+		if (t instanceof IOException) {
+			return (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IOException(t);
+	}
+}
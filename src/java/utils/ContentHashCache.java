@@ -0,0 +1,182 @@
+package utils;
+
+import com.google.common.hash.HashCodes;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-1 hashes of files, remembered by (path, size, mtime) and persisted as
+ * TSV, so a file is hashed again only after it was changed.
+ * <p>
+ * Typical use is one cache per dataset directory:
+ * <pre>
+ * ContentHashCache cache = ContentHashCache.open(datasetDir);
+ * boolean changed = !FileUtils.isContentEqual(previousDump, dump, cache);
+ * cache.save();
+ * </pre>
+ * Only a change of size or modification time is noticed; a rewrite with the
+ * same size within the mtime resolution of the file system is not.
+ */
+public final class ContentHashCache {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ContentHashCache.class);
+
+	private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
+	public static final String DEFAULT_FILE_NAME = ".content-hashes.tsv";
+
+	private final File file;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private volatile boolean dirty = false;
+
+	private ContentHashCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the cache stored as {@link #DEFAULT_FILE_NAME} in {@code directory}.
+	 */
+	@NotNull
+	public static ContentHashCache open(@NotNull File directory) throws IOException {
+		return load(new File(directory, DEFAULT_FILE_NAME));
+	}
+
+	/**
+	 * Loads a cache file, a missing file gives an empty cache.
+	 */
+	@NotNull
+	public static ContentHashCache load(@NotNull File file) throws IOException {
+		ContentHashCache cache = new ContentHashCache(file);
+		if (!file.exists()) {
+			return cache;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+				StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length != 4) {
+					LOG.warn("Skipping malformed line of {}: {}", file, line);
+					continue;
+				}
+				try {
+					cache.entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+							fields[3]));
+				} catch (NumberFormatException e) {
+					LOG.warn("Skipping malformed line of {}: {}", file, line);
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the SHA-1 of a file as hex, hashing it only if it is not cached
+	 * or its size or modification time changed.
+	 */
+	@NotNull
+	public String getHash(@NotNull File file) throws IOException {
+		String path = file.getAbsolutePath();
+		long size = file.length();
+		long modified = file.lastModified();
+		if (modified == 0L) {
+			throw new IOException("File doesn't exist: " + path);
+		}
+		Entry entry = entries.get(path);
+		if (entry != null && entry.size == size && entry.modified == modified) {
+			return entry.hash;
+		}
+		String hash = sha1(file);
+		// a file changed while hashing is not cached
+		if (file.length() == size && file.lastModified() == modified) {
+			entries.put(path, new Entry(size, modified, hash));
+			dirty = true;
+		}
+		return hash;
+	}
+
+	/*
+	 * reads through a pooled direct buffer, the channel fills it without an extra copy
+	 */
+	private static String sha1(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		ByteBuffer buffer = BufferPool.shared().takeDirect(HASH_BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			BufferPool.shared().release(buffer);
+		}
+		return HashCodes.fromBytes(digest.digest()).toString();
+	}
+
+	public void remove(@NotNull File file) {
+		if (entries.remove(file.getAbsolutePath()) != null) {
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Writes the cache if it changed, through a temporary file.
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+		File tmp = FileUtils.tmpFile(file.getAbsoluteFile(), false);
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+				StandardCharsets.UTF_8))) {
+			for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+				Entry entry = e.getValue();
+				writer.write(e.getKey() + '\t' + entry.size + '\t' + entry.modified + '\t' + entry.hash);
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			dirty = true;
+			throw e;
+		}
+		FileUtils.replaceFile(tmp, file);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private static final class Entry {
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		private Entry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Lists a directory tree lazily with {@link DirectoryStream}s.
+ * <p>
+ * Only the open directories of the current path are kept, not every pending
+ * entry, so memory does not grow with the size of the tree. The root is at
+ * depth 0, its entries at depth 1. Filters select what is returned; every
+ * directory above {@link #maxDepth(int)} is walked whether it matches or not.
+ * <pre>
+ * DirectoryWalker walker = new DirectoryWalker(dir).glob("*.json.gz").filesOnly();
+ * try (DirectoryWalker.PathIterator it = walker.iterator()) {
+ *     while (it.hasNext()) { ... }
+ * }
+ * walker.walkParallel(8, visitor);
+ * </pre>
+ */
+public final class DirectoryWalker {
+
+	public static final int DEFAULT_QUEUE_SIZE = 64 * 1024;
+
+	// marks the end of the parallel walk in the result queue
+	private static final Path END = Paths.get("");
+
+	private final Path root;
+	private int minDepth = 0;
+	private int maxDepth = Integer.MAX_VALUE;
+	private boolean filesOnly = false;
+	private LinkOption[] linkOptions = {LinkOption.NOFOLLOW_LINKS};
+	private Predicate<Path> filter = null;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+
+	public DirectoryWalker(@NotNull File root) {
+		this(root.toPath());
+	}
+
+	public DirectoryWalker(@NotNull Path root) {
+		this.root = root;
+	}
+
+	public DirectoryWalker minDepth(int minDepth) {
+		this.minDepth = minDepth;
+		return this;
+	}
+
+	public DirectoryWalker maxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * Returns regular files (and other non-directories) only.
+	 */
+	public DirectoryWalker filesOnly() {
+		this.filesOnly = true;
+		return this;
+	}
+
+	/**
+	 * Walks into symbolic links to directories; a link cycle then never ends.
+	 */
+	public DirectoryWalker followLinks() {
+		this.linkOptions = new LinkOption[0];
+		return this;
+	}
+
+	/**
+	 * Adds a filter, all filters must accept a path.
+	 */
+	public DirectoryWalker filter(@NotNull Predicate<Path> filter) {
+		this.filter = this.filter == null ? filter : this.filter.and(filter);
+		return this;
+	}
+
+	/**
+	 * Adds a glob filter. A glob without '/' matches the file name, otherwise
+	 * the path relative to the root: "*.gz" and "2018/**.gz".
+	 */
+	public DirectoryWalker glob(@NotNull String glob) {
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		final boolean relative = glob.indexOf('/') >= 0;
+		return filter(new Predicate<Path>() {
+			@Override
+			public boolean test(Path path) {
+				Path name = relative ? root.relativize(path) : path.getFileName();
+				return name != null && matcher.matches(name);
+			}
+		});
+	}
+
+	/**
+	 * Size of the result queue of {@link #walkParallel}.
+	 */
+	public DirectoryWalker queueSize(int queueSize) {
+		if (queueSize <= 0) {
+			throw new IllegalArgumentException("queueSize <= 0");
+		}
+		this.queueSize = queueSize;
+		return this;
+	}
+
+	/**
+	 * Returns a depth-first iterator. Directories it can't list throw an
+	 * {@link UncheckedIOException}; an iterator dropped before its end must
+	 * be closed.
+	 */
+	@NotNull
+	public PathIterator iterator() {
+		return new PathIterator();
+	}
+
+	/**
+	 * Visits the selected paths on the calling thread, in depth-first order.
+	 */
+	public void walk(@NotNull Visitor visitor) throws IOException {
+		try (PathIterator iterator = iterator()) {
+			while (iterator.hasNext()) {
+				visitor.visit(iterator.next());
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Lists directories on {@code threads} threads (all cores if 0) and visits
+	 * the selected paths on the calling thread, in no particular order. Listing
+	 * threads block once {@link #queueSize(int)} paths wait for the visitor.
+	 */
+	public void walkParallel(int threads, @NotNull Visitor visitor) throws IOException {
+		if (!Files.isDirectory(root, linkOptions)) {
+			if (accept(root, 0, false)) {
+				visitor.visit(root);
+			}
+			return;
+		}
+		if (accept(root, 0, true)) {
+			visitor.visit(root);
+		}
+		if (maxDepth < 1) {
+			return;
+		}
+		BlockingQueue<Path> results = new ArrayBlockingQueue<>(queueSize);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		ExecutorService pool = ConcurrentUtils.newFixedPool("directory-walker", ConcurrentUtils.threadsOrDefault(threads));
+		try {
+			new ListTask(pool, results, new AtomicInteger(1), failure, root, 0).submit();
+			while (true) {
+				Path path = results.take();
+				if (path == END) {
+					break;
+				}
+				visitor.visit(path);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while walking " + root);
+		} finally {
+			// stops listing threads blocked on a full queue after a visitor failure
+			pool.shutdownNow();
+		}
+		if (failure.get() != null) {
+			throw ConcurrentUtils.asIOException(failure.get());
+		}
+	}
+
+	private boolean accept(Path path, int depth, boolean directory) {
+		return depth >= minDepth && !(filesOnly && directory) && (filter == null || filter.test(path));
+	}
+
+	public interface Visitor {
+		void visit(@NotNull Path path) throws IOException;
+	}
+
+	/**
+	 * Lists one directory, submits its subdirectories as new tasks. The walk
+	 * is over when the count of pending directories drops to 0.
+	 */
+	private final class ListTask implements Runnable {
+		private final ExecutorService pool;
+		private final BlockingQueue<Path> results;
+		private final AtomicInteger pending;
+		private final AtomicReference<Throwable> failure;
+		private final Path directory;
+		private final int depth;
+
+		private ListTask(ExecutorService pool, BlockingQueue<Path> results, AtomicInteger pending,
+						 AtomicReference<Throwable> failure, Path directory, int depth) {
+			this.pool = pool;
+			this.results = results;
+			this.pending = pending;
+			this.failure = failure;
+			this.directory = directory;
+			this.depth = depth;
+		}
+
+		private void submit() {
+			pool.execute(this);
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (failure.get() != null) {
+					return;
+				}
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+					for (Path path : stream) {
+						boolean isDirectory = Files.isDirectory(path, linkOptions);
+						if (isDirectory && depth + 1 < maxDepth) {
+							pending.incrementAndGet();
+							new ListTask(pool, results, pending, failure, path, depth + 1).submit();
+						}
+						if (accept(path, depth + 1, isDirectory)) {
+							results.put(path);
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, new InterruptedIOException("interrupted while walking " + directory));
+				// only shutdownNow interrupts, once the visitor has stopped taking: end() must not block
+				Thread.currentThread().interrupt();
+			} catch (DirectoryIteratorException e) {
+				failure.compareAndSet(null, e.getCause());
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			} finally {
+				if (pending.decrementAndGet() == 0 || failure.get() != null) {
+					end();
+				}
+			}
+		}
+
+		private void end() {
+			try {
+				results.put(END);
+			} catch (InterruptedException ignore) {
+				// the visitor gave up, nobody waits for the end
+			}
+		}
+	}
+
+	/**
+	 * Depth-first iterator over a stack of open directory streams.
+	 */
+	public final class PathIterator implements Iterator<Path>, Closeable {
+		private final Deque<Frame> stack = new ArrayDeque<>();
+		private Path next;
+
+		private PathIterator() {
+			boolean isDirectory = Files.isDirectory(root, linkOptions);
+			if (Files.exists(root, linkOptions) && accept(root, 0, isDirectory)) {
+				next = root;
+			}
+			if (isDirectory && maxDepth > 0) {
+				push(root, 0);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && !stack.isEmpty()) {
+				Frame frame = stack.peek();
+				if (!frame.entries.hasNext()) {
+					stack.pop().close();
+					continue;
+				}
+				Path path;
+				try {
+					path = frame.entries.next();
+				} catch (DirectoryIteratorException e) {
+					close();
+					throw new UncheckedIOException(e.getCause());
+				}
+				int depth = frame.depth + 1;
+				boolean isDirectory = Files.isDirectory(path, linkOptions);
+				if (isDirectory && depth < maxDepth) {
+					push(path, depth);
+				}
+				if (accept(path, depth, isDirectory)) {
+					next = path;
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public Path next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Path path = next;
+			next = null;
+			return path;
+		}
+
+		private void push(Path directory, int depth) {
+			try {
+				stack.push(new Frame(Files.newDirectoryStream(directory), depth));
+			} catch (IOException e) {
+				close();
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			while (!stack.isEmpty()) {
+				stack.pop().close();
+			}
+		}
+	}
+
+	private static final class Frame {
+		private final DirectoryStream<Path> stream;
+		private final Iterator<Path> entries;
+		private final int depth;
+
+		private Frame(DirectoryStream<Path> stream, int depth) {
+			this.stream = stream;
+			this.entries = stream.iterator();
+			this.depth = depth;
+		}
+
+		private void close() {
+			try {
+				stream.close();
+			} catch (IOException ignore) {
+				// read-only stream
+			}
+		}
+	}
+}
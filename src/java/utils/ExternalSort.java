@@ -0,0 +1,382 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sorts line files bigger than the heap.
+ * <p>
+ * Lines are read into chunks of at most a share of {@link #memoryBudget(long)}
+ * (sized with {@link StringUtils#estimatedSizeOf(String)}). Full chunks are
+ * sorted on a pool of threads and spilled as LZ4 runs into a
+ * {@link FileUtils#tmpDir} next to the output, while the next chunk is read.
+ * The runs are then merged through a heap, in several passes if there are
+ * more than {@link #maxFanIn(int)} of them. Input that fits the budget is
+ * sorted in memory and never spilled.
+ * <p>
+ * The sort is stable. Lines are read and written as UTF-8, the output is
+ * compressed according to its extension.
+ * <pre>
+ * new ExternalSort().comparator(ExternalSort.fieldComparator("\t", 2)).unique(true).sort(input, output);
+ * </pre>
+ */
+public final class ExternalSort {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ExternalSort.class);
+
+	public static final int DEFAULT_MAX_FAN_IN = 128;
+
+	// reference to the line in the chunk list
+	private static final long REFERENCE_SIZE = 8;
+	private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+	private Comparator<String> comparator = natural();
+	private boolean unique = false;
+	private boolean reverse = false;
+	private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+	private int threads = ConcurrentUtils.threadsOrDefault(0);
+	private int maxFanIn = DEFAULT_MAX_FAN_IN;
+	private File tmpParent = null;
+
+	public ExternalSort comparator(@NotNull Comparator<String> comparator) {
+		this.comparator = comparator;
+		return this;
+	}
+
+	/**
+	 * Keeps the first of the lines the comparator finds equal, like sort -u.
+	 */
+	public ExternalSort unique(boolean unique) {
+		this.unique = unique;
+		return this;
+	}
+
+	public ExternalSort reverse(boolean reverse) {
+		this.reverse = reverse;
+		return this;
+	}
+
+	/**
+	 * Bytes of heap the lines held in memory may take, a quarter of the
+	 * maximum heap by default.
+	 */
+	public ExternalSort memoryBudget(long memoryBudget) {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("memoryBudget <= 0");
+		}
+		this.memoryBudget = memoryBudget;
+		return this;
+	}
+
+	/**
+	 * @param threads threads sorting chunks and merging runs, all cores if 0 or less
+	 */
+	public ExternalSort threads(int threads) {
+		this.threads = ConcurrentUtils.threadsOrDefault(threads);
+		return this;
+	}
+
+	/**
+	 * Maximum number of runs merged at once.
+	 */
+	public ExternalSort maxFanIn(int maxFanIn) {
+		if (maxFanIn < 2) {
+			throw new IllegalArgumentException("maxFanIn < 2");
+		}
+		this.maxFanIn = maxFanIn;
+		return this;
+	}
+
+	/**
+	 * Where the directory of runs is created, the directory of the output by default.
+	 */
+	public ExternalSort tmpDirectory(@NotNull File tmpParent) {
+		this.tmpParent = tmpParent;
+		return this;
+	}
+
+	/**
+	 * Compares lines by their {@code index}-th (1-based) field, see
+	 * {@link StringUtils#getField}. Lines without that field come first.
+	 */
+	@NotNull
+	public static Comparator<String> fieldComparator(@NotNull final String separator, final int index) {
+		return new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				String field1 = StringUtils.getField(o1, separator, index, false);
+				String field2 = StringUtils.getField(o2, separator, index, false);
+				if (field1 == null || field2 == null) {
+					return field1 == null ? (field2 == null ? 0 : -1) : 1;
+				}
+				return field1.compareTo(field2);
+			}
+		};
+	}
+
+	@NotNull
+	private static Comparator<String> natural() {
+		return new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				return o1.compareTo(o2);
+			}
+		};
+	}
+
+	public long sort(@NotNull File input, @NotNull File output) throws IOException {
+		return sort(Collections.singletonList(input), output);
+	}
+
+	/**
+	 * Sorts the lines of all inputs into {@code output}.
+	 *
+	 * @return number of lines written
+	 */
+	public long sort(@NotNull List<File> inputs, @NotNull File output) throws IOException {
+		long start = System.currentTimeMillis();
+		Comparator<String> order = reverse ? Collections.reverseOrder(comparator) : comparator;
+		// a chunk is filled while the others are sorted and spilled
+		long chunkBudget = Math.max(1, memoryBudget / (threads + 1));
+		File parent = tmpParent != null ? tmpParent : output.getAbsoluteFile().getParentFile();
+		File runDir = null;
+		ExecutorService pool = ConcurrentUtils.newFixedPool("external-sort", threads);
+		try {
+			Semaphore spilling = new Semaphore(threads);
+			List<Future<File>> runs = new ObjectArrayList<>();
+			List<String> chunk = new ObjectArrayList<>();
+			long chunkSize = 0;
+			long lines = 0;
+			for (File input : inputs) {
+				try (LineCursor cursor = LineCursor.open(input)) {
+					while (cursor.next()) {
+						String line = cursor.string();
+						chunk.add(line);
+						chunkSize += StringUtils.estimatedSizeOf(line) + REFERENCE_SIZE;
+						lines++;
+						if (chunkSize >= chunkBudget) {
+							if (runDir == null) {
+								runDir = FileUtils.tmpDir(output, parent);
+							}
+							runs.add(spill(pool, spilling, chunk, order, new File(runDir, runName(runs.size()))));
+							chunk = new ObjectArrayList<>();
+							chunkSize = 0;
+						}
+					}
+				}
+			}
+			if (runs.isEmpty()) {
+				String[] sorted = sortChunk(chunk, order);
+				try (Writer writer = openOutput(output)) {
+					long written = writeLines(Arrays.asList(sorted), order, writer);
+					LOG.info("Sorted {} lines in memory into {} in {} ms", new Object[]{lines, output,
+							System.currentTimeMillis() - start});
+					return written;
+				}
+			}
+			if (!chunk.isEmpty()) {
+				runs.add(spill(pool, spilling, chunk, order, new File(runDir, runName(runs.size()))));
+			}
+			List<File> runFiles = new ObjectArrayList<>();
+			for (Future<File> run : runs) {
+				runFiles.add(ConcurrentUtils.await(run));
+			}
+			int passes = 1;
+			while (runFiles.size() > maxFanIn) {
+				runFiles = mergePass(pool, runFiles, order, runDir, passes);
+				passes++;
+			}
+			long written;
+			try (Writer writer = openOutput(output)) {
+				written = merge(runFiles, order, writer);
+			}
+			LOG.info("Sorted {} lines into {} through {} runs in {} merge passes, {} ms", new Object[]{lines, output,
+					runs.size(), passes, System.currentTimeMillis() - start});
+			return written;
+		} finally {
+			pool.shutdownNow();
+			if (runDir != null) {
+				FileUtils.deleteRecursively(runDir);
+			}
+		}
+	}
+
+	private static String runName(int index) {
+		return String.format("run-%06d.lz4", index);
+	}
+
+	private String[] sortChunk(List<String> chunk, Comparator<String> order) {
+		String[] lines = chunk.toArray(new String[chunk.size()]);
+		if (threads > 1) {
+			Arrays.parallelSort(lines, order);
+		} else {
+			Arrays.sort(lines, order);
+		}
+		return lines;
+	}
+
+	private Future<File> spill(ExecutorService pool, final Semaphore spilling, final List<String> chunk,
+							   final Comparator<String> order, final File run) throws IOException {
+		try {
+			spilling.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while sorting");
+		}
+		return pool.submit(new Callable<File>() {
+			@Override
+			public File call() throws IOException {
+				try {
+					String[] lines = chunk.toArray(new String[chunk.size()]);
+					chunk.clear();
+					Arrays.sort(lines, order);
+					try (Writer writer = openRun(run)) {
+						writeLines(Arrays.asList(lines), order, writer);
+					}
+					return run;
+				} finally {
+					spilling.release();
+				}
+			}
+		});
+	}
+
+	/*
+	 * merges groups of maxFanIn runs in parallel into fewer, longer runs
+	 */
+	private List<File> mergePass(ExecutorService pool, List<File> runs, final Comparator<String> order, File runDir,
+								 int pass) throws IOException {
+		List<Future<File>> merged = new ObjectArrayList<>();
+		for (int from = 0; from < runs.size(); from += maxFanIn) {
+			final List<File> group = runs.subList(from, Math.min(from + maxFanIn, runs.size()));
+			final File run = new File(runDir, String.format("pass-%d-", pass) + runName(merged.size()));
+			merged.add(pool.submit(new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					try (Writer writer = openRun(run)) {
+						merge(group, order, writer);
+					}
+					for (File file : group) {
+						FileUtils.delete(file);
+					}
+					return run;
+				}
+			}));
+		}
+		List<File> result = new ObjectArrayList<>();
+		for (Future<File> future : merged) {
+			result.add(ConcurrentUtils.await(future));
+		}
+		LOG.info("Merge pass {}: {} runs into {}", new Object[]{pass, runs.size(), result.size()});
+		return result;
+	}
+
+	private long merge(List<File> runs, final Comparator<String> order, Writer writer) throws IOException {
+		PriorityQueue<RunReader> heap = new PriorityQueue<>(runs.size(), new Comparator<RunReader>() {
+			@Override
+			public int compare(RunReader o1, RunReader o2) {
+				int compare = order.compare(o1.line, o2.line);
+				// runs hold consecutive parts of the input, the earlier one first keeps the sort stable
+				return compare != 0 ? compare : Integer.compare(o1.index, o2.index);
+			}
+		});
+		try {
+			for (int i = 0; i < runs.size(); i++) {
+				RunReader reader = new RunReader(runs.get(i), i);
+				if (reader.advance()) {
+					heap.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			long written = 0;
+			String last = null;
+			while (!heap.isEmpty()) {
+				RunReader reader = heap.poll();
+				String line = reader.line;
+				if (!unique || last == null || order.compare(last, line) != 0) {
+					writer.write(line);
+					writer.write('\n');
+					written++;
+					last = line;
+				}
+				if (reader.advance()) {
+					heap.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+			return written;
+		} finally {
+			for (RunReader reader : heap) {
+				reader.close();
+			}
+		}
+	}
+
+	private long writeLines(List<String> sorted, Comparator<String> order, Writer writer) throws IOException {
+		long written = 0;
+		String last = null;
+		for (String line : sorted) {
+			if (!unique || last == null || order.compare(last, line) != 0) {
+				writer.write(line);
+				writer.write('\n');
+				written++;
+				last = line;
+			}
+		}
+		return written;
+	}
+
+	private static Writer openRun(File run) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(CompressionCodecs.LZ4.openOutputStream(
+				new BufferedOutputStream(new FileOutputStream(run), WRITE_BUFFER_SIZE)), StandardCharsets.UTF_8),
+				WRITE_BUFFER_SIZE);
+	}
+
+	private static Writer openOutput(File output) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(FileUtils.openOutputStream(output), StandardCharsets.UTF_8),
+				WRITE_BUFFER_SIZE);
+	}
+
+	private static final class RunReader {
+		private final LineCursor cursor;
+		private final int index;
+		@Nullable
+		private String line;
+
+		private RunReader(File run, int index) throws IOException {
+			this.cursor = LineCursor.open(run);
+			this.index = index;
+		}
+
+		private boolean advance() throws IOException {
+			line = cursor.next() ? cursor.string() : null;
+			return line != null;
+		}
+
+		private void close() throws IOException {
+			cursor.close();
+		}
+	}
+}
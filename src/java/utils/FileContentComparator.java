@@ -0,0 +1,125 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Byte by byte comparison of two files.
+ * <p>
+ * Files of different length are never read. Otherwise both files are mapped
+ * in chunks that are compared on a pool of threads; the first chunk that
+ * differs stops all the others, so files that differ early are rejected
+ * after reading a few KB.
+ */
+public final class FileContentComparator {
+
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
+
+	private FileContentComparator() {
+	}
+
+	public static boolean isContentEqual(@NotNull File file1, @NotNull File file2) throws IOException {
+		return isContentEqual(file1, file2, 0);
+	}
+
+	/**
+	 * @param threads number of comparing threads, 0 means all cores
+	 */
+	public static boolean isContentEqual(@NotNull File file1, @NotNull File file2, int threads) throws IOException {
+		try (FileChannel channel1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+			 FileChannel channel2 = FileChannel.open(file2.toPath(), StandardOpenOption.READ)) {
+			long size = channel1.size();
+			if (size != channel2.size()) {
+				return false;
+			}
+			AtomicBoolean different = new AtomicBoolean(false);
+			int chunks = (int) ((size + DEFAULT_CHUNK_SIZE - 1) / DEFAULT_CHUNK_SIZE);
+			if (chunks <= 1 || ConcurrentUtils.threadsOrDefault(threads) == 1) {
+				for (long start = 0; start < size && !different.get(); start += DEFAULT_CHUNK_SIZE) {
+					new ChunkComparator(channel1, channel2, start, chunkLength(start, size), different).call();
+				}
+				return !different.get();
+			}
+			ExecutorService pool = ConcurrentUtils.newFixedPool("content-compare",
+					Math.min(ConcurrentUtils.threadsOrDefault(threads), chunks));
+			try {
+				List<Future<Void>> results = new ArrayList<>(chunks);
+				for (long start = 0; start < size; start += DEFAULT_CHUNK_SIZE) {
+					results.add(pool.submit(new ChunkComparator(channel1, channel2, start,
+							chunkLength(start, size), different)));
+				}
+				// wait for all of them, the channels are closed on return
+				for (Future<Void> result : results) {
+					ConcurrentUtils.await(result);
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+			return !different.get();
+		}
+	}
+
+	private static int chunkLength(long start, long size) {
+		return (int) Math.min(DEFAULT_CHUNK_SIZE, size - start);
+	}
+
+	private static final class ChunkComparator implements Callable<Void> {
+		private final FileChannel channel1;
+		private final FileChannel channel2;
+		private final long start;
+		private final int length;
+		private final AtomicBoolean different;
+
+		private ChunkComparator(FileChannel channel1, FileChannel channel2, long start, int length,
+								AtomicBoolean different) {
+			this.channel1 = channel1;
+			this.channel2 = channel2;
+			this.start = start;
+			this.length = length;
+			this.different = different;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			if (different.get()) {
+				return null;
+			}
+			MappedByteBuffer buffer1 = channel1.map(FileChannel.MapMode.READ_ONLY, start, length);
+			MappedByteBuffer buffer2 = channel2.map(FileChannel.MapMode.READ_ONLY, start, length);
+			byte[] bytes1 = BufferPool.shared().takeBytes(Math.min(COMPARE_BUFFER_SIZE, length));
+			byte[] bytes2 = BufferPool.shared().takeBytes(bytes1.length);
+			try {
+				while (buffer1.hasRemaining() && !different.get()) {
+					int n = Math.min(bytes1.length, buffer1.remaining());
+					buffer1.get(bytes1, 0, n);
+					buffer2.get(bytes2, 0, n);
+					if (n < bytes1.length) {
+						// pooled arrays hold old data, equal tails let Arrays.equals compare whole arrays
+						System.arraycopy(bytes1, n, bytes2, n, bytes1.length - n);
+					}
+					if (!Arrays.equals(bytes1, bytes2)) {
+						different.set(true);
+					}
+				}
+			} finally {
+				BufferPool.shared().release(bytes1);
+				BufferPool.shared().release(bytes2);
+			}
+			return null;
+		}
+	}
+}
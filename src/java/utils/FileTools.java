@@ -0,0 +1,198 @@
+package utils;
+
+import com.google.gson.JsonElement;
+import tool.tooling.Argument;
+import tool.tooling.DefaultValue;
+import tool.tooling.Runner;
+import tool.tooling.Tool;
+import tool.tooling.ToolingException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Command line tools for the file formats of this package:
+ * <pre>
+ * java utils.FileTools lines-to-records --input=data.tsv.gz --output=data.rec
+ * java utils.FileTools help lines-to-records
+ * </pre>
+ */
+public final class FileTools {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(FileTools.class);
+
+	public static void main(String[] args) throws ToolingException {
+		new Runner().run(new FileTools(), args, System.out);
+	}
+
+	@Tool(name = "lines-to-records", title = "Convert a line file into a record file",
+			description = "Each line becomes a record, the key is the text before the first separator and the value "
+					+ "the text after it. Lines without the separator get an empty value.")
+	public void linesToRecords(
+			@Argument(name = "input", description = "line file, compressed according to its extension") File input,
+			@Argument(name = "output", description = "record file to write") File output,
+			@Argument(name = "separator", description = "separator of key and value") @DefaultValue("\t") String separator,
+			@Argument(name = "compression", description = "compression of blocks") @DefaultValue("SNAPPY")
+			RecordFile.Compression compression,
+			@Argument(name = "block-size", description = "uncompressed bytes per block") @DefaultValue("1048576")
+			int blockSize) throws IOException {
+		long start = System.currentTimeMillis();
+		try (LineCursor cursor = LineCursor.open(input);
+			 RecordFileWriter writer = new RecordFileWriter(output, compression).setBlockSize(blockSize)) {
+			while (cursor.next()) {
+				String line = cursor.string();
+				int index = line.indexOf(separator);
+				if (index < 0) {
+					writer.append(line, "");
+				} else {
+					writer.append(line.substring(0, index), line.substring(index + separator.length()));
+				}
+			}
+			LOG.info("Converted {} lines of {} in {} ms", new Object[]{writer.getRecords(), input,
+					System.currentTimeMillis() - start});
+		}
+	}
+
+	@Tool(name = "records-to-lines", title = "Convert a record file into a line file",
+			description = "Writes key, separator and value of every record as a line.")
+	public void recordsToLines(
+			@Argument(name = "input", description = "record file") File input,
+			@Argument(name = "output", description = "line file, compressed according to its extension") File output,
+			@Argument(name = "separator", description = "separator of key and value") @DefaultValue("\t") String separator)
+			throws IOException {
+		try (RecordFileReader reader = new RecordFileReader(input);
+			 BufferedWriter writer = FileUtils.openWriter(output)) {
+			while (reader.next()) {
+				writer.write(reader.getKeyString());
+				writer.write(separator);
+				writer.write(reader.getValueString());
+				writer.newLine();
+			}
+		}
+	}
+
+	@Tool(name = "record-info", title = "Print the footer of a record file",
+			description = "Prints the number of records and blocks and the key range.")
+	public void recordInfo(@Argument(name = "input", description = "record file", noname = true) File input)
+			throws IOException {
+		System.out.println(input + ": " + RecordFile.readFooter(input));
+	}
+
+	@Tool(name = "dedup", title = "Remove duplicate lines",
+			description = "Writes the first line of every key, in input order. Fingerprints of keys are kept off-heap; "
+					+ "when they outgrow the memory budget, the remaining lines are deduplicated through partitions "
+					+ "on disk and written after the others.")
+	public void dedup(
+			@Argument(name = "input", description = "line files, compressed according to their extension") File[] inputs,
+			@Argument(name = "output", description = "line file to write") File output,
+			@Argument(name = "separator", description = "separator of fields") @DefaultValue("\t") String separator,
+			@Argument(name = "field", description = "1-based index of the key field, 0 for the whole line")
+			@DefaultValue("0") int field,
+			@Argument(name = "memory", description = "megabytes of memory for fingerprints") @DefaultValue("256")
+			long memory) throws IOException {
+		LineDeduplicator deduplicator = new LineDeduplicator().memoryBudget(memory * 1024 * 1024);
+		if (field > 0) {
+			deduplicator.keyField(separator, field);
+		}
+		deduplicator.dedup(Arrays.asList(inputs), output);
+	}
+
+	@Tool(name = "json-array-to-lines", title = "Convert a JSON array file into JSON lines",
+			description = "Writes every element of the array as a line, reading one element at a time.")
+	public void jsonArrayToLines(
+			@Argument(name = "input", description = "JSON array file, compressed according to its extension") File input,
+			@Argument(name = "output", description = "JSON lines file to write") File output) throws IOException {
+		JsonUtils.JsonArrayReader<JsonElement> reader = JsonUtils.openJsonArrayReader(input, JsonElement.class);
+		try (JsonUtils.JsonLinesWriter writer = JsonUtils.openJsonLinesWriter(output)) {
+			for (JsonElement element = reader.next(); element != null; element = reader.next()) {
+				writer.write(element);
+			}
+			LOG.info("Converted {} elements of {}", writer.getLines(), input);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Tool(name = "json-lines-to-array", title = "Convert JSON lines into a JSON array file",
+			description = "Writes every line as an element of the array, reading one line at a time.")
+	public void jsonLinesToArray(
+			@Argument(name = "input", description = "JSON lines file, compressed according to its extension") File input,
+			@Argument(name = "output", description = "JSON array file to write") File output) throws IOException {
+		JsonUtils.JsonArrayWriter writer = JsonUtils.openJsonArrayWriter(output);
+		try (JsonUtils.JsonLinesReader<JsonElement> reader = JsonUtils.openJsonLinesReader(input, JsonElement.class)) {
+			while (reader.hasNext()) {
+				writer.write(reader.next());
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Tool(name = "json-to-binary", title = "Convert JSON into a binary record file",
+			description = "Writes every element of a JSON array, or every line of JSON lines, as a record of a "
+					+ "binary record file. Numbers keep their text and null fields are kept, binary-to-json gives "
+					+ "the same values back.")
+	public void jsonToBinary(
+			@Argument(name = "input", description = "JSON file, compressed according to its extension") File input,
+			@Argument(name = "output", description = "binary record file to write") File output,
+			@Argument(name = "lines", description = "whether the input is JSON lines instead of an array")
+			@DefaultValue("false") boolean lines,
+			@Argument(name = "compression", description = "compression of blocks") @DefaultValue("SNAPPY")
+			RecordFile.Compression compression) throws IOException {
+		long start = System.currentTimeMillis();
+		try (BinaryRecordWriter writer = new BinaryRecordWriter(output, compression)) {
+			if (lines) {
+				try (JsonUtils.JsonLinesReader<JsonElement> reader = JsonUtils.openJsonLinesReader(input, JsonElement.class)) {
+					while (reader.hasNext()) {
+						writer.write(reader.next());
+					}
+				}
+			} else {
+				JsonUtils.JsonArrayReader<JsonElement> reader = JsonUtils.openJsonArrayReader(input, JsonElement.class);
+				try {
+					while (reader.hasNext()) {
+						writer.write(reader.next());
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			LOG.info("Converted {} records of {} in {} ms", new Object[]{writer.getRecords(), input,
+					System.currentTimeMillis() - start});
+		}
+	}
+
+	@Tool(name = "binary-to-json", title = "Convert a binary record file into JSON",
+			description = "Writes every record as an element of a JSON array, or as a line of JSON lines.")
+	public void binaryToJson(
+			@Argument(name = "input", description = "binary record file") File input,
+			@Argument(name = "output", description = "JSON file to write, compressed according to its extension")
+			File output,
+			@Argument(name = "lines", description = "whether to write JSON lines instead of an array")
+			@DefaultValue("false") boolean lines) throws IOException {
+		long records = 0;
+		try (BinaryRecordReader<JsonElement> reader = new BinaryRecordReader<>(input, JsonElement.class);
+			 BufferedWriter writer = FileUtils.openWriter(output)) {
+			if (!lines) {
+				writer.write("[");
+			}
+			while (reader.hasNext()) {
+				if (!lines && records > 0) {
+					writer.write(",");
+					writer.newLine();
+				}
+				JsonUtils.getTreeGson().toJson(reader.next(), writer);
+				if (lines) {
+					writer.newLine();
+				}
+				records++;
+			}
+			if (!lines) {
+				writer.write("]");
+			}
+		}
+		LOG.info("Converted {} records of {}", records, input);
+	}
+}
@@ -1,16 +1,14 @@
 package utils;
 
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
-import org.iq80.snappy.SnappyInputStream;
-import org.iq80.snappy.SnappyOutputStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -40,7 +38,7 @@ public final class FileUtils {
 	public static InputStream wrapWithSnappy(InputStream inputStream, boolean useSnappy)
 			throws IOException {
 		if (useSnappy) {
-			return new SnappyInputStream(inputStream, true);
+			return CompressionCodecs.SNAPPY.openInputStream(inputStream);
 		} else {
 			return inputStream;
 		}
@@ -49,7 +47,7 @@ public final class FileUtils {
 	public static OutputStream wrapWithSnappy(OutputStream outputStream, boolean useSnappy)
 			throws IOException {
 		if (useSnappy) {
-			return new SnappyOutputStream(outputStream);
+			return CompressionCodecs.SNAPPY.openOutputStream(outputStream);
 		} else {
 			return outputStream;
 		}
@@ -211,10 +209,13 @@ public final class FileUtils {
 		}
 	}
 
+	// chars read at once by read(), the buffers come from BufferPool
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
 	public static String read(@NotNull BufferedReader bufferedReader, boolean closeInputStream) throws IOException {
 		StringBuilder stringBuilder = new StringBuilder();
+		char[] buffer = BufferPool.shared().takeChars(READ_BUFFER_SIZE);
 		try {
-			char[] buffer = new char[1024 * 1024];
 			int size;
 			while ((size = bufferedReader.read(buffer)) != -1) {
 				stringBuilder.append(buffer, 0, size);
@@ -223,6 +224,7 @@ public final class FileUtils {
 		} catch (EOFException e) {
 			return stringBuilder.toString();
 		} finally {
+			BufferPool.shared().release(buffer);
 			if (closeInputStream) {
 				bufferedReader.close();
 			}
@@ -243,20 +245,7 @@ public final class FileUtils {
 
 	@NotNull
 	public static String read(@NotNull File file) throws IOException {
-		BufferedReader bufferedReader = openBufferReader(file);
-		StringBuilder stringBuilder = new StringBuilder();
-		try {
-			char[] buffer = new char[1024 * 1024];
-			int size;
-			while ((size = bufferedReader.read(buffer)) != -1) {
-				stringBuilder.append(buffer, 0, size);
-			}
-			return stringBuilder.toString();
-		} catch (EOFException e) {
-			return stringBuilder.toString();
-		} finally {
-			bufferedReader.close();
-		}
+		return read(openBufferReader(file), true);
 	}
 
 	private static final String POPULAR_EXTENSIONS = "zip,pdf,mp3,jpg,rar,exe,wmv,doc,avi,"
@@ -264,7 +253,8 @@ public final class FileUtils {
 			+ "aif,pub,dwg,gif,qbb,mpeg,indd,swf,asf,png,dat,rm,mdb,chm,jar,htm,dvf,dss,dmg,iso,"
 			+ "flv,wpd,cda,m4b,7z,gz,fla,qxd,rtf,aiff,msi,jpeg,3gp,cdl,vob,ace,m4p,divx,html,pst,"
 			+ "cab,ttf,xtm,hqx,qbw,sea,ptb,bin,mswmm,ifo,tgz,log,dll,mcd,ss,m4v,eml,mid,ogg,ram,"
-			+ "lnk,torrent,ses,mp2,vcd,bat,asx,ps,bup,cbr,amr,wps,sql,docx,xlsx,pptx,csv,json,bin";
+			+ "lnk,torrent,ses,mp2,vcd,bat,asx,ps,bup,cbr,amr,wps,sql,docx,xlsx,pptx,csv,json,bin,"
+			+ "snappy,lz4";
 	private static final Set<String> EXTENSIONS = new ObjectOpenHashSet<>(
 			Arrays.asList(POPULAR_EXTENSIONS.split(",")));
 
@@ -299,15 +289,99 @@ public final class FileUtils {
 	 */
 	@Nullable
 	public static String readLastLine(@NotNull Path path) throws IOException {
-		String prevLine = null;
-		try (BufferedReader br = Files.newBufferedReader(path, Charset.forName("UTF-8"))) {
-			String line;
-			while ((line = br.readLine()) != null) {
-				prevLine = line;
+		List<String> lines = readLastLines(path, 1);
+		return lines.isEmpty() ? null : lines.get(0);
+	}
+
+	private static final int TAIL_BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Reads the last {@code n} lines of a file, oldest first.
+	 * <p>
+	 * Uncompressed files are read backwards from the end in blocks, so the
+	 * cost depends on the size of the lines returned and not on the size of
+	 * the file. Compressed files can't be read backwards, they are streamed
+	 * while the last {@code n} lines are kept in a ring buffer.
+	 *
+	 * @return at most n lines, empty list in case of empty file
+	 */
+	@NotNull
+	public static List<String> readLastLines(@NotNull Path path, int n) throws IOException {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n <= 0");
+		}
+		if (CompressionCodecs.detect(path.toFile()) != CompressionCodecs.NONE) {
+			return readLastLinesStreaming(path, n);
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size == 0) {
+				return new ObjectArrayList<>();
 			}
+			// n lines start after the n-th '\n' from the end, or after the (n+1)-th
+			// one if the file ends with a newline, since that one doesn't start a line
+			ByteBuffer block = ByteBuffer.allocate((int) Math.min(TAIL_BLOCK_SIZE, size));
+			long start = 0;
+			long position = size;
+			int newlines = 0;
+			int needed = n;
+			search:
+			while (position > 0) {
+				int length = (int) Math.min(block.capacity(), position);
+				position -= length;
+				block.clear().limit(length);
+				readFully(channel, block, position);
+				for (int i = length - 1; i >= 0; i--) {
+					if (block.get(i) == '\n') {
+						if (position + i == size - 1) {
+							needed++;
+						}
+						if (++newlines == needed) {
+							start = position + i + 1;
+							break search;
+						}
+					}
+				}
+			}
+			if (size - start > Integer.MAX_VALUE) {
+				throw new IOException("Last " + n + " lines of " + path + " are too long");
+			}
+			// '\n' never occurs inside a multi-byte UTF-8 sequence, so the tail
+			// starts on a character boundary and decodes as a whole
+			ByteBuffer tail = ByteBuffer.allocate((int) (size - start));
+			readFully(channel, tail, start);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new ByteArrayInputStream(tail.array()), StandardCharsets.UTF_8));
+			return keepLastLines(reader, n);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of file at " + position);
+			}
+			position += read;
 		}
+	}
+
+	private static List<String> readLastLinesStreaming(Path path, int n) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(openInputStream(path.toFile()),
+				StandardCharsets.UTF_8))) {
+			return keepLastLines(reader, n);
+		}
+	}
 
-		return prevLine;
+	private static List<String> keepLastLines(BufferedReader reader, int n) throws IOException {
+		ArrayDeque<String> ring = new ArrayDeque<>(Math.min(n, 1024));
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			if (ring.size() == n) {
+				ring.pollFirst();
+			}
+			ring.addLast(line);
+		}
+		return new ObjectArrayList<>(ring);
 	}
 
 	@NotNull
@@ -317,15 +391,16 @@ public final class FileUtils {
 		return res;
 	}
 
+	/**
+	 * Adds the lines of a file, decoded as UTF-8.
+	 */
 	public static void addLinesToCollection(
 			@NotNull File file, @NotNull Collection<String> collection)
 			throws IOException {
-		String line;
-		try (BufferedReader bufferedReader = openBufferReader(file)) {
-			while ((line = bufferedReader.readLine()) != null) {
-				collection.add(line);
+		try (LineCursor cursor = LineCursor.open(file)) {
+			while (cursor.next()) {
+				collection.add(cursor.string());
 			}
-			bufferedReader.close();
 		} catch (EOFException ignored) {
 		}
 	}
@@ -397,6 +472,34 @@ public final class FileUtils {
 		renameTo(src, dest);
 	}
 
+	/**
+	 * Like {@link #replaceFile(File, File)}, but in one step: {@code dest} is
+	 * never missing, it has either the old or the new content. Both files must
+	 * be on the same file system.
+	 */
+	public static void replaceFileAtomically(@NotNull File src, @NotNull File dest) throws IOException {
+		assertExists(src);
+		Files.move(src.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Writes a small file through a synced {@link #tmpFile} moved over it with
+	 * {@link #replaceFileAtomically}, so after a crash it holds either the old
+	 * or the new content.
+	 */
+	public static void writeAtomically(@NotNull File file, @NotNull String content) throws IOException {
+		File tmp = tmpFile(file, false);
+		try {
+			try (FileOutputStream out = new FileOutputStream(tmp)) {
+				out.write(content.getBytes(StandardCharsets.UTF_8));
+				out.getFD().sync();
+			}
+			replaceFileAtomically(tmp, file);
+		} finally {
+			deleteQuietly(tmp);
+		}
+	}
+
 	/**
 	 * Calculates the checksum file's pathname for a hadoop SequenceFile denoted
 	 * by the given pathname.
@@ -413,37 +516,46 @@ public final class FileUtils {
 	}
 
 	public static void linkOrCopyFile(File from, File to, byte[] buffer) throws IOException {
-		try {
-			Files.createLink(to.toPath(), from.toPath());
-		} catch (IOException ex) {
-			copyFile(from, to, buffer);
-		}
+		linkOrCopyFile(from, to);
 	}
 
 	public static void linkOrCopyFile(File from, File to, int bufferSize) throws IOException {
+		linkOrCopyFile(from, to);
+	}
+
+	private static void linkOrCopyFile(File from, File to) throws IOException {
 		try {
 			Files.createLink(to.toPath(), from.toPath());
 		} catch (IOException ex) {
-			copyFile(from, to, bufferSize);
+			transferFile(from, to);
 		}
 	}
 
+	/**
+	 * Copies a file with {@link FileChannel#transferTo}, the bytes are moved by
+	 * the kernel and never reach the heap. {@code bufferSize} is only validated.
+	 */
 	public static void copyFile(@NotNull File from, @NotNull File to, int bufferSize) throws IOException {
 		if (bufferSize <= 0) {
 			throw new IllegalArgumentException("bufferSize <= 0");
 		}
 		assertFileExists(from);
 		assertNotExist(to);
-		copyFile(from, to, new byte[bufferSize]);
+		transferFile(from, to);
 	}
 
 	public static void copyFile(@NotNull File from, @NotNull File to) throws IOException {
 		assertFileExists(from);
-		copyFile(from, to, new byte[DEFAULT_BUFFER_SIZE]);
+		transferFile(from, to);
 	}
 
 	public static void copy(InputStream input, OutputStream output) throws IOException {
-		copy(input, output, new byte[DEFAULT_BUFFER_SIZE >>> 2]);
+		byte[] buffer = BufferPool.shared().takeBytes(DEFAULT_BUFFER_SIZE >>> 2);
+		try {
+			copy(input, output, buffer);
+		} finally {
+			BufferPool.shared().release(buffer);
+		}
 	}
 
 	public static void copy(InputStream input, OutputStream output, byte[] buffer) throws IOException {
@@ -487,45 +599,73 @@ public final class FileUtils {
 		}
 	}
 
-	private static void copyFile(File from, File to, byte[] buffer) throws IOException {
-		FileInputStream input = null;
-		FileOutputStream output = null;
-		try {
-			input = new FileInputStream(from);
-			output = new FileOutputStream(to);
-			copy(input, output, buffer);
-		} finally {
-			closeAll(input, output);
+	/*
+	 * copies the whole file, creating or truncating the target
+	 */
+	static void transferFile(File from, File to) throws IOException {
+		try (FileChannel input = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+			 FileChannel output = FileChannel.open(to.toPath(), StandardOpenOption.CREATE,
+					 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = input.size();
+			long position = 0;
+			while (position < size) {
+				long n = input.transferTo(position, size - position, output);
+				if (n <= 0) {
+					// the file was truncated while copying
+					break;
+				}
+				position += n;
+			}
 		}
 	}
 
 	public static void linkOrCopyRecursively(File from, File to, int bufferSize) throws IOException {
 		assertExists(from);
 		assertNotExist(to);
-		linkOrCopyRecursively(from, to, new byte[bufferSize]);
+		linkOrCopyRecursively(from, to);
 	}
 
-	private static void linkOrCopyRecursively(File from, File to, byte[] buffer) throws IOException {
+	private static void linkOrCopyRecursively(File from, File to) throws IOException {
 		if (from.isDirectory()) {
 			FileUtils.mkdir(to);
 			File[] childFiles = from.listFiles();
 			if (childFiles != null) {
 				for (File childFile : childFiles) {
-					linkOrCopyRecursively(childFile, new File(to, childFile.getName()), buffer);
+					linkOrCopyRecursively(childFile, new File(to, childFile.getName()));
 				}
 			}
 		} else {
-			linkOrCopyFile(from, to, buffer);
+			linkOrCopyFile(from, to);
 		}
 	}
 
+	/**
+	 * Hard links or copies a tree on {@code threads} threads, see {@link ParallelTreeCopier}.
+	 */
+	public static ParallelTreeCopier.CopyStats linkOrCopyRecursivelyParallel(@NotNull File from, @NotNull File to,
+																			 int threads) throws IOException {
+		assertExists(from);
+		assertNotExist(to);
+		return new ParallelTreeCopier(threads, true).copy(from, to);
+	}
+
 	public static void copyRecursively(@NotNull File from, @NotNull File to, int bufferSize) throws IOException {
 		if (bufferSize <= 0) {
 			throw new IllegalArgumentException("bufferSize <= 0");
 		}
 		assertExists(from);
 		assertNotExist(to);
-		copyRecursively(from, to, new byte[bufferSize]);
+		copyRecursively(from, to);
+	}
+
+	/**
+	 * Copies a tree on {@code threads} threads (all cores if 0), see {@link ParallelTreeCopier}.
+	 */
+	public static ParallelTreeCopier.CopyStats copyRecursivelyParallel(@NotNull File from, @NotNull File to,
+																	   int threads) throws IOException {
+		assertExists(from);
+		assertNotExist(to);
+		return new ParallelTreeCopier(threads, false).copy(from, to);
 	}
 
 	/**
@@ -547,7 +687,7 @@ public final class FileUtils {
 			}
 			assertDirectoryExists(fromDir);
 			mkdirs(toDir);
-			copyRecursively(fromDir, toDir, new byte[bufferSize]);
+			copyRecursively(fromDir, toDir);
 		}
 	}
 
@@ -555,21 +695,39 @@ public final class FileUtils {
 		copyDirectoryContents(fromDir, toDir, DEFAULT_BUFFER_SIZE);
 	}
 
+	/**
+	 * Parallel {@link #copyDirectoryContents(File, File)}. Overwrites existing files.
+	 */
+	public static ParallelTreeCopier.CopyStats copyDirectoryContentsParallel(File fromDir, File toDir, int threads)
+			throws IOException {
+		if (fromDir == null) {
+			throw new IllegalArgumentException("fromDir is null");
+		}
+		if (toDir == null) {
+			throw new IllegalArgumentException("toDir is null");
+		}
+		assertDirectoryExists(fromDir);
+		if (fromDir.equals(toDir)) {
+			return new ParallelTreeCopier.CopyStats();
+		}
+		return new ParallelTreeCopier(threads, false).copy(fromDir, toDir);
+	}
+
 	public static void copyFileToDirectory(File fromFile, File toDir) throws IOException {
 		copyContent(fromFile, new File(toDir, fromFile.getName()));
 	}
 
-	private static void copyRecursively(File from, File to, byte[] buffer) throws IOException {
+	private static void copyRecursively(File from, File to) throws IOException {
 		if (from.isDirectory()) {
 			FileUtils.mkdir(to);
 			File[] childFiles = from.listFiles();
 			if (childFiles != null) {
 				for (File childFile : childFiles) {
-					copyRecursively(childFile, new File(to, childFile.getName()), buffer);
+					copyRecursively(childFile, new File(to, childFile.getName()));
 				}
 			}
 		} else {
-			copyFile(from, to, buffer);
+			transferFile(from, to);
 		}
 	}
 
@@ -797,40 +955,105 @@ public final class FileUtils {
 		return lines;
 	}
 
+	/**
+	 * Counts lines of a file. Uncompressed files are mapped and scanned on all
+	 * cores by {@link MappedLineScanner}, compressed files are streamed.
+	 */
 	public static long lines(File file) {
+		return lines(file, 0);
+	}
+
+	/**
+	 * @param threads number of threads scanning an uncompressed file, 0 means all cores
+	 */
+	public static long lines(File file, int threads) {
 		long count = 0;
 		try {
-			BufferedReader reader = openBufferReader(file);
-			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-				count++;
+			if (CompressionCodecs.detect(file) == CompressionCodecs.NONE) {
+				return MappedLineScanner.countLines(file, threads);
+			}
+			try (LineCursor cursor = LineCursor.open(file)) {
+				while (cursor.next()) {
+					count++;
+				}
 			}
-			reader.close();
 		} catch (IOException ignore) {
 		}
 		return count;
 	}
 
+	/**
+	 * Returns the byte offset of every line start of an uncompressed file,
+	 * e.g. to split it between threads or to seek to the n-th line.
+	 */
+	@NotNull
+	public static LongArrayList lineOffsets(@NotNull File file) throws IOException {
+		if (CompressionCodecs.detect(file) != CompressionCodecs.NONE) {
+			throw new IOException("Can't compute line offsets of compressed file " + file.getPath());
+		}
+		return MappedLineScanner.lineOffsets(file);
+	}
+
+	/**
+	 * Copies the lines of a file, decoded as UTF-8, and closes the writer.
+	 */
 	public static long copyContent(File from, BufferedWriter writer) throws IOException {
-		long lines;
-		try (BufferedReader reader = openBufferReader(from);) {
-			lines = copyContent(reader, writer);
+		long lines = 0;
+		try (LineCursor cursor = LineCursor.open(from)) {
+			while (cursor.next()) {
+				writer.write(cursor.string());
+				writer.newLine();
+				lines++;
+			}
+		} catch (EOFException e) {
+			LOG.warn("Catched EOFException - ", e);
+		} finally {
+			writer.close();
 		}
 		return lines;
 	}
 
-	// return number of line
+	/**
+	 * Copies the lines of a file, (de)compressing it as needed by the file
+	 * extensions. Lines are copied as bytes, never decoded.
+	 *
+	 * @return number of lines
+	 */
 	public static long copyContent(File from, File to) throws IOException {
-		long lines;
-		try (BufferedReader reader = openBufferReader(from); BufferedWriter writer = openWriter(to)) {
-			lines = copyContent(reader, writer);
+		long lines = 0;
+		byte[] newLine = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+		try (LineCursor cursor = LineCursor.open(from); OutputStream out = openOutputStream(to)) {
+			try {
+				while (cursor.next()) {
+					cursor.writeTo(out);
+					out.write(newLine);
+					lines++;
+				}
+			} catch (EOFException e) {
+				LOG.warn("Catched EOFException - ", e);
+			}
 		}
 		return lines;
 	}
 
+	/**
+	 * Compares files byte by byte, see {@link FileContentComparator}.
+	 */
 	public static boolean isContentEqual(File file1, File file2) throws IOException {
-		HashCode hash1 = com.google.common.io.Files.hash(file1, Hashing.sha1());
-		HashCode hash2 = com.google.common.io.Files.hash(file2, Hashing.sha1());
-		return hash1.equals(hash2);
+		return FileContentComparator.isContentEqual(file1, file2);
+	}
+
+	/**
+	 * Compares files by their SHA-1, files unchanged since they were last
+	 * hashed are not read again. Files of different length are never hashed.
+	 */
+	public static boolean isContentEqual(File file1, File file2, @NotNull ContentHashCache cache) throws IOException {
+		assertFileExists(file1);
+		assertFileExists(file2);
+		if (file1.length() != file2.length()) {
+			return false;
+		}
+		return cache.getHash(file1).equals(cache.getHash(file2));
 	}
 
 	public static BufferedReader openBufferReader(File file) throws IOException {
@@ -842,21 +1065,29 @@ public final class FileUtils {
 	}
 
 	public static BufferedReader openBufferReader(File file, final boolean forceGzip) throws IOException {
-		if (forceGzip || file.getName().endsWith(".gz")) {
-			return new BufferedReader(new InputStreamReader(new GZIPInputStream(
-					new BufferedInputStream(new FileInputStream(file)))),
-					(int) Math.min(DEFAULT_BUFFER_SIZE, file.length() + 1));
+		InputStream inputStream;
+		if (forceGzip) {
+			inputStream = CompressionCodecs.GZIP.openInputStream(
+					new BufferedInputStream(new FileInputStream(file), DEFAULT_BUFFER_SIZE >> 1));
 		} else {
-			return new BufferedReader(new InputStreamReader(openInputStream(file)),
-					(int) Math.min(DEFAULT_BUFFER_SIZE, file.length() + 1));
+			inputStream = openInputStream(file);
 		}
+		return new BufferedReader(new InputStreamReader(inputStream),
+				(int) Math.min(DEFAULT_BUFFER_SIZE, file.length() + 1));
 	}
 
+	/**
+	 * Opens a file for reading and decompresses it with the codec registered
+	 * for its extension, see {@link CompressionCodecs}. Files without a known
+	 * extension are decompressed too if they start with the magic bytes of a codec.
+	 */
 	public static InputStream openInputStream(File file) throws IOException {
-		if (file.getName().endsWith(".gz")) {
-			return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), DEFAULT_BUFFER_SIZE >> 1));
+		CompressionCodec codec = CompressionCodecs.forFile(file);
+		if (codec != CompressionCodecs.NONE) {
+			return codec.openInputStream(new BufferedInputStream(new FileInputStream(file), DEFAULT_BUFFER_SIZE >> 1));
 		} else {
-			return new BufferedInputStream(new FileInputStream(file), DEFAULT_BUFFER_SIZE);
+			return CompressionCodecs.detectAndOpen(
+					new BufferedInputStream(new FileInputStream(file), DEFAULT_BUFFER_SIZE));
 		}
 	}
 
@@ -866,19 +1097,35 @@ public final class FileUtils {
 		return zipInputStream;
 	}
 
+	/**
+	 * Opens a file for writing, compressed with the codec registered for its
+	 * extension (gzip for .gz, snappy for .snappy, LZ4 for .lz4).
+	 */
 	public static OutputStream openOutputStream(File file) throws IOException {
-		if (file.getName().endsWith(".gz")) {
-			return new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file), DEFAULT_BUFFER_SIZE >>> 1)) {
-				{
-					def.setLevel(Deflater.BEST_SPEED);
-				}
-
-			};
+		CompressionCodec codec = CompressionCodecs.forFile(file);
+		if (codec != CompressionCodecs.NONE) {
+			return codec.openOutputStream(new BufferedOutputStream(new FileOutputStream(file), DEFAULT_BUFFER_SIZE >>> 1));
 		} else {
 			return new BufferedOutputStream(new FileOutputStream(file), DEFAULT_BUFFER_SIZE);
 		}
 	}
 
+	/**
+	 * Opens an output stream; {@code .gz} files are compressed by {@code threads}
+	 * threads with {@link ParallelGzipOutputStream}. Worth it for big outputs only,
+	 * for small ones use {@link #openOutputStream(File)}.
+	 *
+	 * @param threads number of compressing threads, 0 means all cores, 1 means
+	 *                the usual single-threaded stream
+	 */
+	public static OutputStream openOutputStream(File file, int threads) throws IOException {
+		if (threads == 1 || !file.getName().endsWith(".gz")) {
+			return openOutputStream(file);
+		}
+		return new ParallelGzipOutputStream(new FileOutputStream(file),
+				ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, threads, Deflater.BEST_SPEED);
+	}
+
 	/**
 	 * Open a print stream to write into a file
 	 * <p>
@@ -890,24 +1137,46 @@ public final class FileUtils {
 		return openWriter(openOutputStream(file));
 	}
 
+	/**
+	 * Same as {@link #openWriter(File)}, but {@code .gz} files are compressed on
+	 * several threads, see {@link #openOutputStream(File, int)}.
+	 */
+	public static BufferedWriter openWriter(File file, int threads) throws IOException {
+		return openWriter(openOutputStream(file, threads));
+	}
+
 	public static BufferedWriter openWriter(OutputStream outputStream) throws IOException {
 		return new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), DEFAULT_BUFFER_SIZE);
 	}
 
+	/**
+	 * Same as {@link #openWriter(File)}, but encoding and compression run on a
+	 * background thread, see {@link AsyncWriter}.
+	 */
+	public static BufferedWriter openAsyncWriter(File file) throws IOException {
+		return openAsyncWriter(file, AsyncWriter.DEFAULT_BUFFER_SIZE, AsyncWriter.DEFAULT_BUFFERS);
+	}
+
+	/**
+	 * @param bufferSize chars per buffer handed to the background thread
+	 * @param buffers    number of buffers, the caller blocks when all are waiting to be written
+	 */
+	public static BufferedWriter openAsyncWriter(File file, int bufferSize, int buffers) throws IOException {
+		OutputStream out = openOutputStream(file);
+		// the small buffer keeps newLine() and cheap single char writes, the big ones are in AsyncWriter
+		return new BufferedWriter(new AsyncWriter(out, StandardCharsets.UTF_8, bufferSize, buffers), 8192);
+	}
+
 	/**
 	 * Open print stream to append into a file
 	 */
 	public static BufferedWriter openAppendWriter(File file) throws Exception {
-		if (!file.getName().endsWith(".gz")) {
+		CompressionCodec codec = CompressionCodecs.forFile(file);
+		if (codec == CompressionCodecs.NONE) {
 			return new BufferedWriter(new FileWriter(file, true));
 		} else {
-			FileOutputStream fout = new FileOutputStream(file, true);
-			GZIPOutputStream zstream = new GZIPOutputStream(fout, DEFAULT_BUFFER_SIZE >>> 1) {
-				{
-					def.setLevel(Deflater.BEST_SPEED);
-				}
-
-			};
+			// every codec is made of concatenable frames, a new one is started at the end
+			OutputStream zstream = codec.openOutputStream(new FileOutputStream(file, true));
 			return new BufferedWriter(new OutputStreamWriter(zstream), DEFAULT_BUFFER_SIZE);
 		}
 	}
@@ -920,57 +1189,84 @@ public final class FileUtils {
 	}
 
 	/**
-	 * including sub-directory's children, too
+	 * Iterator over the files of a tree, holding the open directories of the
+	 * current path; it closes itself at its end.
 	 */
-	public static Iterator<File> getChildrenFileIteration(final File file) {
-		final Queue<File> queue = new LinkedList<>();
-		if (file != null && file.exists() && file.isDirectory()) {
-			queue.add(file);
-		}
-		return new Iterator<File>() {
+	public interface FileIterator extends Iterator<File>, Closeable {
+		@Override
+		void close();
+	}
+
+	/**
+	 * including sub-directory's children, too. The directory itself comes
+	 * first, then the tree in depth-first order, see {@link DirectoryWalker}.
+	 * An iterator dropped before its end must be closed.
+	 */
+	public static FileIterator getChildrenFileIteration(final File file) {
+		final DirectoryWalker.PathIterator paths = file == null || !file.isDirectory() ? null
+				: new DirectoryWalker(file).followLinks().iterator();
+		return new FileIterator() {
 			@Override
 			public boolean hasNext() {
-				return queue.size() > 0;
+				return paths != null && paths.hasNext();
 			}
 
 			@Override
 			public File next() {
-				File file = queue.poll();
-				if (file != null && file.isDirectory()) {
-					queue.addAll(Arrays.asList(file.listFiles()));
+				if (paths == null) {
+					throw new NoSuchElementException();
+				}
+				return paths.next().toFile();
+			}
+
+			@Override
+			public void close() {
+				if (paths != null) {
+					paths.close();
 				}
-				return file;
 			}
 		};
 	}
 
+	/**
+	 * Calls {@code handler} for every line of the inputs on {@code threads}
+	 * threads (all cores if 0), writing its output in input order to {@code outputs}.
+	 * See {@link ParallelLineProcessor} for the options.
+	 */
+	public static ParallelLineProcessor.Stats forEachLineParallel(List<File> inputs, int threads,
+																  ParallelLineProcessor.LineHandler handler,
+																  File... outputs) throws IOException {
+		return new ParallelLineProcessor(threads).process(inputs, handler, outputs);
+	}
+
 	public static void zipFiles(List<File> inputs, File zipFile) throws IOException {
 		zipFiles(inputs, zipFile, false);
 	}
 
 	public static void zipFiles(List<File> inputs, File zipFile, boolean deleteAfterZip) throws IOException {
-		FileOutputStream fout = null;
-		ZipOutputStream zout = null;
-		for (File file : inputs) {
-			if (file == null || !file.exists()) {
-				continue;
-			}
-			if (fout == null) {
-				fout = new FileOutputStream(zipFile);
-				zout = new ZipOutputStream(new BufferedOutputStream(fout));
-			}
-			byte[] buffer = new byte[100 * 1024];
-			InputStream fin = openInputStream(file);
-			zout.putNextEntry(new ZipEntry(file.getName()));
-			int length;
-			while ((length = fin.read(buffer)) > 0) {
-				zout.write(buffer, 0, length);
+		zipFiles(inputs, zipFile, deleteAfterZip, 0);
+	}
+
+	/**
+	 * Zips the existing inputs with {@link ParallelZipWriter}, deflating on
+	 * {@code threads} threads (all cores if 0). Compressed inputs are stored
+	 * as they are. No zip is created if none of the inputs exists.
+	 */
+	public static void zipFiles(List<File> inputs, File zipFile, boolean deleteAfterZip, int threads)
+			throws IOException {
+		ParallelZipWriter writer = null;
+		try {
+			for (File file : inputs) {
+				if (file == null || !file.exists()) {
+					continue;
+				}
+				if (writer == null) {
+					writer = new ParallelZipWriter(zipFile, threads);
+				}
+				writer.addFile(file);
 			}
-			zout.closeEntry();
-			fin.close();
-		}
-		if (zout != null) {
-			zout.close();
+		} finally {
+			closeAll(writer);
 		}
 		if (deleteAfterZip) {
 			for (File file : inputs) {
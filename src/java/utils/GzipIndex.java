@@ -0,0 +1,515 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Random access index of a gzip file, in the style of zlib's zran.
+ * <p>
+ * A checkpoint is recorded every {@code span} uncompressed bytes at a deflate
+ * block boundary (or at the start of a gzip member). It holds the bit offset
+ * of the block and the 32KB of output preceding it, which is all a fresh
+ * inflater needs to continue from there. The index is saved next to the data
+ * in a {@code <name>.gzidx} sidecar and is rebuilt when the gzip file changes.
+ * <p>
+ * With an index one gzip file can be cut into {@link Split}s aligned to line
+ * starts and decoded by several threads at once, see {@link #split(int)} and
+ * {@link #openLineReader(Split)}.
+ */
+public final class GzipIndex {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(GzipIndex.class);
+
+	public static final long DEFAULT_SPAN = 16L * 1024 * 1024;
+	public static final String SIDECAR_EXTENSION = ".gzidx";
+
+	private static final int MAGIC = 0x475a4958; // "GZIX"
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * A place the gzip file can be decompressed from.
+	 */
+	public static final class Checkpoint {
+		private final long bitOffset;
+		private final long uncompressedOffset;
+		private final boolean lineStart;
+		private final byte[] window;
+		// where the gzip member containing the checkpoint ends, set once the builder gets there
+		long memberEnd;
+
+		Checkpoint(long bitOffset, long uncompressedOffset, boolean lineStart, byte[] window) {
+			this.bitOffset = bitOffset;
+			this.uncompressedOffset = uncompressedOffset;
+			this.lineStart = lineStart;
+			this.window = window;
+		}
+
+		public long getBitOffset() {
+			return bitOffset;
+		}
+
+		public long getUncompressedOffset() {
+			return uncompressedOffset;
+		}
+
+		/*
+		 * whether the uncompressed byte before this checkpoint is a '\n'
+		 */
+		public boolean isLineStart() {
+			return lineStart;
+		}
+
+		private boolean isMemberStart() {
+			return window.length == 0;
+		}
+	}
+
+	/**
+	 * Uncompressed range [start, end) starting at a checkpoint.
+	 */
+	public static final class Split {
+		private final Checkpoint checkpoint;
+		private final long end;
+
+		private Split(Checkpoint checkpoint, long end) {
+			this.checkpoint = checkpoint;
+			this.end = end;
+		}
+
+		public long getStart() {
+			return checkpoint.uncompressedOffset;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+	}
+
+	private final File file;
+	private final long span;
+	private final long uncompressedSize;
+	private final List<Checkpoint> checkpoints;
+
+	private GzipIndex(File file, long span, long uncompressedSize, List<Checkpoint> checkpoints) {
+		this.file = file;
+		this.span = span;
+		this.uncompressedSize = uncompressedSize;
+		this.checkpoints = checkpoints;
+	}
+
+	public static File getSidecarFile(@NotNull File gzipFile) {
+		return new File(gzipFile.getParentFile(), gzipFile.getName() + SIDECAR_EXTENSION);
+	}
+
+	/**
+	 * Reads one pass over the gzip file and records a checkpoint every {@code span}
+	 * uncompressed bytes. Nothing is written to disk, see {@link #save()}.
+	 */
+	@NotNull
+	public static GzipIndex build(@NotNull File gzipFile, long span) throws IOException {
+		if (span <= 0) {
+			throw new IllegalArgumentException("span <= 0");
+		}
+		FileUtils.assertFileExists(gzipFile);
+		long start = System.currentTimeMillis();
+		try (InputStream in = new FileInputStream(gzipFile)) {
+			GzipIndexBuilder builder = new GzipIndexBuilder(in, span);
+			List<Checkpoint> checkpoints = builder.build();
+			LOG.info("Indexed {}: {} checkpoints over {} bytes in {} ms", new Object[]{gzipFile,
+					checkpoints.size(), builder.totalOut(), System.currentTimeMillis() - start});
+			return new GzipIndex(gzipFile, span, builder.totalOut(), checkpoints);
+		}
+	}
+
+	/**
+	 * Loads the sidecar index of the gzip file, or builds and saves it if it
+	 * is missing or older than the data.
+	 */
+	@NotNull
+	public static GzipIndex loadOrBuild(@NotNull File gzipFile, long span) throws IOException {
+		GzipIndex index = load(gzipFile);
+		if (index == null) {
+			index = build(gzipFile, span);
+			index.save();
+		}
+		return index;
+	}
+
+	@NotNull
+	public static GzipIndex loadOrBuild(@NotNull File gzipFile) throws IOException {
+		return loadOrBuild(gzipFile, DEFAULT_SPAN);
+	}
+
+	/**
+	 * @return the index from the sidecar file, null if it doesn't exist or is stale
+	 */
+	@Nullable
+	public static GzipIndex load(@NotNull File gzipFile) throws IOException {
+		File sidecar = getSidecarFile(gzipFile);
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a gzip index: " + sidecar);
+			}
+			long length = in.readLong();
+			long lastModified = in.readLong();
+			if (length != gzipFile.length() || lastModified != gzipFile.lastModified()) {
+				LOG.warn("Ignoring stale index {}", sidecar);
+				return null;
+			}
+			long span = in.readLong();
+			long uncompressedSize = in.readLong();
+			int count = in.readInt();
+			List<Checkpoint> checkpoints = new ObjectArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				long bitOffset = in.readLong();
+				long uncompressedOffset = in.readLong();
+				long memberEnd = in.readLong();
+				boolean lineStart = in.readBoolean();
+				byte[] window = inflateWindow(in);
+				Checkpoint checkpoint = new Checkpoint(bitOffset, uncompressedOffset, lineStart, window);
+				checkpoint.memberEnd = memberEnd;
+				checkpoints.add(checkpoint);
+			}
+			return new GzipIndex(gzipFile, span, uncompressedSize, checkpoints);
+		}
+	}
+
+	/**
+	 * Writes the index into its sidecar file, replacing an older one.
+	 */
+	public void save() throws IOException {
+		File sidecar = getSidecarFile(file);
+		File tmp = FileUtils.tmpFile(sidecar, false);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(file.length());
+			out.writeLong(file.lastModified());
+			out.writeLong(span);
+			out.writeLong(uncompressedSize);
+			out.writeInt(checkpoints.size());
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				for (Checkpoint checkpoint : checkpoints) {
+					out.writeLong(checkpoint.bitOffset);
+					out.writeLong(checkpoint.uncompressedOffset);
+					out.writeLong(checkpoint.memberEnd);
+					out.writeBoolean(checkpoint.lineStart);
+					deflateWindow(deflater, checkpoint.window, out);
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+		FileUtils.replaceFile(tmp, sidecar);
+	}
+
+	// windows are mostly text, storing them compressed keeps the sidecar small
+	private static void deflateWindow(Deflater deflater, byte[] window, DataOutputStream out) throws IOException {
+		deflater.reset();
+		deflater.setInput(window);
+		deflater.finish();
+		byte[] compressed = new byte[window.length + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		out.writeInt(window.length);
+		out.writeInt(length);
+		out.write(compressed, 0, length);
+	}
+
+	private static byte[] inflateWindow(DataInputStream in) throws IOException {
+		byte[] window = new byte[in.readInt()];
+		byte[] compressed = new byte[in.readInt()];
+		in.readFully(compressed);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int length = 0;
+			while (length < window.length) {
+				int n = inflater.inflate(window, length, window.length - length);
+				if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new ZipException("Corrupted window in gzip index");
+				}
+				length += n;
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Corrupted window in gzip index: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return window;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getUncompressedSize() {
+		return uncompressedSize;
+	}
+
+	public List<Checkpoint> getCheckpoints() {
+		return Collections.unmodifiableList(checkpoints);
+	}
+
+	/**
+	 * Returns the last checkpoint at or before the uncompressed offset.
+	 */
+	@NotNull
+	public Checkpoint checkpointBefore(long uncompressedOffset) {
+		int low = 0;
+		int high = checkpoints.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (checkpoints.get(middle).uncompressedOffset <= uncompressedOffset) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return checkpoints.get(low);
+	}
+
+	/**
+	 * Opens the uncompressed data starting at the given checkpoint.
+	 */
+	@NotNull
+	public InputStream openInputStream(@NotNull Checkpoint checkpoint) throws IOException {
+		if (checkpoint.isMemberStart()) {
+			return new GZIPInputStream(openCompressed(checkpoint.bitOffset >>> 3), BUFFER_SIZE);
+		}
+		int shift = (int) (checkpoint.bitOffset & 7);
+		InputStream compressed = openCompressed(checkpoint.bitOffset >>> 3);
+		if (shift != 0) {
+			compressed = new BitShiftInputStream(compressed, shift);
+		}
+		final Inflater inflater = new Inflater(true);
+		inflater.setDictionary(checkpoint.window);
+		InputStream member = new InflaterInputStream(compressed, inflater, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inflater.end();
+				}
+			}
+		};
+		if (checkpoint.memberEnd >= file.length()) {
+			return member;
+		}
+		return new MemberChainInputStream(member, checkpoint.memberEnd);
+	}
+
+	/**
+	 * Opens the uncompressed data starting at any offset; the data between the
+	 * previous checkpoint and the offset is decompressed and skipped.
+	 */
+	@NotNull
+	public InputStream openInputStream(long uncompressedOffset) throws IOException {
+		Checkpoint checkpoint = checkpointBefore(uncompressedOffset);
+		InputStream in = openInputStream(checkpoint);
+		long toSkip = uncompressedOffset - checkpoint.uncompressedOffset;
+		while (toSkip > 0) {
+			long skipped = in.skip(toSkip);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					break;
+				}
+				skipped = 1;
+			}
+			toSkip -= skipped;
+		}
+		return in;
+	}
+
+	/**
+	 * Cuts the file into at most {@code parts} ranges starting at checkpoints.
+	 * There can be fewer ranges when the index has fewer checkpoints.
+	 */
+	@NotNull
+	public List<Split> split(int parts) {
+		if (parts <= 0) {
+			throw new IllegalArgumentException("parts <= 0");
+		}
+		List<Checkpoint> starts = new ObjectArrayList<>();
+		starts.add(checkpoints.get(0));
+		for (int i = 1; i < parts; i++) {
+			long target = uncompressedSize / parts * i;
+			Checkpoint checkpoint = checkpointBefore(target);
+			if (checkpoint.uncompressedOffset > starts.get(starts.size() - 1).uncompressedOffset) {
+				starts.add(checkpoint);
+			}
+		}
+		List<Split> splits = new ObjectArrayList<>(starts.size());
+		for (int i = 0; i < starts.size(); i++) {
+			long end = i + 1 < starts.size() ? starts.get(i + 1).uncompressedOffset : Long.MAX_VALUE;
+			splits.add(new Split(starts.get(i), end));
+		}
+		return splits;
+	}
+
+	/**
+	 * Opens the lines starting within the split; all splits returned by one
+	 * call of {@link #split(int)} together read every line exactly once.
+	 */
+	@NotNull
+	public BufferedReader openLineReader(@NotNull Split split) throws IOException {
+		return new BufferedReader(new InputStreamReader(openLineStream(split), StandardCharsets.UTF_8),
+				BUFFER_SIZE);
+	}
+
+	/**
+	 * Same as {@link #openLineReader(Split)} but without decoding the bytes.
+	 */
+	@NotNull
+	public InputStream openLineStream(@NotNull Split split) throws IOException {
+		Checkpoint checkpoint = split.checkpoint;
+		return new LineRangeInputStream(openInputStream(checkpoint), checkpoint.uncompressedOffset, split.end,
+				checkpoint.lineStart);
+	}
+
+	private InputStream openCompressed(long offset) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			in.getChannel().position(offset);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new BufferedInputStream(in, BUFFER_SIZE);
+	}
+
+	/**
+	 * The rest of the member a checkpoint is in, then the following members.
+	 */
+	private final class MemberChainInputStream extends InputStream {
+		private InputStream current;
+		private final long nextMember;
+		private boolean lastMember = false;
+
+		private MemberChainInputStream(InputStream member, long nextMember) {
+			this.current = member;
+			this.nextMember = nextMember;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			int n = read(one, 0, 1);
+			return n < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = current.read(b, off, len);
+			if (n < 0 && !lastMember) {
+				current.close();
+				// from here the file holds whole members, the native gzip reader takes over
+				current = new GZIPInputStream(openCompressed(nextMember), BUFFER_SIZE);
+				lastMember = true;
+				n = current.read(b, off, len);
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			current.close();
+		}
+	}
+
+	/**
+	 * Re-aligns a deflate stream starting {@code shift} bits into its first byte.
+	 * Deflate packs bits starting with the least significant one, so every
+	 * output byte is the high bits of one input byte and the low bits of the next.
+	 */
+	private static final class BitShiftInputStream extends FilterInputStream {
+		private final int shift;
+		private int current = -2;
+
+		private BitShiftInputStream(InputStream in, int shift) {
+			super(in);
+			this.shift = shift;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (current == -2) {
+				current = in.read();
+			}
+			if (current < 0) {
+				return -1;
+			}
+			int next = in.read();
+			int value = (current >>> shift) | ((next < 0 ? 0 : next) << (8 - shift));
+			current = next;
+			return value & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (current == -2) {
+				current = in.read();
+			}
+			if (current < 0) {
+				return -1;
+			}
+			int n = in.read(b, off, len);
+			if (n <= 0) {
+				b[off] = (byte) (current >>> shift);
+				current = -1;
+				return 1;
+			}
+			// b[off + i] holds input byte i + 1, rewrite it in place from left to right
+			int previous = current;
+			for (int i = 0; i < n; i++) {
+				int next = b[off + i] & 0xff;
+				b[off + i] = (byte) ((previous >>> shift) | (next << (8 - shift)));
+				previous = next;
+			}
+			current = previous;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			throw new IOException("skip is not supported");
+		}
+
+		@Override
+		public int available() {
+			return 0;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,407 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Single pass over a gzip file recording {@link GzipIndex.Checkpoint}s, in the
+ * spirit of zlib's examples/zran.c.
+ * <p>
+ * java.util.zip.Inflater can neither stop at deflate block boundaries nor
+ * tell the bit offset it stopped at, so this class carries its own small
+ * inflater. It keeps only the last 32KB of output (the window the next
+ * block may refer to) and never materializes the data itself.
+ */
+final class GzipIndexBuilder {
+
+	private static final int WINDOW_SIZE = 32 * 1024;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static final int MAX_BITS = 15;
+
+	private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+			35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+			3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	private static final int[] DIST_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+			257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static final int[] DIST_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+			7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+	private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+	private static final Huffman FIXED_LITERALS;
+	private static final Huffman FIXED_DISTANCES;
+
+	static {
+		int[] lengths = new int[288];
+		Arrays.fill(lengths, 0, 144, 8);
+		Arrays.fill(lengths, 144, 256, 9);
+		Arrays.fill(lengths, 256, 280, 7);
+		Arrays.fill(lengths, 280, 288, 8);
+		int[] distances = new int[30];
+		Arrays.fill(distances, 5);
+		try {
+			FIXED_LITERALS = new Huffman(lengths, lengths.length);
+			FIXED_DISTANCES = new Huffman(distances, distances.length);
+		} catch (ZipException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final InputStream in;
+	private final long span;
+
+	private final byte[] input = new byte[64 * 1024];
+	private int inputPosition = 0;
+	private int inputLength = 0;
+	private long loadedBits = 0;
+	private long bitBuffer = 0;
+	private int bitCount = 0;
+	private long paddingBits = 0;
+
+	private final byte[] window = new byte[WINDOW_SIZE];
+	private long totalOut = 0;
+	private long memberOut = 0;
+	private long lastCheckpointOut = 0;
+
+	private final List<GzipIndex.Checkpoint> checkpoints = new ObjectArrayList<>();
+	private final List<GzipIndex.Checkpoint> currentMember = new ObjectArrayList<>();
+
+	/**
+	 * @param span distance in uncompressed bytes between two checkpoints
+	 */
+	GzipIndexBuilder(InputStream in, long span) {
+		this.in = in;
+		this.span = span;
+	}
+
+	List<GzipIndex.Checkpoint> build() throws IOException {
+		do {
+			readMember();
+		} while (hasNextMember());
+		return checkpoints;
+	}
+
+	long totalOut() {
+		return totalOut;
+	}
+
+	private void readMember() throws IOException {
+		long memberStart = bitPosition() >>> 3;
+		memberOut = totalOut;
+		checkpoint(memberStart << 3);
+		readHeader();
+		boolean last;
+		do {
+			if (totalOut != memberOut) {
+				checkpoint(bitPosition());
+			}
+			last = bits(1) == 1;
+			int type = bits(2);
+			switch (type) {
+				case 0:
+					stored();
+					break;
+				case 1:
+					inflate(FIXED_LITERALS, FIXED_DISTANCES);
+					break;
+				case 2:
+					dynamic();
+					break;
+				default:
+					throw new ZipException("invalid deflate block type");
+			}
+		} while (!last);
+		alignToByte();
+		bits(16);
+		bits(16);
+		long size = (bits(16) & 0xffffL) | ((long) bits(16) << 16);
+		if (size != ((totalOut - memberOut) & 0xffffffffL)) {
+			throw new ZipException("gzip member size mismatch");
+		}
+		long memberEnd = bitPosition() >>> 3;
+		for (GzipIndex.Checkpoint checkpoint : currentMember) {
+			checkpoint.memberEnd = memberEnd;
+		}
+		currentMember.clear();
+	}
+
+	/*
+	 * concatenated members are allowed, trailing zeros (tape padding) are ignored
+	 */
+	private boolean hasNextMember() throws IOException {
+		if (bitCount == 0 && !fill()) {
+			return false;
+		}
+		return peekByte() == 0x1f;
+	}
+
+	private void checkpoint(long bitOffset) {
+		if (!checkpoints.isEmpty() && totalOut - lastCheckpointOut < span) {
+			return;
+		}
+		byte[] dictionary;
+		int length = (int) Math.min(WINDOW_SIZE, totalOut - memberOut);
+		if (length == 0) {
+			dictionary = new byte[0];
+		} else {
+			dictionary = new byte[length];
+			int start = (int) ((totalOut - length) & WINDOW_MASK);
+			int first = Math.min(length, WINDOW_SIZE - start);
+			System.arraycopy(window, start, dictionary, 0, first);
+			System.arraycopy(window, 0, dictionary, first, length - first);
+		}
+		boolean lineStart = totalOut == 0 || window[(int) ((totalOut - 1) & WINDOW_MASK)] == '\n';
+		GzipIndex.Checkpoint checkpoint = new GzipIndex.Checkpoint(bitOffset, totalOut, lineStart, dictionary);
+		checkpoints.add(checkpoint);
+		currentMember.add(checkpoint);
+		lastCheckpointOut = totalOut;
+	}
+
+	private void readHeader() throws IOException {
+		if (bits(8) != 0x1f || bits(8) != 0x8b) {
+			throw new ZipException("Not in GZIP format");
+		}
+		if (bits(8) != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		int flags = bits(8);
+		bits(16);
+		bits(16);
+		bits(16);
+		if ((flags & 4) != 0) {
+			int extra = bits(16);
+			for (int i = 0; i < extra; i++) {
+				bits(8);
+			}
+		}
+		if ((flags & 8) != 0) {
+			while (bits(8) != 0) {
+				// file name
+			}
+		}
+		if ((flags & 16) != 0) {
+			while (bits(8) != 0) {
+				// comment
+			}
+		}
+		if ((flags & 2) != 0) {
+			bits(16);
+		}
+	}
+
+	private void stored() throws IOException {
+		alignToByte();
+		int length = bits(16);
+		int complement = bits(16);
+		if ((length ^ 0xffff) != complement) {
+			throw new ZipException("invalid stored block lengths");
+		}
+		for (int i = 0; i < length; i++) {
+			output((byte) bits(8));
+		}
+	}
+
+	private void dynamic() throws IOException {
+		int literals = bits(5) + 257;
+		int distances = bits(5) + 1;
+		int codeLengthCodes = bits(4) + 4;
+		int[] codeLengths = new int[19];
+		for (int i = 0; i < codeLengthCodes; i++) {
+			codeLengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		}
+		Huffman codeLengthCode = new Huffman(codeLengths, codeLengths.length);
+		int[] lengths = new int[literals + distances];
+		for (int i = 0; i < lengths.length; ) {
+			int symbol = decode(codeLengthCode);
+			if (symbol < 16) {
+				lengths[i++] = symbol;
+			} else {
+				int repeat;
+				int value = 0;
+				if (symbol == 16) {
+					if (i == 0) {
+						throw new ZipException("invalid bit length repeat");
+					}
+					value = lengths[i - 1];
+					repeat = 3 + bits(2);
+				} else if (symbol == 17) {
+					repeat = 3 + bits(3);
+				} else {
+					repeat = 11 + bits(7);
+				}
+				if (i + repeat > lengths.length) {
+					throw new ZipException("invalid bit length repeat");
+				}
+				Arrays.fill(lengths, i, i + repeat, value);
+				i += repeat;
+			}
+		}
+		if (lengths[256] == 0) {
+			throw new ZipException("invalid code -- missing end-of-block");
+		}
+		Huffman literalCode = new Huffman(lengths, literals);
+		Huffman distanceCode = new Huffman(Arrays.copyOfRange(lengths, literals, lengths.length), distances);
+		inflate(literalCode, distanceCode);
+	}
+
+	private void inflate(Huffman literalCode, Huffman distanceCode) throws IOException {
+		while (true) {
+			int symbol = decode(literalCode);
+			if (symbol < 256) {
+				output((byte) symbol);
+			} else if (symbol == 256) {
+				return;
+			} else {
+				symbol -= 257;
+				if (symbol >= 29) {
+					throw new ZipException("invalid literal/length code");
+				}
+				int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+				int distanceSymbol = decode(distanceCode);
+				if (distanceSymbol >= 30) {
+					throw new ZipException("invalid distance code");
+				}
+				int distance = DIST_BASE[distanceSymbol] + bits(DIST_EXTRA[distanceSymbol]);
+				if (distance > totalOut - memberOut) {
+					throw new ZipException("invalid distance too far back");
+				}
+				for (int i = 0; i < length; i++) {
+					output(window[(int) ((totalOut - distance) & WINDOW_MASK)]);
+				}
+			}
+		}
+	}
+
+	private void output(byte b) {
+		window[(int) (totalOut & WINDOW_MASK)] = b;
+		totalOut++;
+	}
+
+	private long bitPosition() {
+		return loadedBits - bitCount;
+	}
+
+	private int decode(Huffman code) throws IOException {
+		ensure(code.maxLength);
+		int entry = code.table[(int) (bitBuffer & ((1 << code.maxLength) - 1))];
+		int length = entry & 0xf;
+		if (length == 0) {
+			throw new ZipException("invalid huffman code");
+		}
+		bitBuffer >>>= length;
+		bitCount -= length;
+		return entry >>> 4;
+	}
+
+	private int bits(int n) throws IOException {
+		if (n == 0) {
+			return 0;
+		}
+		ensure(n);
+		int value = (int) (bitBuffer & ((1L << n) - 1));
+		bitBuffer >>>= n;
+		bitCount -= n;
+		if (paddingBits > 0 && bitCount < paddingBits) {
+			throw new EOFException("Unexpected end of gzip file");
+		}
+		return value;
+	}
+
+	private void alignToByte() {
+		int drop = bitCount & 7;
+		bitBuffer >>>= drop;
+		bitCount -= drop;
+	}
+
+	/*
+	 * huffman lookups may peek past the end of the input, the missing bits are zeros
+	 */
+	private void ensure(int n) throws IOException {
+		while (bitCount < n) {
+			if (inputPosition == inputLength && !fillInput()) {
+				paddingBits += 8;
+				loadedBits += 8;
+				bitCount += 8;
+				continue;
+			}
+			bitBuffer |= (long) (input[inputPosition++] & 0xff) << bitCount;
+			bitCount += 8;
+			loadedBits += 8;
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (inputPosition == inputLength && !fillInput()) {
+			return false;
+		}
+		ensure(8);
+		return true;
+	}
+
+	private int peekByte() {
+		return (int) (bitBuffer & 0xff);
+	}
+
+	private boolean fillInput() throws IOException {
+		int n = in.read(input);
+		while (n == 0) {
+			n = in.read(input);
+		}
+		if (n < 0) {
+			return false;
+		}
+		inputPosition = 0;
+		inputLength = n;
+		return true;
+	}
+
+	/**
+	 * Canonical huffman code decoded with a single lookup table indexed by the
+	 * next maxLength bits; entries are {@code symbol << 4 | codeLength}.
+	 */
+	private static final class Huffman {
+		private final int[] table;
+		private final int maxLength;
+
+		private Huffman(int[] lengths, int symbols) throws ZipException {
+			int[] counts = new int[MAX_BITS + 1];
+			int max = 0;
+			for (int i = 0; i < symbols; i++) {
+				counts[lengths[i]]++;
+				max = Math.max(max, lengths[i]);
+			}
+			counts[0] = 0;
+			int left = 1;
+			for (int length = 1; length <= MAX_BITS; length++) {
+				left = (left << 1) - counts[length];
+				if (left < 0) {
+					throw new ZipException("over-subscribed huffman code");
+				}
+			}
+			int[] next = new int[MAX_BITS + 2];
+			for (int length = 1; length <= MAX_BITS; length++) {
+				next[length + 1] = (next[length] + counts[length]) << 1;
+			}
+			this.maxLength = Math.max(max, 1);
+			this.table = new int[1 << maxLength];
+			for (int symbol = 0; symbol < symbols; symbol++) {
+				int length = lengths[symbol];
+				if (length == 0) {
+					continue;
+				}
+				int code = next[length]++;
+				// codes are packed starting with the most significant bit, the stream is read lsb first
+				int reversed = Integer.reverse(code) >>> (32 - length);
+				for (int i = reversed; i < table.length; i += 1 << length) {
+					table[i] = symbol << 4 | length;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,427 @@
+package utils;
+
+import com.google.gson.JsonSyntaxException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Structural index of a JSON document in a UTF-8 byte array, for reading a
+ * few values of it without parsing the rest.
+ * <p>
+ * {@link #index} makes one pass over the bytes and records the positions of
+ * the quotes, colons, commas and brackets outside strings, and for every
+ * opening bracket its closing one. {@link #find(JsonPath)} then walks from
+ * structural to structural, jumping over nested objects and arrays, and
+ * returns the position of a value; strings and numbers are only decoded by
+ * the getters. The pass checks that brackets and strings are closed, other
+ * syntax errors are found, if at all, when the values around them are read.
+ * <p>
+ * An index is reused for document after document and holds on to the byte
+ * array until the next one, not thread-safe.
+ */
+public final class JsonIndex {
+
+	/**
+	 * Returned by {@link #find} when the path doesn't exist.
+	 */
+	public static final int MISSING = -1;
+
+	private byte[] bytes;
+	private int start;
+	private int end;
+	// positions of the structural bytes
+	private int[] positions = new int[256];
+	// for an opening bracket, the structural index of its closing bracket
+	private int[] match = new int[256];
+	private int count = 0;
+	private int[] stack = new int[32];
+
+	/**
+	 * Indexes the document in {@code bytes[offset, offset + length)}.
+	 *
+	 * @throws JsonSyntaxException if a string or bracket isn't closed
+	 */
+	@NotNull
+	public JsonIndex index(@NotNull byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.start = offset;
+		this.end = offset + length;
+		int[] positions = this.positions;
+		int count = 0;
+		int depth = 0;
+		int end = this.end;
+		for (int p = offset; p < end; p++) {
+			byte b = bytes[p];
+			if (count + 2 > positions.length) {
+				this.count = count;
+				grow();
+				positions = this.positions;
+			}
+			switch (b) {
+				case '"':
+					positions[count++] = p;
+					// the rest of the string, up to its closing quote
+					p++;
+					while (p < end && (b = bytes[p]) != '"') {
+						if (b == '\\') {
+							p++;
+						}
+						p++;
+					}
+					if (p >= end) {
+						throw new JsonSyntaxException("Unterminated string at byte " + (positions[count - 1] - offset));
+					}
+					positions[count++] = p;
+					break;
+				case '{':
+				case '[':
+					if (depth == stack.length) {
+						stack = Arrays.copyOf(stack, depth * 2);
+					}
+					stack[depth++] = count;
+					positions[count++] = p;
+					break;
+				case '}':
+				case ']':
+					if (depth == 0 || bytes[positions[stack[depth - 1]]] != (b == '}' ? '{' : '[')) {
+						throw new JsonSyntaxException("Unexpected '" + (char) b + "' at byte " + (p - offset));
+					}
+					match[stack[--depth]] = count;
+					positions[count++] = p;
+					break;
+				case ':':
+				case ',':
+					positions[count++] = p;
+					break;
+				default:
+			}
+		}
+		if (depth > 0) {
+			throw new JsonSyntaxException("Unclosed '" + (char) bytes[positions[stack[depth - 1]]] + "' at byte "
+					+ (positions[stack[depth - 1]] - offset));
+		}
+		this.count = count;
+		return this;
+	}
+
+	private void grow() {
+		positions = Arrays.copyOf(positions, positions.length * 2);
+		match = Arrays.copyOf(match, positions.length);
+	}
+
+	/**
+	 * Position of the document value, {@link #MISSING} if there is only whitespace.
+	 */
+	public int root() {
+		int p = skipWhitespace(start);
+		return p < end ? p : MISSING;
+	}
+
+	/**
+	 * Position of the first byte of the value at {@code path}, {@link #MISSING}
+	 * if an object on the way lacks the field, an array is too short or a
+	 * value isn't the object or array the path expects.
+	 */
+	public int find(@NotNull JsonPath path) {
+		int value = root();
+		if (value == MISSING) {
+			return MISSING;
+		}
+		// structural index of the value, or of the first structural after a number or literal
+		int s = 0;
+		for (int step = 0; step < path.steps(); step++) {
+			byte[] name = path.name(step);
+			byte type = bytes[value];
+			if (name != null && type == '{') {
+				int i = s + 1;
+				if (bytes[positions[i]] == '}') {
+					return MISSING;
+				}
+				while (true) {
+					if (bytes[positions[i]] != '"' || i + 2 >= count || bytes[positions[i + 2]] != ':') {
+						throw malformed(positions[i]);
+					}
+					int v = skipWhitespace(positions[i + 2] + 1);
+					if (keyEquals(positions[i] + 1, positions[i + 1], name)) {
+						value = v;
+						s = i + 3;
+						break;
+					}
+					int next = skipValue(v, i + 3);
+					if (bytes[positions[next]] != ',') {
+						return MISSING;
+					}
+					i = next + 1;
+				}
+			} else if (name == null && type == '[') {
+				int v = skipWhitespace(value + 1);
+				if (bytes[v] == ']') {
+					return MISSING;
+				}
+				int i = s + 1;
+				for (int k = 0; k < path.index(step); k++) {
+					int next = skipValue(v, i);
+					if (bytes[positions[next]] != ',') {
+						return MISSING;
+					}
+					v = skipWhitespace(positions[next] + 1);
+					i = next + 1;
+				}
+				value = v;
+				s = i;
+			} else {
+				return MISSING;
+			}
+		}
+		return value;
+	}
+
+	/*
+	 * structural index after the value at position value whose first structural is s
+	 */
+	private int skipValue(int value, int s) {
+		switch (bytes[value]) {
+			case '{':
+			case '[':
+				return match[s] + 1;
+			case '"':
+				return s + 2;
+			default:
+				return s;
+		}
+	}
+
+	private boolean keyEquals(int from, int to, byte[] name) {
+		if (to - from == name.length) {
+			boolean equal = true;
+			for (int i = 0; i < name.length; i++) {
+				if (bytes[from + i] != name[i]) {
+					equal = false;
+					break;
+				}
+			}
+			if (equal) {
+				return true;
+			}
+		}
+		// an escaped key may still be equal once decoded
+		for (int p = from; p < to; p++) {
+			if (bytes[p] == '\\') {
+				return Arrays.equals(unescape(from, to).getBytes(StandardCharsets.UTF_8), name);
+			}
+		}
+		return false;
+	}
+
+	private int skipWhitespace(int p) {
+		while (p < end && (bytes[p] == ' ' || bytes[p] == '\n' || bytes[p] == '\r' || bytes[p] == '\t')) {
+			p++;
+		}
+		return p;
+	}
+
+	private int structuralIndex(int value) {
+		int s = Arrays.binarySearch(positions, 0, count, value);
+		if (s < 0) {
+			throw malformed(value);
+		}
+		return s;
+	}
+
+	private JsonSyntaxException malformed(int position) {
+		return new JsonSyntaxException("Malformed JSON at byte " + (position - start));
+	}
+
+	/**
+	 * Position after the last byte of a value.
+	 */
+	public int end(int value) {
+		switch (bytes[value]) {
+			case '{':
+			case '[':
+				return positions[match[structuralIndex(value)]] + 1;
+			case '"':
+				return positions[structuralIndex(value) + 1] + 1;
+			default:
+				int p = value;
+				while (p < end) {
+					byte b = bytes[p];
+					if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+						break;
+					}
+					p++;
+				}
+				return p;
+		}
+	}
+
+	public boolean isNull(int value) {
+		return bytes[value] == 'n';
+	}
+
+	public boolean isObject(int value) {
+		return bytes[value] == '{';
+	}
+
+	public boolean isArray(int value) {
+		return bytes[value] == '[';
+	}
+
+	/**
+	 * JSON text of a value, as it is in the document.
+	 */
+	@NotNull
+	public String getRaw(int value) {
+		return new String(bytes, value, end(value) - value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decoded string, the text of a number or boolean, null for null.
+	 */
+	@Nullable
+	public String getString(int value) {
+		switch (bytes[value]) {
+			case '"':
+				int close = positions[structuralIndex(value) + 1];
+				for (int p = value + 1; p < close; p++) {
+					if (bytes[p] == '\\') {
+						return unescape(value + 1, close);
+					}
+				}
+				return new String(bytes, value + 1, close - value - 1, StandardCharsets.UTF_8);
+			case 'n':
+				return null;
+			case '{':
+			case '[':
+				throw new JsonSyntaxException("Expected a string but was " + (char) bytes[value] + " at byte "
+						+ (value - start));
+			default:
+				return getRaw(value);
+		}
+	}
+
+	public long getLong(int value) {
+		int p = value;
+		boolean negative = bytes[p] == '-';
+		if (negative) {
+			p++;
+		}
+		int end = end(value);
+		// up to 18 digits can't overflow
+		if (end > p && end - p <= 18) {
+			long result = 0;
+			for (; p < end; p++) {
+				int digit = bytes[p] - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				result = result * 10 + digit;
+			}
+			if (p == end) {
+				return negative ? -result : result;
+			}
+		}
+		String text = getString(value);
+		if (text == null) {
+			throw new NumberFormatException("null at byte " + (value - start));
+		}
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			// like JsonReader.nextLong, 1.0 or 1e3 are longs too
+			double result = Double.parseDouble(text);
+			if ((long) result != result) {
+				throw e;
+			}
+			return (long) result;
+		}
+	}
+
+	public int getInt(int value) {
+		long result = getLong(value);
+		if ((int) result != result) {
+			throw new NumberFormatException("Expected an int but was " + result + " at byte " + (value - start));
+		}
+		return (int) result;
+	}
+
+	public double getDouble(int value) {
+		String text = getString(value);
+		if (text == null) {
+			throw new NumberFormatException("null at byte " + (value - start));
+		}
+		return Double.parseDouble(text);
+	}
+
+	public boolean getBoolean(int value) {
+		switch (bytes[value]) {
+			case 't':
+				return true;
+			case 'f':
+				return false;
+			case '"':
+				return Boolean.parseBoolean(getString(value));
+			default:
+				throw new JsonSyntaxException("Expected a boolean at byte " + (value - start));
+		}
+	}
+
+	/**
+	 * Binds a value with the Gson of {@link JsonUtils}.
+	 */
+	public <T> T get(int value, @NotNull Type type) {
+		return JsonUtils.getGson().fromJson(getRaw(value), type);
+	}
+
+	/*
+	 * decodes the content of a string with escapes
+	 */
+	private String unescape(int from, int to) {
+		String raw = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+		StringBuilder result = new StringBuilder(raw.length());
+		for (int i = 0; i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if (c != '\\' || i + 1 == raw.length()) {
+				result.append(c);
+				continue;
+			}
+			c = raw.charAt(++i);
+			switch (c) {
+				case 'b':
+					result.append('\b');
+					break;
+				case 'f':
+					result.append('\f');
+					break;
+				case 'n':
+					result.append('\n');
+					break;
+				case 'r':
+					result.append('\r');
+					break;
+				case 't':
+					result.append('\t');
+					break;
+				case 'u':
+					if (i + 4 >= raw.length()) {
+						throw malformed(from);
+					}
+					try {
+						result.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+					} catch (NumberFormatException e) {
+						throw malformed(from);
+					}
+					i += 4;
+					break;
+				default:
+					// \" \\ \/ and lenient others
+					result.append(c);
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,107 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A compiled path to a value inside a JSON document, the subset of JSONPath
+ * without wildcards or filters: {@code $} is the document, {@code .name} or
+ * {@code ['name']} a field of an object, {@code [3]} an element of an array.
+ * <pre>
+ * JsonPath.compile("$.shop.id");
+ * JsonPath.compile("$.items[0]['unit price']");
+ * </pre>
+ */
+public final class JsonPath {
+
+	private final String path;
+	// per step the UTF-8 bytes of a field name, or null for an array index
+	private final byte[][] names;
+	private final int[] indexes;
+
+	private JsonPath(String path, byte[][] names, int[] indexes) {
+		this.path = path;
+		this.names = names;
+		this.indexes = indexes;
+	}
+
+	@NotNull
+	public static JsonPath compile(@NotNull String path) {
+		if (!path.startsWith("$")) {
+			throw new IllegalArgumentException("JSON path must start with $: " + path);
+		}
+		List<String> names = new ObjectArrayList<>();
+		List<Integer> indexes = new ObjectArrayList<>();
+		int i = 1;
+		while (i < path.length()) {
+			char c = path.charAt(i);
+			if (c == '.') {
+				int end = i + 1;
+				while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+					end++;
+				}
+				if (end == i + 1) {
+					throw new IllegalArgumentException("Empty field name at " + i + " in " + path);
+				}
+				names.add(path.substring(i + 1, end));
+				indexes.add(-1);
+				i = end;
+			} else if (c == '[' && i + 1 < path.length() && path.charAt(i + 1) == '\'') {
+				int end = path.indexOf("']", i + 2);
+				if (end < 0) {
+					throw new IllegalArgumentException("Unterminated name at " + i + " in " + path);
+				}
+				names.add(path.substring(i + 2, end));
+				indexes.add(-1);
+				i = end + 2;
+			} else if (c == '[') {
+				int end = path.indexOf(']', i);
+				int index;
+				try {
+					index = end < 0 ? -1 : Integer.parseInt(path.substring(i + 1, end));
+				} catch (NumberFormatException e) {
+					index = -1;
+				}
+				if (index < 0) {
+					throw new IllegalArgumentException("Bad array index at " + i + " in " + path);
+				}
+				names.add(null);
+				indexes.add(index);
+				i = end + 1;
+			} else {
+				throw new IllegalArgumentException("Unexpected '" + c + "' at " + i + " in " + path);
+			}
+		}
+		byte[][] nameBytes = new byte[names.size()][];
+		int[] indexArray = new int[names.size()];
+		for (int step = 0; step < nameBytes.length; step++) {
+			String name = names.get(step);
+			nameBytes[step] = name != null ? name.getBytes(StandardCharsets.UTF_8) : null;
+			indexArray[step] = indexes.get(step);
+		}
+		return new JsonPath(path, nameBytes, indexArray);
+	}
+
+	int steps() {
+		return names.length;
+	}
+
+	/*
+	 * UTF-8 bytes of the field name of a step, null if the step is an array index
+	 */
+	byte[] name(int step) {
+		return names[step];
+	}
+
+	int index(int step) {
+		return indexes[step];
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
@@ -0,0 +1,285 @@
+package utils;
+
+import com.google.gson.JsonSyntaxException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+
+/**
+ * Reads a few values by {@link JsonPath} from every record of a JSON lines
+ * file or every element of a JSON array, without binding the records.
+ * <p>
+ * Each record is indexed by a {@link JsonIndex} straight from the bytes of
+ * the file and the paths are looked up in the index; only the values asked
+ * from the {@link Record} are decoded.
+ * <pre>
+ * new JsonProjection("$.id", "$.price", "$.shop.id").readLines(file, new JsonProjection.Handler() {
+ *     public void handle(JsonProjection.Record record) {
+ *         long id = record.getLong(0);
+ *         double price = record.has(1) ? record.getDouble(1) : 0;
+ *         ...
+ *     }
+ * });
+ * </pre>
+ */
+public final class JsonProjection {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	public interface Handler {
+		/**
+		 * The record is reused, valid until the handler returns.
+		 */
+		void handle(@NotNull Record record) throws IOException;
+	}
+
+	private final JsonPath[] paths;
+
+	public JsonProjection(@NotNull String... paths) {
+		this.paths = new JsonPath[paths.length];
+		for (int i = 0; i < paths.length; i++) {
+			this.paths[i] = JsonPath.compile(paths[i]);
+		}
+	}
+
+	public JsonProjection(@NotNull JsonPath... paths) {
+		this.paths = paths.clone();
+	}
+
+	/**
+	 * Hands every non-blank line of a JSON lines file to {@code handler}.
+	 *
+	 * @return number of records
+	 */
+	public long readLines(@NotNull File file, @NotNull Handler handler) throws IOException {
+		try (LineCursor cursor = LineCursor.open(file)) {
+			return readLines(cursor, handler);
+		}
+	}
+
+	/**
+	 * Reads the lines of a split, to read a file on several threads.
+	 */
+	public long readLines(@NotNull JsonUtils.JsonLinesSplit split, @NotNull Handler handler) throws IOException {
+		try (LineCursor cursor = LineCursor.of(split.openInputStream())) {
+			return readLines(cursor, handler);
+		}
+	}
+
+	private long readLines(LineCursor cursor, Handler handler) throws IOException {
+		Record record = new Record();
+		long records = 0;
+		while (cursor.next()) {
+			try {
+				if (!record.set(cursor.bytes(), cursor.offset(), cursor.length())) {
+					continue;
+				}
+			} catch (JsonSyntaxException e) {
+				throw new JsonSyntaxException("Line " + cursor.lineNumber() + ": " + e.getMessage());
+			}
+			handler.handle(record);
+			records++;
+		}
+		return records;
+	}
+
+	/**
+	 * Hands every element of a JSON array file to {@code handler}.
+	 *
+	 * @return number of elements
+	 */
+	public long readArray(@NotNull File file, @NotNull Handler handler) throws IOException {
+		try (InputStream in = FileUtils.openInputStream(file)) {
+			return readArray(in, handler);
+		}
+	}
+
+	/*
+	 * cuts the array into elements like ParallelJsonArrayReader, on bytes: the
+	 * element being read is kept whole at the start of the buffer
+	 */
+	public long readArray(@NotNull InputStream in, @NotNull Handler handler) throws IOException {
+		Record record = new Record();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int limit = 0;
+		int p = 0;
+		// start of the current element, -1 before the array
+		int element = -1;
+		long offset = 0;
+		boolean inString = false;
+		boolean escaped = false;
+		int depth = 0;
+		long records = 0;
+		while (true) {
+			if (p == limit) {
+				int keep = element < 0 ? limit : element;
+				if (keep > 0) {
+					System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+					limit -= keep;
+					p -= keep;
+					offset += keep;
+					if (element > 0) {
+						element = 0;
+					}
+				}
+				if (limit == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				int n = in.read(buffer, limit, buffer.length - limit);
+				if (n < 0) {
+					throw new IOException("JSON array ends before ']' at byte " + (offset + limit));
+				}
+				limit += n;
+				continue;
+			}
+			byte b = buffer[p];
+			if (element < 0) {
+				if (b == '[') {
+					element = p + 1;
+				} else if (b != ' ' && b != '\n' && b != '\r' && b != '\t' && !isBom(buffer, p)) {
+					throw new IOException("not a JSON array, found '" + (char) b + "' at byte " + (offset + p));
+				}
+			} else if (inString) {
+				if (escaped) {
+					escaped = false;
+				} else if (b == '\\') {
+					escaped = true;
+				} else if (b == '"') {
+					inString = false;
+				}
+			} else if (b == '"') {
+				inString = true;
+			} else if (b == '{' || b == '[') {
+				depth++;
+			} else if ((b == '}' || b == ']') && depth > 0) {
+				depth--;
+			} else if (b == ',' && depth == 0 || b == ']') {
+				boolean last = b == ']';
+				try {
+					if (record.set(buffer, element, p - element)) {
+						handler.handle(record);
+						records++;
+					} else if (!last || records > 0) {
+						throw new IOException("missing element before byte " + (offset + p));
+					}
+				} catch (JsonSyntaxException e) {
+					throw new JsonSyntaxException("Element " + records + ": " + e.getMessage());
+				}
+				if (last) {
+					return records;
+				}
+				element = p + 1;
+			} else if (b == '}') {
+				throw new IOException("unexpected '}' at byte " + (offset + p));
+			}
+			p++;
+		}
+	}
+
+	/*
+	 * the UTF-8 byte order mark, EF BB BF
+	 */
+	private static boolean isBom(byte[] buffer, int p) {
+		return buffer[p] == (byte) 0xEF || buffer[p] == (byte) 0xBB || buffer[p] == (byte) 0xBF;
+	}
+
+	/**
+	 * The values of the paths in one record, by the index of the path.
+	 */
+	public final class Record {
+		private final JsonIndex index = new JsonIndex();
+		private final int[] values = new int[paths.length];
+
+		private Record() {
+		}
+
+		/*
+		 * false if the bytes are only whitespace
+		 */
+		private boolean set(byte[] bytes, int offset, int length) {
+			index.index(bytes, offset, length);
+			if (index.root() == JsonIndex.MISSING) {
+				return false;
+			}
+			for (int i = 0; i < paths.length; i++) {
+				values[i] = index.find(paths[i]);
+			}
+			return true;
+		}
+
+		private int value(int path) {
+			int value = values[path];
+			if (value == JsonIndex.MISSING) {
+				throw new IllegalStateException("No value at " + paths[path]);
+			}
+			return value;
+		}
+
+		/**
+		 * Whether the record has a value, maybe null, at the path.
+		 */
+		public boolean has(int path) {
+			return values[path] != JsonIndex.MISSING;
+		}
+
+		/**
+		 * Whether the path is missing or null.
+		 */
+		public boolean isNull(int path) {
+			return values[path] == JsonIndex.MISSING || index.isNull(values[path]);
+		}
+
+		/**
+		 * The string at the path, null if it is missing or null.
+		 */
+		@Nullable
+		public String getString(int path) {
+			return values[path] == JsonIndex.MISSING ? null : index.getString(values[path]);
+		}
+
+		public long getLong(int path) {
+			return index.getLong(value(path));
+		}
+
+		public int getInt(int path) {
+			return index.getInt(value(path));
+		}
+
+		public double getDouble(int path) {
+			return index.getDouble(value(path));
+		}
+
+		public boolean getBoolean(int path) {
+			return index.getBoolean(value(path));
+		}
+
+		/**
+		 * JSON text of the value at the path, null if it is missing.
+		 */
+		@Nullable
+		public String getRaw(int path) {
+			return values[path] == JsonIndex.MISSING ? null : index.getRaw(values[path]);
+		}
+
+		/**
+		 * Binds the value at the path, null if it is missing.
+		 */
+		@Nullable
+		public <T> T get(int path, @NotNull Type type) {
+			return values[path] == JsonIndex.MISSING ? null : index.<T>get(values[path], type);
+		}
+
+		/**
+		 * The index of the whole record, for paths not given to the projection.
+		 */
+		@NotNull
+		public JsonIndex getIndex() {
+			return index;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose Gson {@code TypeAdapter} is generated at compile time
+ * by {@link JsonRecordProcessor}; the Gson instances of {@link JsonUtils}
+ * use it instead of binding by reflection.
+ * <p>
+ * The class must be top-level or static, not generic, with a non-private
+ * constructor without arguments. Its fields and those of its superclasses
+ * are bound as Gson would: static and transient fields are skipped,
+ * {@code @SerializedName} renames a field. Bound fields must not be private or final.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface JsonRecord {
+}
@@ -0,0 +1,460 @@
+package utils;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a streaming Gson {@code TypeAdapter} for every {@link JsonRecord}
+ * class, named after its binary name with {@link JsonRecords#ADAPTER_SUFFIX},
+ * in the same package. build.xml compiles this class first and runs it with
+ * the rest of the sources, the adapters go to src/java-gen.
+ * <p>
+ * Fields of primitive, boxed and String types are read and written directly,
+ * fields of other types through the adapter Gson has for their type. Only
+ * the JDK is needed to compile this class.
+ */
+public final class JsonRecordProcessor extends AbstractProcessor {
+
+	private static final String ANNOTATION = "utils.JsonRecord";
+	private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+	private static final String SUFFIX = "_JsonAdapter";
+
+	/*
+	 * how a field is read and written
+	 */
+	private enum Kind {
+		BOOLEAN, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, CHAR, STRING, OTHER
+	}
+
+	private static final class Field {
+		private final String name;
+		private final String jsonName;
+		private final String type;
+		private final Kind kind;
+		private final boolean primitive;
+		private final TypeMirror mirror;
+
+		private Field(String name, String jsonName, String type, Kind kind, boolean primitive, TypeMirror mirror) {
+			this.name = name;
+			this.jsonName = jsonName;
+			this.type = type;
+			this.kind = kind;
+			this.primitive = primitive;
+			this.mirror = mirror;
+		}
+	}
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(ANNOTATION);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (TypeElement annotation : annotations) {
+			for (TypeElement type : ElementFilter.typesIn(round.getElementsAnnotatedWith(annotation))) {
+				try {
+					List<Field> fields = fields(type);
+					if (fields != null) {
+						generate(type, fields);
+					}
+				} catch (IOException e) {
+					error(type, "Can't write the JSON adapter: " + e);
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * bound fields of the class and its superclasses, in Gson's order; null after reporting an error
+	 */
+	private List<Field> fields(TypeElement type) {
+		if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return error(type, "@JsonRecord must be on a concrete class");
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)) {
+			return error(type, "@JsonRecord classes must be top-level or static");
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			return error(type, "@JsonRecord classes can't be generic");
+		}
+		if (!hasDefaultConstructor(type)) {
+			return error(type, "@JsonRecord classes need a non-private constructor without arguments");
+		}
+		PackageElement recordPackage = processingEnv.getElementUtils().getPackageOf(type);
+		List<Field> fields = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		boolean failed = false;
+		for (TypeElement current = type; current != null; current = superclass(current)) {
+			boolean samePackage = processingEnv.getElementUtils().getPackageOf(current).equals(recordPackage);
+			for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)
+						|| !samePackage && !modifiers.contains(Modifier.PUBLIC)) {
+					error(field, "Fields of @JsonRecord classes must be writable from " + recordPackage
+							+ ": not private or final");
+					failed = true;
+					continue;
+				}
+				TypeMirror mirror = field.asType();
+				if (hasTypeVariable(mirror)) {
+					error(field, "Fields of @JsonRecord classes can't have type variables");
+					failed = true;
+					continue;
+				}
+				String jsonName = serializedName(field);
+				if (!names.add(jsonName)) {
+					error(field, type + " declares multiple JSON fields named " + jsonName);
+					failed = true;
+					continue;
+				}
+				Kind kind = kind(mirror);
+				fields.add(new Field(field.getSimpleName().toString(), jsonName, typeName(mirror), kind,
+						mirror.getKind().isPrimitive(), mirror));
+			}
+		}
+		return failed ? null : fields;
+	}
+
+	private static boolean hasDefaultConstructor(TypeElement type) {
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static TypeElement superclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+		return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+	}
+
+	private static String serializedName(VariableElement field) {
+		for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+			if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+					.contentEquals(SERIALIZED_NAME)) {
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+						: annotation.getElementValues().entrySet()) {
+					if (entry.getKey().getSimpleName().contentEquals("value")) {
+						return (String) entry.getValue().getValue();
+					}
+				}
+			}
+		}
+		return field.getSimpleName().toString();
+	}
+
+	private static Kind kind(TypeMirror type) {
+		switch (type.getKind()) {
+			case BOOLEAN:
+				return Kind.BOOLEAN;
+			case BYTE:
+				return Kind.BYTE;
+			case SHORT:
+				return Kind.SHORT;
+			case INT:
+				return Kind.INT;
+			case LONG:
+				return Kind.LONG;
+			case FLOAT:
+				return Kind.FLOAT;
+			case DOUBLE:
+				return Kind.DOUBLE;
+			case CHAR:
+				return Kind.CHAR;
+			case DECLARED:
+				switch (((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString()) {
+					case "java.lang.Boolean":
+						return Kind.BOOLEAN;
+					case "java.lang.Byte":
+						return Kind.BYTE;
+					case "java.lang.Short":
+						return Kind.SHORT;
+					case "java.lang.Integer":
+						return Kind.INT;
+					case "java.lang.Long":
+						return Kind.LONG;
+					case "java.lang.Float":
+						return Kind.FLOAT;
+					case "java.lang.Double":
+						return Kind.DOUBLE;
+					case "java.lang.Character":
+						return Kind.CHAR;
+					case "java.lang.String":
+						return Kind.STRING;
+					default:
+						return Kind.OTHER;
+				}
+			default:
+				return Kind.OTHER;
+		}
+	}
+
+	private static boolean hasTypeVariable(TypeMirror type) {
+		switch (type.getKind()) {
+			case TYPEVAR:
+				return true;
+			case ARRAY:
+				return hasTypeVariable(((ArrayType) type).getComponentType());
+			case WILDCARD:
+				WildcardType wildcard = (WildcardType) type;
+				return wildcard.getExtendsBound() != null && hasTypeVariable(wildcard.getExtendsBound())
+						|| wildcard.getSuperBound() != null && hasTypeVariable(wildcard.getSuperBound());
+			case DECLARED:
+				for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+					if (hasTypeVariable(argument)) {
+						return true;
+					}
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	/*
+	 * source name of a type, without the type annotations TypeMirror.toString() may add
+	 */
+	private static String typeName(TypeMirror type) {
+		switch (type.getKind()) {
+			case ARRAY:
+				return typeName(((ArrayType) type).getComponentType()) + "[]";
+			case WILDCARD:
+				WildcardType wildcard = (WildcardType) type;
+				if (wildcard.getExtendsBound() != null) {
+					return "? extends " + typeName(wildcard.getExtendsBound());
+				}
+				if (wildcard.getSuperBound() != null) {
+					return "? super " + typeName(wildcard.getSuperBound());
+				}
+				return "?";
+			case DECLARED:
+				DeclaredType declared = (DeclaredType) type;
+				StringBuilder name = new StringBuilder(
+						((TypeElement) declared.asElement()).getQualifiedName().toString());
+				if (!declared.getTypeArguments().isEmpty()) {
+					name.append('<');
+					for (int i = 0; i < declared.getTypeArguments().size(); i++) {
+						name.append(i > 0 ? ", " : "").append(typeName(declared.getTypeArguments().get(i)));
+					}
+					name.append('>');
+				}
+				return name.toString();
+			default:
+				return type.getKind().isPrimitive() ? type.getKind().name().toLowerCase() : type.toString();
+		}
+	}
+
+	private void generate(TypeElement type, List<Field> fields) throws IOException {
+		String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String adapterName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+				+ SUFFIX;
+		String record = type.getQualifiedName().toString();
+
+		StringBuilder s = new StringBuilder();
+		if (!packageName.isEmpty()) {
+			s.append("package ").append(packageName).append(";\n\n");
+		}
+		s.append("import com.google.gson.Gson;\n");
+		s.append("import com.google.gson.TypeAdapter;\n");
+		s.append("import com.google.gson.reflect.TypeToken;\n");
+		s.append("import com.google.gson.stream.JsonReader;\n");
+		s.append("import com.google.gson.stream.JsonToken;\n");
+		s.append("import com.google.gson.stream.JsonWriter;\n");
+		s.append("import utils.JsonRecords;\n\n");
+		s.append("import java.io.IOException;\n\n");
+		s.append("/**\n * Generated by utils.JsonRecordProcessor from {@link ").append(record)
+				.append("}, don't edit.\n */\n");
+		s.append("public final class ").append(adapterName).append(" extends TypeAdapter<").append(record)
+				.append("> {\n\n");
+
+		for (int i = 0; i < fields.size(); i++) {
+			Field field = fields.get(i);
+			if (field.kind == Kind.OTHER) {
+				s.append("\tprivate final TypeAdapter<").append(field.type).append("> adapter").append(i)
+						.append(";\n");
+			}
+		}
+		s.append("\n\tpublic ").append(adapterName).append("(Gson gson) {\n");
+		for (int i = 0; i < fields.size(); i++) {
+			Field field = fields.get(i);
+			if (field.kind != Kind.OTHER) {
+				continue;
+			}
+			s.append("\t\tthis.adapter").append(i).append(" = gson.getAdapter(");
+			if (field.mirror.getKind() == TypeKind.DECLARED
+					&& ((DeclaredType) field.mirror).getTypeArguments().isEmpty()) {
+				s.append(field.type).append(".class");
+			} else {
+				s.append("new TypeToken<").append(field.type).append(">() {}");
+			}
+			s.append(");\n");
+		}
+		s.append("\t}\n\n");
+
+		s.append("\t@Override\n");
+		s.append("\tpublic void write(JsonWriter out, ").append(record).append(" value) throws IOException {\n");
+		s.append("\t\tif (value == null) {\n\t\t\tout.nullValue();\n\t\t\treturn;\n\t\t}\n");
+		s.append("\t\tout.beginObject();\n");
+		for (int i = 0; i < fields.size(); i++) {
+			appendWrite(s, fields.get(i), i);
+		}
+		s.append("\t\tout.endObject();\n");
+		s.append("\t}\n\n");
+
+		s.append("\t@Override\n");
+		s.append("\tpublic ").append(record).append(" read(JsonReader in) throws IOException {\n");
+		s.append("\t\tif (in.peek() == JsonToken.NULL) {\n\t\t\tin.nextNull();\n\t\t\treturn null;\n\t\t}\n");
+		s.append("\t\t").append(record).append(" value = new ").append(record).append("();\n");
+		s.append("\t\tin.beginObject();\n");
+		s.append("\t\twhile (in.hasNext()) {\n");
+		s.append("\t\t\tswitch (in.nextName()) {\n");
+		for (int i = 0; i < fields.size(); i++) {
+			appendRead(s, fields.get(i), i);
+		}
+		s.append("\t\t\t\tdefault:\n\t\t\t\t\tin.skipValue();\n");
+		s.append("\t\t\t}\n");
+		s.append("\t\t}\n");
+		s.append("\t\tin.endObject();\n");
+		s.append("\t\treturn value;\n");
+		s.append("\t}\n");
+		s.append("}\n");
+
+		try (Writer writer = processingEnv.getFiler().createSourceFile(
+				packageName.isEmpty() ? adapterName : packageName + "." + adapterName, type).openWriter()) {
+			writer.write(s.toString());
+		}
+	}
+
+	private static void appendWrite(StringBuilder s, Field field, int index) {
+		String value = "value." + field.name;
+		s.append("\t\tout.name(\"").append(escape(field.jsonName)).append("\");\n");
+		String indent = "\t\t";
+		if (!field.primitive) {
+			s.append("\t\tif (").append(value).append(" == null) {\n\t\t\tout.nullValue();\n\t\t} else {\n");
+			indent = "\t\t\t";
+		}
+		s.append(indent);
+		switch (field.kind) {
+			case BOOLEAN:
+				s.append("out.value(").append(value).append(");\n");
+				break;
+			case BYTE:
+			case SHORT:
+			case INT:
+			case LONG:
+				// boxed values must not end up in value(Number)
+				s.append(field.primitive ? "out.value(" : "out.value((long) ").append(value).append(");\n");
+				break;
+			case FLOAT:
+				s.append("JsonRecords.writeFloat(out, ").append(value).append(");\n");
+				break;
+			case DOUBLE:
+				s.append("JsonRecords.writeDouble(out, ").append(value).append(");\n");
+				break;
+			case CHAR:
+				s.append("out.value(String.valueOf(").append(value).append("));\n");
+				break;
+			case STRING:
+				s.append("out.value(").append(value).append(");\n");
+				break;
+			default:
+				s.append("adapter").append(index).append(".write(out, ").append(value).append(");\n");
+		}
+		if (!field.primitive) {
+			s.append("\t\t}\n");
+		}
+	}
+
+	private static void appendRead(StringBuilder s, Field field, int index) {
+		s.append("\t\t\t\tcase \"").append(escape(field.jsonName)).append("\":\n");
+		s.append("\t\t\t\t\tif (in.peek() == JsonToken.NULL) {\n\t\t\t\t\t\tin.nextNull();\n");
+		if (!field.primitive) {
+			// Gson keeps the default of primitives, but sets other fields to null
+			s.append("\t\t\t\t\t\tvalue.").append(field.name).append(" = null;\n");
+		}
+		s.append("\t\t\t\t\t} else {\n\t\t\t\t\t\tvalue.").append(field.name).append(" = ");
+		switch (field.kind) {
+			case BOOLEAN:
+				s.append("JsonRecords.readBoolean(in)");
+				break;
+			case BYTE:
+				s.append("(byte) JsonRecords.readInt(in)");
+				break;
+			case SHORT:
+				s.append("(short) JsonRecords.readInt(in)");
+				break;
+			case INT:
+				s.append("JsonRecords.readInt(in)");
+				break;
+			case LONG:
+				s.append("JsonRecords.readLong(in)");
+				break;
+			case FLOAT:
+				s.append("(float) in.nextDouble()");
+				break;
+			case DOUBLE:
+				s.append("in.nextDouble()");
+				break;
+			case CHAR:
+				s.append("JsonRecords.readChar(in)");
+				break;
+			case STRING:
+				s.append("JsonRecords.readString(in)");
+				break;
+			default:
+				s.append("adapter").append(index).append(".read(in)");
+		}
+		s.append(";\n\t\t\t\t\t}\n\t\t\t\t\tbreak;\n");
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private <T> T error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+		return null;
+	}
+}
@@ -0,0 +1,134 @@
+package utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds the adapters generated for {@link JsonRecord} classes, and the
+ * helpers they call to read and write values the way Gson's own adapters do.
+ */
+public final class JsonRecords {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(JsonRecords.class);
+
+	/**
+	 * Appended to the binary name of a record class to name its adapter.
+	 */
+	public static final String ADAPTER_SUFFIX = "_JsonAdapter";
+
+	// value of classes whose adapter is missing
+	private static final Object MISSING = new Object();
+	private static final ConcurrentMap<Class<?>, Object> CONSTRUCTORS = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the generated adapter of a {@link JsonRecord} class, null for
+	 * other types, which Gson then binds as usual.
+	 */
+	public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+			Class<? super T> raw = type.getRawType();
+			if (!raw.isAnnotationPresent(JsonRecord.class)) {
+				return null;
+			}
+			Object constructor = constructor(raw);
+			if (constructor == MISSING) {
+				return null;
+			}
+			try {
+				return (TypeAdapter<T>) ((Constructor<?>) constructor).newInstance(gson);
+			} catch (InstantiationException | IllegalAccessException e) {
+				throw new IllegalStateException("Can't create the adapter of " + raw.getName(), e);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("Can't create the adapter of " + raw.getName(), e.getCause());
+			}
+		}
+	};
+
+	private JsonRecords() {
+	}
+
+	private static Object constructor(Class<?> raw) {
+		Object constructor = CONSTRUCTORS.get(raw);
+		if (constructor != null) {
+			return constructor;
+		}
+		try {
+			Class<?> adapter = Class.forName(raw.getName() + ADAPTER_SUFFIX, true, raw.getClassLoader());
+			constructor = adapter.getConstructor(Gson.class);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			LOG.warn("No generated adapter for {}, binding it by reflection: {}", raw.getName(), e.toString());
+			constructor = MISSING;
+		}
+		CONSTRUCTORS.putIfAbsent(raw, constructor);
+		return constructor;
+	}
+
+	public static String readString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.BOOLEAN) {
+			return Boolean.toString(in.nextBoolean());
+		}
+		return in.nextString();
+	}
+
+	public static boolean readBoolean(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.STRING) {
+			return Boolean.parseBoolean(in.nextString());
+		}
+		return in.nextBoolean();
+	}
+
+	public static int readInt(JsonReader in) throws IOException {
+		try {
+			return in.nextInt();
+		} catch (NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	public static long readLong(JsonReader in) throws IOException {
+		try {
+			return in.nextLong();
+		} catch (NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	public static char readChar(JsonReader in) throws IOException {
+		String value = in.nextString();
+		if (value.length() != 1) {
+			throw new JsonSyntaxException("Expecting character, got: " + value);
+		}
+		return value.charAt(0);
+	}
+
+	public static void writeDouble(JsonWriter out, double value) throws IOException {
+		checkFinite(value);
+		out.value(value);
+	}
+
+	public static void writeFloat(JsonWriter out, float value) throws IOException {
+		checkFinite(value);
+		// Float.toString, as Gson writes floats
+		out.value(Float.valueOf(value));
+	}
+
+	private static void checkFinite(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException(value + " is not a valid double value as per JSON specification.");
+		}
+	}
+}
@@ -2,15 +2,26 @@ package utils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.JsonReader;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.List;
 
@@ -18,13 +29,38 @@ import java.util.List;
  * Created on 14/11/2015.
  */
 public class JsonUtils {
-	private static final Gson GSON_INLINE = new Gson();
-	private static final Gson GSON_PRETTY = new GsonBuilder().setPrettyPrinting().create();
+	// both use the adapters generated for @JsonRecord classes
+	private static final Gson GSON_INLINE = new GsonBuilder().registerTypeAdapterFactory(JsonRecords.FACTORY).create();
+	private static final Gson GSON_PRETTY = new GsonBuilder().registerTypeAdapterFactory(JsonRecords.FACTORY)
+			.setPrettyPrinting().create();
+	// JSON trees are written with their null members, so converting files doesn't drop fields
+	private static final Gson GSON_TREE = new GsonBuilder().serializeNulls().create();
+
+	/**
+	 * The shared Gson instance, thread-safe, with the {@link JsonRecord} adapters.
+	 */
+	public static Gson getGson() {
+		return GSON_INLINE;
+	}
+
+	/*
+	 * writes the null members of JSON trees, for converting files without losing them
+	 */
+	static Gson getTreeGson() {
+		return GSON_TREE;
+	}
 
 	public static String toJsonInline(Object obj) {
 		return GSON_INLINE.toJson(obj);
 	}
 
+	/*
+	 * the text of a record in the files written here
+	 */
+	private static String toJsonRecord(Object obj) {
+		return obj instanceof JsonElement ? GSON_TREE.toJson((JsonElement) obj) : GSON_INLINE.toJson(obj);
+	}
+
 	public static String toJsonPretty(Object obj) {
 		return GSON_PRETTY.toJson(obj);
 	}
@@ -38,10 +74,99 @@ public class JsonUtils {
 		return new JsonArrayReader<>(jsonArrayFile, classOfT);
 	}
 
+	/**
+	 * Reads a JSON array with the elements bound on {@code threads} workers,
+	 * see {@link ParallelJsonArrayReader}.
+	 */
+	public static <T> ParallelJsonArrayReader<T> openParallelJsonArrayReader(
+			final File jsonArrayFile, Class<T> classOfT, int threads) throws IOException {
+		return new ParallelJsonArrayReader<>(jsonArrayFile, classOfT, threads);
+	}
+
 	public static JsonArrayWriter openJsonArrayWriter(final File jsonArrayFile) throws IOException {
 		return new JsonArrayWriter(jsonArrayFile);
 	}
 
+	/**
+	 * A JSON array writer for many producer threads, see {@link ConcurrentJsonArrayWriter}.
+	 */
+	public static ConcurrentJsonArrayWriter openConcurrentJsonArrayWriter(final File jsonArrayFile) throws IOException {
+		return new ConcurrentJsonArrayWriter(jsonArrayFile);
+	}
+
+	public static <T> JsonLinesReader<T> openJsonLinesReader(
+			final File jsonLinesFile, Class<T> classOfT) throws IOException {
+		return new JsonLinesReader<>(jsonLinesFile, classOfT);
+	}
+
+	public static JsonLinesWriter openJsonLinesWriter(final File jsonLinesFile) throws IOException {
+		return new JsonLinesWriter(jsonLinesFile);
+	}
+
+	/**
+	 * Reads a file written by {@link #openBinaryRecordWriter(File)}, see {@link BinaryRecordFile}.
+	 */
+	public static <T> BinaryRecordReader<T> openBinaryRecordReader(
+			final File binaryRecordFile, Class<T> classOfT) throws IOException {
+		return new BinaryRecordReader<>(binaryRecordFile, classOfT);
+	}
+
+	/**
+	 * Writes records in the compact binary encoding of {@link BinaryRecordFile}
+	 * in snappy blocks, for datasets read back by the next stage of a pipeline.
+	 */
+	public static BinaryRecordWriter openBinaryRecordWriter(final File binaryRecordFile) throws IOException {
+		return new BinaryRecordWriter(binaryRecordFile);
+	}
+
+	/**
+	 * Cuts a JSON lines file into ranges of about {@code splitSize} bytes that
+	 * start and end at line boundaries, to be read on several threads with
+	 * {@link JsonLinesSplit#open(Class)}. A compressed file is one split.
+	 */
+	public static List<JsonLinesSplit> splitJsonLines(final File jsonLinesFile, long splitSize) throws IOException {
+		if (splitSize <= 0) {
+			throw new IllegalArgumentException("splitSize <= 0");
+		}
+		FileUtils.assertFileExists(jsonLinesFile);
+		long size = jsonLinesFile.length();
+		List<JsonLinesSplit> splits = new ObjectArrayList<>();
+		if (CompressionCodecs.detect(jsonLinesFile) != CompressionCodecs.NONE) {
+			splits.add(new JsonLinesSplit(jsonLinesFile, 0, size));
+			return splits;
+		}
+		try (FileChannel channel = FileChannel.open(jsonLinesFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+			long start = 0;
+			while (start < size) {
+				long end = nextLineStart(channel, buffer, Math.max(start + 1, start + splitSize - 1), size);
+				splits.add(new JsonLinesSplit(jsonLinesFile, start, end));
+				start = end;
+			}
+		}
+		return splits;
+	}
+
+	/*
+	 * offset after the first '\n' at or after from, size if there is none
+	 */
+	private static long nextLineStart(FileChannel channel, ByteBuffer buffer, long from, long size) throws IOException {
+		for (long position = from; position < size; ) {
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += n;
+		}
+		return size;
+	}
+
 	public static <T> void writeArray(Iterable<T> list, final File jsonArrayFile) throws IOException {
 		JsonArrayWriter writer = openJsonArrayWriter(jsonArrayFile);
 		try {
@@ -57,7 +182,7 @@ public class JsonUtils {
 
 	public static class JsonArrayReader<T> {
 		private final JsonReader reader;
-		private final Gson gson = new Gson();
+		private final Gson gson = GSON_INLINE;
 		private final Class<T> classOfT;
 		private boolean finish = false;
 
@@ -104,6 +229,175 @@ public class JsonUtils {
 		}
 	}
 
+	/**
+	 * Reads a JSON lines (NDJSON) file, or a range of it: one JSON value per
+	 * line, blank lines are skipped.
+	 */
+	public static class JsonLinesReader<T> implements Closeable {
+		private final BufferedReader reader;
+		private final Gson gson = GSON_INLINE;
+		private final Class<T> classOfT;
+		private String line;
+
+		public JsonLinesReader(File jsonLinesFile, Class<T> classOfT) throws IOException {
+			this(FileUtils.openBufferReader(jsonLinesFile), classOfT);
+		}
+
+		public JsonLinesReader(Reader reader, Class<T> classOfT) {
+			this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+			this.classOfT = classOfT;
+		}
+
+		/**
+		 * Reads the lines starting in [start, end) of an uncompressed file, see {@link LineRangeInputStream}.
+		 */
+		public JsonLinesReader(File jsonLinesFile, Class<T> classOfT, long start, long end) throws IOException {
+			this(new BufferedReader(new InputStreamReader(openRange(jsonLinesFile, start, end), StandardCharsets.UTF_8),
+					64 * 1024), classOfT);
+		}
+
+		private static InputStream openRange(File file, long start, long end) throws IOException {
+			if (start == 0 && end >= file.length()) {
+				return FileUtils.openInputStream(file);
+			}
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				boolean lineStart = true;
+				if (start > 0) {
+					ByteBuffer previous = ByteBuffer.allocate(1);
+					if (channel.read(previous, start - 1) != 1) {
+						throw new IOException("range " + start + " is after the end of " + file);
+					}
+					lineStart = previous.get(0) == '\n';
+				}
+				channel.position(start);
+				return new LineRangeInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024),
+						start, end, lineStart);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		public boolean hasNext() throws IOException {
+			while (line == null) {
+				line = reader.readLine();
+				if (line == null) {
+					return false;
+				}
+				if (line.trim().isEmpty()) {
+					line = null;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return the next value, null at the end
+		 */
+		public T next() throws IOException {
+			if (!hasNext()) {
+				return null;
+			}
+			String json = line;
+			line = null;
+			return gson.fromJson(json, classOfT);
+		}
+
+		public List<T> readAll() throws IOException {
+			try {
+				List<T> result = new ObjectArrayList<>();
+				while (hasNext()) {
+					result.add(next());
+				}
+				return result;
+			} finally {
+				reader.close();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	/**
+	 * A range of a JSON lines file starting and ending at line boundaries.
+	 */
+	public static final class JsonLinesSplit {
+		private final File file;
+		private final long start;
+		private final long end;
+
+		private JsonLinesSplit(File file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public <T> JsonLinesReader<T> open(Class<T> classOfT) throws IOException {
+			return new JsonLinesReader<>(file, classOfT, start, end);
+		}
+
+		/**
+		 * The bytes of the lines of the split, decompressed if the file is compressed.
+		 */
+		public InputStream openInputStream() throws IOException {
+			return JsonLinesReader.openRange(file, start, end);
+		}
+
+		@Override
+		public String toString() {
+			return file + "[" + start + ", " + end + ")";
+		}
+	}
+
+	/**
+	 * Writes one JSON value per line.
+	 */
+	public static class JsonLinesWriter implements Closeable {
+		private final BufferedWriter writer;
+		private long lines = 0;
+
+		private JsonLinesWriter(File file) throws IOException {
+			this.writer = FileUtils.openWriter(file);
+		}
+
+		public synchronized void write(@NotNull Object object) throws IOException {
+			writer.write(toJsonRecord(object));
+			writer.write('\n');
+			lines++;
+		}
+
+		public synchronized <T> void writeAll(Iterable<T> list) throws IOException {
+			for (T object : list) {
+				write(object);
+			}
+		}
+
+		public synchronized long getLines() {
+			return lines;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			writer.close();
+		}
+	}
+
 	public static class JsonArrayWriter {
 		private final BufferedWriter writer;
 		private int lines = 0;
@@ -119,7 +413,7 @@ public class JsonUtils {
 				writer.write(",");
 				writer.newLine();
 			}
-			writer.write(toJsonInline(object));
+			writer.write(toJsonRecord(object));
 			lines++;
 		}
 
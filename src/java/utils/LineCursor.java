@@ -0,0 +1,325 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Iterates the lines of a byte source without creating a String per line.
+ * <p>
+ * The current line is a slice of a reused byte array ({@link #bytes()},
+ * {@link #offset()}, {@link #length()}), valid until the next call of
+ * {@link #next()}. Lines end like with {@link java.io.BufferedReader#readLine()}:
+ * at "\n", "\r" or "\r\n", the terminator is not part of the slice.
+ * {@link #string()} decodes the slice as UTF-8, pure ASCII lines take a fast path.
+ * <pre>
+ * try (LineCursor cursor = LineCursor.open(file)) {
+ *     while (cursor.next()) {
+ *         out.write(cursor.bytes(), cursor.offset(), cursor.length());
+ *     }
+ * }
+ * </pre>
+ */
+public final class LineCursor implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// uncompressed files are mapped in windows of this size
+	private static final long MAP_SIZE = 256L * 1024 * 1024;
+
+	private final Source source;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private boolean eof = false;
+	// the last line ended with '\r', a '\n' right after it belongs to it
+	private boolean skipLF = false;
+
+	private int lineOffset = 0;
+	private int lineLength = 0;
+	private long lineNumber = 0;
+
+	private LineCursor(Source source) {
+		this.source = source;
+	}
+
+	/**
+	 * Opens a file, uncompressed files are mapped, compressed ones are
+	 * decompressed with {@link FileUtils#openInputStream(File)}.
+	 */
+	@NotNull
+	public static LineCursor open(@NotNull File file) throws IOException {
+		if (CompressionCodecs.detect(file) != CompressionCodecs.NONE) {
+			return of(FileUtils.openInputStream(file));
+		}
+		return new LineCursor(new MappedSource(FileChannel.open(file.toPath(), StandardOpenOption.READ)));
+	}
+
+	/**
+	 * Reads lines from a stream, closed with the cursor. The cursor buffers,
+	 * the stream doesn't need to.
+	 */
+	@NotNull
+	public static LineCursor of(@NotNull InputStream in) {
+		return new LineCursor(new StreamSource(in));
+	}
+
+	/**
+	 * Reads lines between the position and the limit of a buffer.
+	 */
+	@NotNull
+	public static LineCursor of(@NotNull ByteBuffer buffer) {
+		return new LineCursor(new BufferSource(buffer.duplicate()));
+	}
+
+	/**
+	 * Moves to the next line.
+	 *
+	 * @return false at the end of the input
+	 */
+	public boolean next() throws IOException {
+		if (skipLF) {
+			if (position == limit && !fill()) {
+				return false;
+			}
+			if (buffer[position] == '\n') {
+				position++;
+			}
+			skipLF = false;
+		}
+		int scan = position;
+		while (true) {
+			byte[] b = buffer;
+			for (int i = scan; i < limit; i++) {
+				byte c = b[i];
+				if (c == '\n' || c == '\r') {
+					setLine(position, i - position);
+					position = i + 1;
+					if (c == '\r') {
+						if (position < limit) {
+							if (b[position] == '\n') {
+								position++;
+							}
+						} else {
+							skipLF = true;
+						}
+					}
+					return true;
+				}
+			}
+			scan = limit - position;
+			if (!fill()) {
+				if (position < limit) {
+					setLine(position, limit - position);
+					position = limit;
+					return true;
+				}
+				return false;
+			}
+			scan += position;
+		}
+	}
+
+	private void setLine(int offset, int length) {
+		lineOffset = offset;
+		lineLength = length;
+		lineNumber++;
+	}
+
+	/*
+	 * keeps the unread bytes, moved to the start of the buffer, and reads more
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		int unread = limit - position;
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, unread);
+		} else if (unread == buffer.length) {
+			// a line longer than the buffer
+			byte[] bigger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, bigger, 0, unread);
+			buffer = bigger;
+		}
+		position = 0;
+		limit = unread;
+		while (true) {
+			int n = source.read(buffer, limit, buffer.length - limit);
+			if (n < 0) {
+				eof = true;
+				return false;
+			}
+			if (n > 0) {
+				limit += n;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The array holding the current line, only valid until {@link #next()}.
+	 */
+	@NotNull
+	public byte[] bytes() {
+		return buffer;
+	}
+
+	public int offset() {
+		return lineOffset;
+	}
+
+	public int length() {
+		return lineLength;
+	}
+
+	/**
+	 * 1-based number of the current line.
+	 */
+	public long lineNumber() {
+		return lineNumber;
+	}
+
+	public boolean isAscii() {
+		byte[] b = buffer;
+		for (int i = lineOffset, end = lineOffset + lineLength; i < end; i++) {
+			if (b[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Index of {@code value} in the current line at or after {@code from}, -1 if none.
+	 */
+	public int indexOf(byte value, int from) {
+		byte[] b = buffer;
+		for (int i = lineOffset + Math.max(from, 0), end = lineOffset + lineLength; i < end; i++) {
+			if (b[i] == value) {
+				return i - lineOffset;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes the current line as UTF-8.
+	 */
+	@NotNull
+	public String string() {
+		// for ASCII both decode the same, ISO-8859-1 is a plain copy
+		return new String(buffer, lineOffset, lineLength,
+				isAscii() ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the bytes of the current line, without a line terminator.
+	 */
+	public void writeTo(@NotNull OutputStream out) throws IOException {
+		out.write(buffer, lineOffset, lineLength);
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+	@Override
+	public String toString() {
+		return string();
+	}
+
+	private interface Source extends Closeable {
+		/**
+		 * @return bytes read, -1 at the end
+		 */
+		int read(byte[] b, int off, int len) throws IOException;
+	}
+
+	private static final class StreamSource implements Source {
+		private final InputStream in;
+
+		private StreamSource(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private static class BufferSource implements Source {
+		ByteBuffer window;
+
+		private BufferSource(ByteBuffer window) {
+			this.window = window;
+		}
+
+		/*
+		 * maps the next window, false at the end
+		 */
+		boolean nextWindow() throws IOException {
+			return false;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (window == null || !window.hasRemaining()) {
+				if (!nextWindow()) {
+					return -1;
+				}
+			}
+			int n = Math.min(len, window.remaining());
+			window.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			window = null;
+		}
+	}
+
+	private static final class MappedSource extends BufferSource {
+		private final FileChannel channel;
+		private final long size;
+		private long mapped = 0;
+
+		private MappedSource(FileChannel channel) throws IOException {
+			super(null);
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		@Override
+		boolean nextWindow() throws IOException {
+			if (mapped >= size) {
+				return false;
+			}
+			long length = Math.min(MAP_SIZE, size - mapped);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+			mapped += length;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			channel.close();
+		}
+	}
+}
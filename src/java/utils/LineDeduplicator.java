@@ -0,0 +1,242 @@
+package utils;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Removes duplicate lines (or lines with duplicate keys) of files too big for
+ * a {@code Set<String>}.
+ * <p>
+ * Every key is reduced to a 64-bit fingerprint kept in an
+ * {@link OffHeapLongSet}; the first line of every fingerprint is written, in
+ * input order. Two different keys are taken for duplicates only if their
+ * fingerprints collide, about once in 2^64/n^2 runs for n unique keys (for
+ * 100 million keys 0.03%).
+ * <p>
+ * When the set would outgrow {@link #memoryBudget(long)}, it stops taking new
+ * fingerprints: lines it already has are dropped, the others are spilled
+ * into hash partitions on disk, each of which is deduplicated the same way
+ * afterwards (and split further if it still doesn't fit). The output then
+ * holds the lines of the first pass followed by those of each partition.
+ * <pre>
+ * new LineDeduplicator().keyField("\t", 1).memoryBudget(1L &lt;&lt; 30).dedup(input, output);
+ * </pre>
+ */
+public final class LineDeduplicator {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(LineDeduplicator.class);
+
+	public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+	public static final int DEFAULT_PARTITIONS = 64;
+	// a partition that doesn't fit after this many splits has too many unique keys for the budget
+	private static final int MAX_LEVEL = 6;
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	@Nullable
+	private PartitionedWriter.KeyExtractor keys = null;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private int partitions = DEFAULT_PARTITIONS;
+	private File tmpParent = null;
+
+	/**
+	 * Lines with equal keys are duplicates, by default the whole line is the key.
+	 */
+	public LineDeduplicator key(@NotNull PartitionedWriter.KeyExtractor keys) {
+		this.keys = keys;
+		return this;
+	}
+
+	/**
+	 * Uses the {@code index}-th (1-based) field as the key, see
+	 * {@link StringUtils#getField}. Lines without that field are compared whole.
+	 */
+	public LineDeduplicator keyField(@NotNull final String separator, final int index) {
+		return key(new PartitionedWriter.KeyExtractor() {
+			@NotNull
+			@Override
+			public String getKey(@NotNull String line) {
+				String field = StringUtils.getField(line, separator, index, false);
+				return field != null ? field : line;
+			}
+		});
+	}
+
+	/**
+	 * Bytes of direct memory the fingerprints may take, 256MB by default,
+	 * at most {@link OffHeapLongSet#MAX_MEMORY}. The set must fit the budget
+	 * also while it grows, with its old and new table, so it holds at most a
+	 * third of the budget in slots.
+	 */
+	public LineDeduplicator memoryBudget(long memoryBudget) {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("memoryBudget <= 0");
+		}
+		this.memoryBudget = Math.min(memoryBudget, OffHeapLongSet.MAX_MEMORY);
+		return this;
+	}
+
+	/**
+	 * Number of partitions spilled lines are split into.
+	 */
+	public LineDeduplicator partitions(int partitions) {
+		if (partitions < 2) {
+			throw new IllegalArgumentException("partitions < 2");
+		}
+		this.partitions = partitions;
+		return this;
+	}
+
+	/**
+	 * Where spilled partitions are written, the directory of the output by default.
+	 */
+	public LineDeduplicator tmpDirectory(@NotNull File tmpParent) {
+		this.tmpParent = tmpParent;
+		return this;
+	}
+
+	@NotNull
+	public Stats dedup(@NotNull File input, @NotNull File output) throws IOException {
+		return dedup(Collections.singletonList(input), output);
+	}
+
+	@NotNull
+	public Stats dedup(@NotNull List<File> inputs, @NotNull File output) throws IOException {
+		long start = System.currentTimeMillis();
+		Stats stats = new Stats();
+		File parent = tmpParent != null ? tmpParent : output.getAbsoluteFile().getParentFile();
+		try (BufferedWriter writer = FileUtils.openWriter(output)) {
+			dedup(inputs, writer, 0, output, parent, stats);
+		}
+		stats.elapsed = System.currentTimeMillis() - start;
+		LOG.info("Deduplicated {} into {}: {}", new Object[]{inputs.size() == 1 ? inputs.get(0) : inputs, output, stats});
+		return stats;
+	}
+
+	private void dedup(List<File> inputs, Writer writer, int level, File output, File parent, Stats stats)
+			throws IOException {
+		OffHeapLongSet seen = new OffHeapLongSet();
+		PartitionedWriter spill = null;
+		File spillDir = null;
+		try {
+			for (File input : inputs) {
+				try (LineCursor cursor = LineCursor.open(input)) {
+					while (cursor.next()) {
+						String line = cursor.string();
+						if (level == 0) {
+							stats.lines++;
+						}
+						long fingerprint = fingerprint(line);
+						if (spill == null && seen.isFull() && seen.memoryUsageDuringGrowth() > memoryBudget
+								&& !seen.contains(fingerprint)) {
+							if (level == MAX_LEVEL) {
+								throw new IOException("Too many unique keys for a memory budget of " + memoryBudget);
+							}
+							spillDir = FileUtils.tmpDir(output, parent);
+							spill = new PartitionedWriter(spillDir, "part-", ".lz4", partitions);
+							LOG.info("{} fingerprints fill the budget, spilling into {}", seen.size(), spillDir);
+						}
+						if (spill == null) {
+							if (seen.add(fingerprint)) {
+								writer.write(line);
+								writer.write('\n');
+								stats.unique++;
+							}
+						} else if (!seen.contains(fingerprint)) {
+							spill.write(line, partition(fingerprint, level));
+							stats.spilled++;
+						}
+					}
+				}
+			}
+			if (spill == null) {
+				return;
+			}
+			spill.close();
+			// the next level gets the whole budget
+			seen = null;
+			stats.levels = Math.max(stats.levels, level + 1);
+			for (int i = 0; i < partitions; i++) {
+				File partition = spill.getFile(i);
+				dedup(Collections.singletonList(partition), writer, level + 1, output, parent, stats);
+				FileUtils.delete(partition);
+			}
+		} finally {
+			if (spillDir != null) {
+				FileUtils.closeAll(spill);
+				FileUtils.deleteRecursively(spillDir);
+			}
+		}
+	}
+
+	private long fingerprint(String line) {
+		return HASH.hashString(keys != null ? keys.getKey(line) : line).asLong();
+	}
+
+	/*
+	 * equal fingerprints go to the same partition; the fingerprint is mixed
+	 * with the level, so a partition splits evenly on the next level and its
+	 * fingerprints don't share the bits OffHeapLongSet picks slots by
+	 */
+	private int partition(long fingerprint, int level) {
+		long h = fingerprint + (level + 1) * 0x9e3779b97f4a7c15L;
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return (int) Long.remainderUnsigned(h ^ (h >>> 31), partitions);
+	}
+
+	public static final class Stats {
+		private long lines = 0;
+		private long unique = 0;
+		private long spilled = 0;
+		private int levels = 0;
+		private long elapsed = 0;
+
+		/**
+		 * Lines read from the inputs.
+		 */
+		public long getLines() {
+			return lines;
+		}
+
+		/**
+		 * Lines written.
+		 */
+		public long getUnique() {
+			return unique;
+		}
+
+		/**
+		 * Lines written to partitions on disk, on any level.
+		 */
+		public long getSpilled() {
+			return spilled;
+		}
+
+		/**
+		 * Levels of partitions, 0 if all fingerprints fit the budget.
+		 */
+		public int getLevels() {
+			return levels;
+		}
+
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d lines, %d unique, %d spilled, %d partition levels, %d ms",
+					lines, unique, spilled, levels, elapsed);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Restricts a byte stream to the lines whose first byte lies in [start, end).
+ * <p>
+ * The wrapped stream must be positioned at {@code start}. A line cut by
+ * {@code start} belongs to the previous range and is skipped, the last line
+ * is read through its '\n' even if it goes past {@code end}. Ranges sharing
+ * their bounds therefore see every line of the input exactly once.
+ */
+final class LineRangeInputStream extends FilterInputStream {
+
+	private final long end;
+	private long position;
+	private boolean skipFirst;
+	private boolean lineStart;
+	private boolean finished = false;
+
+	/**
+	 * @param lineStart whether the byte before {@code start} is a '\n' (or start is 0)
+	 */
+	LineRangeInputStream(InputStream in, long start, long end, boolean lineStart) {
+		super(in);
+		this.position = start;
+		this.end = end;
+		this.skipFirst = !lineStart;
+		this.lineStart = lineStart;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		int n = read(one, 0, 1);
+		return n < 0 ? -1 : one[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (skipFirst && !skipPartialLine()) {
+			return -1;
+		}
+		if (finished || position >= end && lineStart) {
+			finished = true;
+			return -1;
+		}
+		int n = in.read(b, off, len);
+		if (n < 0) {
+			finished = true;
+			return -1;
+		}
+		// a line starting at end or later ends the range: stop after the first
+		// '\n' found at end - 1 or later
+		long first = Math.max(position, end - 1);
+		for (long p = first; p < position + n; p++) {
+			if (b[off + (int) (p - position)] == '\n') {
+				n = (int) (p - position) + 1;
+				finished = true;
+				break;
+			}
+		}
+		position += n;
+		lineStart = b[off + n - 1] == '\n';
+		return n;
+	}
+
+	private boolean skipPartialLine() throws IOException {
+		byte[] buffer = new byte[8 * 1024];
+		while (true) {
+			int n = in.read(buffer, 0, buffer.length);
+			if (n < 0) {
+				finished = true;
+				return false;
+			}
+			for (int i = 0; i < n; i++) {
+				if (buffer[i] == '\n') {
+					position += i + 1;
+					skipFirst = false;
+					lineStart = true;
+					if (i + 1 < n) {
+						unread(buffer, i + 1, n - i - 1);
+					}
+					return true;
+				}
+			}
+			position += n;
+		}
+	}
+
+	private void unread(byte[] buffer, int off, int len) {
+		byte[] rest = new byte[len];
+		System.arraycopy(buffer, off, rest, 0, len);
+		in = new PrefixedInputStream(rest, in);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		throw new IOException("skip is not supported");
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private static final class PrefixedInputStream extends FilterInputStream {
+		private final byte[] prefix;
+		private int prefixPosition = 0;
+
+		private PrefixedInputStream(byte[] prefix, InputStream in) {
+			super(in);
+			this.prefix = prefix;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (prefixPosition < prefix.length) {
+				return prefix[prefixPosition++] & 0xff;
+			}
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (prefixPosition < prefix.length) {
+				int n = Math.min(len, prefix.length - prefixPosition);
+				System.arraycopy(prefix, prefixPosition, b, off, n);
+				prefixPosition += n;
+				return n;
+			}
+			return in.read(b, off, len);
+		}
+	}
+}
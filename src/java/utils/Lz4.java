@@ -0,0 +1,301 @@
+package utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java LZ4 block format and the xxHash32 checksum used by LZ4 frames.
+ * <p>
+ * The compressor is the greedy single-probe variant of the reference "fast"
+ * compressor: a 4-byte hash table, no lazy matching. Output is decodable by
+ * any LZ4 implementation and this decoder reads any valid LZ4 block.
+ */
+final class Lz4 {
+
+	static final int MAX_DISTANCE = 65535;
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	// a match may not start in the last 12 bytes of a block
+	private static final int MF_LIMIT = 12;
+	private static final int HASH_LOG = 14;
+	private static final int SKIP_TRIGGER = 6;
+
+	private Lz4() {
+	}
+
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * @param table scratch space of {@link #newHashTable()}, reused between calls
+	 * @return compressed length
+	 */
+	static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] table) {
+		int anchor = srcOff;
+		int srcEnd = srcOff + srcLen;
+		int d = dstOff;
+		if (srcLen >= MF_LIMIT + 1) {
+			Arrays.fill(table, -1);
+			int matchLimit = srcEnd - LAST_LITERALS;
+			int limit = srcEnd - MF_LIMIT;
+			int s = srcOff;
+			table[hash(readInt(src, s))] = s;
+			s++;
+			while (s < limit) {
+				// skip faster over incompressible data
+				int attempts = 1 << SKIP_TRIGGER;
+				int match;
+				int step = 1;
+				while (true) {
+					int h = hash(readInt(src, s));
+					match = table[h];
+					table[h] = s;
+					if (match >= 0 && s - match <= MAX_DISTANCE && readInt(src, match) == readInt(src, s)) {
+						break;
+					}
+					s += step;
+					step = attempts++ >>> SKIP_TRIGGER;
+					if (s >= limit) {
+						return writeLastLiterals(src, anchor, srcEnd - anchor, dst, d) - dstOff;
+					}
+				}
+				// extend backwards over equal bytes still in the literal run
+				while (s > anchor && match > srcOff && src[s - 1] == src[match - 1]) {
+					s--;
+					match--;
+				}
+				int length = MIN_MATCH;
+				while (s + length < matchLimit && src[s + length] == src[match + length]) {
+					length++;
+				}
+				d = writeSequence(src, anchor, s - anchor, s - match, length, dst, d);
+				s += length;
+				anchor = s;
+				if (s < limit) {
+					table[hash(readInt(src, s - 2))] = s - 2;
+				}
+			}
+		}
+		return writeLastLiterals(src, anchor, srcEnd - anchor, dst, d) - dstOff;
+	}
+
+	static int[] newHashTable() {
+		return new int[1 << HASH_LOG];
+	}
+
+	/**
+	 * @param dstOff where this block starts; with dependent blocks the previous
+	 *               data must be right before it in {@code dst}, {@code dstBase} is
+	 *               the first byte matches may refer to
+	 * @return decompressed length
+	 */
+	static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstBase, int dstOff, int dstLimit)
+			throws IOException {
+		int s = srcOff;
+		int srcEnd = srcOff + srcLen;
+		int d = dstOff;
+		while (s < srcEnd) {
+			int token = src[s++] & 0xff;
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int b;
+				do {
+					if (s >= srcEnd) {
+						throw new IOException("Malformed LZ4 block");
+					}
+					b = src[s++] & 0xff;
+					literals += b;
+				} while (b == 255);
+			}
+			if (literals > srcEnd - s || literals > dstLimit - d) {
+				throw new IOException("Malformed LZ4 block");
+			}
+			System.arraycopy(src, s, dst, d, literals);
+			s += literals;
+			d += literals;
+			if (s == srcEnd) {
+				break;
+			}
+			if (s + 2 > srcEnd) {
+				throw new IOException("Malformed LZ4 block");
+			}
+			int offset = (src[s] & 0xff) | (src[s + 1] & 0xff) << 8;
+			s += 2;
+			int length = token & 0xf;
+			if (length == 15) {
+				int b;
+				do {
+					if (s >= srcEnd) {
+						throw new IOException("Malformed LZ4 block");
+					}
+					b = src[s++] & 0xff;
+					length += b;
+				} while (b == 255);
+			}
+			length += MIN_MATCH;
+			int match = d - offset;
+			if (offset == 0 || match < dstBase || length > dstLimit - d) {
+				throw new IOException("Malformed LZ4 block");
+			}
+			if (offset >= length) {
+				System.arraycopy(dst, match, dst, d, length);
+				d += length;
+			} else {
+				// overlapping copy repeats the last offset bytes
+				for (int i = 0; i < length; i++) {
+					dst[d++] = dst[match + i];
+				}
+			}
+		}
+		return d - dstOff;
+	}
+
+	private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+									 byte[] dst, int d) {
+		int tokenPosition = d++;
+		int token;
+		if (literals >= 15) {
+			token = 15 << 4;
+			d = writeLength(literals - 15, dst, d);
+		} else {
+			token = literals << 4;
+		}
+		System.arraycopy(src, literalStart, dst, d, literals);
+		d += literals;
+		dst[d++] = (byte) offset;
+		dst[d++] = (byte) (offset >>> 8);
+		int extra = matchLength - MIN_MATCH;
+		if (extra >= 15) {
+			token |= 15;
+			d = writeLength(extra - 15, dst, d);
+		} else {
+			token |= extra;
+		}
+		dst[tokenPosition] = (byte) token;
+		return d;
+	}
+
+	private static int writeLastLiterals(byte[] src, int start, int literals, byte[] dst, int d) {
+		if (literals >= 15) {
+			dst[d++] = (byte) (15 << 4);
+			d = writeLength(literals - 15, dst, d);
+		} else {
+			dst[d++] = (byte) (literals << 4);
+		}
+		System.arraycopy(src, start, dst, d, literals);
+		return d + literals;
+	}
+
+	private static int writeLength(int length, byte[] dst, int d) {
+		while (length >= 255) {
+			dst[d++] = (byte) 255;
+			length -= 255;
+		}
+		dst[d++] = (byte) length;
+		return d;
+	}
+
+	private static int hash(int value) {
+		return (value * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	static int readInt(byte[] b, int i) {
+		return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+	}
+
+	static void writeInt(byte[] b, int i, int value) {
+		b[i] = (byte) value;
+		b[i + 1] = (byte) (value >>> 8);
+		b[i + 2] = (byte) (value >>> 16);
+		b[i + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 * Streaming xxHash32, see https://github.com/Cyan4973/xxHash.
+	 */
+	static final class XXHash32 {
+		private static final int PRIME1 = -1640531535;
+		private static final int PRIME2 = -2048144777;
+		private static final int PRIME3 = -1028477379;
+		private static final int PRIME4 = 668265263;
+		private static final int PRIME5 = 374761393;
+
+		private final int seed;
+		private int v1;
+		private int v2;
+		private int v3;
+		private int v4;
+		private long total = 0;
+		private final byte[] pending = new byte[16];
+		private int pendingLength = 0;
+
+		XXHash32(int seed) {
+			this.seed = seed;
+			v1 = seed + PRIME1 + PRIME2;
+			v2 = seed + PRIME2;
+			v3 = seed;
+			v4 = seed - PRIME1;
+		}
+
+		static int hash(byte[] b, int off, int len, int seed) {
+			XXHash32 hash = new XXHash32(seed);
+			hash.update(b, off, len);
+			return hash.getValue();
+		}
+
+		void update(byte[] b, int off, int len) {
+			total += len;
+			if (pendingLength + len < 16) {
+				System.arraycopy(b, off, pending, pendingLength, len);
+				pendingLength += len;
+				return;
+			}
+			int end = off + len;
+			if (pendingLength > 0) {
+				int fill = 16 - pendingLength;
+				System.arraycopy(b, off, pending, pendingLength, fill);
+				round(pending, 0);
+				off += fill;
+				pendingLength = 0;
+			}
+			for (; off + 16 <= end; off += 16) {
+				round(b, off);
+			}
+			pendingLength = end - off;
+			System.arraycopy(b, off, pending, 0, pendingLength);
+		}
+
+		private void round(byte[] b, int off) {
+			v1 = Integer.rotateLeft(v1 + readInt(b, off) * PRIME2, 13) * PRIME1;
+			v2 = Integer.rotateLeft(v2 + readInt(b, off + 4) * PRIME2, 13) * PRIME1;
+			v3 = Integer.rotateLeft(v3 + readInt(b, off + 8) * PRIME2, 13) * PRIME1;
+			v4 = Integer.rotateLeft(v4 + readInt(b, off + 12) * PRIME2, 13) * PRIME1;
+		}
+
+		int getValue() {
+			int h;
+			if (total >= 16) {
+				h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7)
+						+ Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+			} else {
+				h = seed + PRIME5;
+			}
+			h += (int) total;
+			int i = 0;
+			for (; i + 4 <= pendingLength; i += 4) {
+				h = Integer.rotateLeft(h + readInt(pending, i) * PRIME3, 17) * PRIME4;
+			}
+			for (; i < pendingLength; i++) {
+				h = Integer.rotateLeft(h + (pending[i] & 0xff) * PRIME5, 11) * PRIME1;
+			}
+			h ^= h >>> 15;
+			h *= PRIME2;
+			h ^= h >>> 13;
+			h *= PRIME3;
+			h ^= h >>> 16;
+			return h;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the LZ4 frame format, including concatenated and skippable frames,
+ * dependent blocks and all optional checksums.
+ */
+public class Lz4FrameInputStream extends InputStream {
+
+	private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+	private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+	private static final int UNCOMPRESSED_FLAG = 0x80000000;
+
+	private final InputStream in;
+	private final byte[] word = new byte[8];
+
+	// current frame
+	private boolean independentBlocks;
+	private boolean blockChecksum;
+	private boolean contentChecksum;
+	private int maxBlockSize;
+	private Lz4.XXHash32 contentHash;
+	private byte[] compressed = new byte[0];
+	// decoded blocks go after up to 64KB of history that dependent blocks may refer to
+	private byte[] buffer = new byte[0];
+
+	private int position = 0;
+	private int limit = 0;
+	private boolean inFrame = false;
+	private boolean eof = false;
+
+	public Lz4FrameInputStream(@NotNull InputStream in) throws IOException {
+		this.in = in;
+		if (!readFrameHeader(false)) {
+			throw new EOFException("encountered EOF while reading LZ4 frame header");
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureData()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	@Override
+	public int read(@NotNull byte[] b, int off, int len) throws IOException {
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			return -1;
+		}
+		int n = Math.min(len, limit - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return limit - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private boolean ensureData() throws IOException {
+		while (position == limit) {
+			if (eof) {
+				return false;
+			}
+			if (!inFrame && !readFrameHeader(true)) {
+				eof = true;
+				return false;
+			}
+			readBlock();
+		}
+		return true;
+	}
+
+	/**
+	 * @return false on a clean end of the stream
+	 */
+	private boolean readFrameHeader(boolean allowEof) throws IOException {
+		while (true) {
+			if (!readFully(word, 4, allowEof)) {
+				return false;
+			}
+			int magic = Lz4.readInt(word, 0);
+			if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+				readFully(word, 4, false);
+				skipFully(Lz4.readInt(word, 0) & 0xffffffffL);
+				continue;
+			}
+			if (magic != Lz4FrameOutputStream.MAGIC) {
+				throw new IOException(String.format("Not an LZ4 frame, magic 0x%08X", magic));
+			}
+			break;
+		}
+		byte[] descriptor = new byte[2 + 8 + 4];
+		readFully(descriptor, 2, false);
+		int flags = descriptor[0] & 0xff;
+		if ((flags >>> 6) != 1) {
+			throw new IOException("Unsupported LZ4 frame version " + (flags >>> 6));
+		}
+		independentBlocks = (flags & 0x20) != 0;
+		blockChecksum = (flags & 0x10) != 0;
+		boolean contentSize = (flags & 0x08) != 0;
+		contentChecksum = (flags & 0x04) != 0;
+		if ((flags & 0x01) != 0) {
+			throw new IOException("LZ4 frames with a dictionary are not supported");
+		}
+		int blockSizeId = (descriptor[1] >>> 4) & 0x7;
+		if (blockSizeId < 4) {
+			throw new IOException("Invalid LZ4 block size id " + blockSizeId);
+		}
+		maxBlockSize = 1 << (8 + 2 * blockSizeId);
+		int length = 2;
+		if (contentSize) {
+			readFully(word, 8, false);
+			System.arraycopy(word, 0, descriptor, length, 8);
+			length += 8;
+		}
+		int checksum = in.read();
+		if (checksum < 0) {
+			throw new EOFException("encountered EOF while reading LZ4 frame header");
+		}
+		if (checksum != ((Lz4.XXHash32.hash(descriptor, 0, length, 0) >>> 8) & 0xff)) {
+			throw new IOException("Corrupt LZ4 frame header");
+		}
+		if (compressed.length < maxBlockSize) {
+			compressed = new byte[maxBlockSize];
+		}
+		int history = independentBlocks ? 0 : Lz4.MAX_DISTANCE;
+		if (buffer.length < history + maxBlockSize) {
+			buffer = new byte[history + maxBlockSize];
+		}
+		position = 0;
+		limit = 0;
+		contentHash = contentChecksum ? new Lz4.XXHash32(0) : null;
+		inFrame = true;
+		return true;
+	}
+
+	private void readBlock() throws IOException {
+		readFully(word, 4, false);
+		int header = Lz4.readInt(word, 0);
+		if (header == 0) {
+			if (contentChecksum) {
+				readFully(word, 4, false);
+				if (Lz4.readInt(word, 0) != contentHash.getValue()) {
+					throw new IOException("Corrupt LZ4 frame: content checksum mismatch");
+				}
+			}
+			inFrame = false;
+			position = 0;
+			limit = 0;
+			return;
+		}
+		boolean stored = (header & UNCOMPRESSED_FLAG) != 0;
+		int length = header & ~UNCOMPRESSED_FLAG;
+		if (length > maxBlockSize) {
+			throw new IOException("Corrupt LZ4 frame: block of " + length + " bytes");
+		}
+		int start = 0;
+		if (!independentBlocks && limit > 0) {
+			// keep the last 64KB of output in front of the new block
+			int keep = Math.min(limit, Lz4.MAX_DISTANCE);
+			System.arraycopy(buffer, limit - keep, buffer, 0, keep);
+			start = keep;
+		}
+		readFully(compressed, length, false);
+		if (blockChecksum) {
+			readFully(word, 4, false);
+			if (Lz4.readInt(word, 0) != Lz4.XXHash32.hash(compressed, 0, length, 0)) {
+				throw new IOException("Corrupt LZ4 frame: block checksum mismatch");
+			}
+		}
+		int decoded;
+		if (stored) {
+			System.arraycopy(compressed, 0, buffer, start, length);
+			decoded = length;
+		} else {
+			decoded = Lz4.decompress(compressed, 0, length, buffer, 0, start, start + maxBlockSize);
+		}
+		if (contentHash != null) {
+			contentHash.update(buffer, start, decoded);
+		}
+		position = start;
+		limit = start + decoded;
+	}
+
+	private boolean readFully(byte[] b, int length, boolean allowEof) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int n = in.read(b, offset, length - offset);
+			if (n < 0) {
+				if (offset == 0 && allowEof) {
+					return false;
+				}
+				throw new EOFException("encountered EOF while reading LZ4 frame");
+			}
+			offset += n;
+		}
+		return true;
+	}
+
+	private void skipFully(long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException("encountered EOF while skipping LZ4 frame");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package utils;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Counts and locates lines of an uncompressed file without decoding it.
+ * <p>
+ * The file is mapped in chunks with {@link FileChannel#map} and every chunk is
+ * scanned for '\n' on its own thread, so no String (and no per-line object) is
+ * ever created. Only '\n' terminates a line, which is also what "\r\n" files
+ * use; old Mac style files terminated by a single '\r' are seen as one line.
+ */
+public final class MappedLineScanner {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	// chunks are copied into this small heap buffer, scanning a byte[] is much faster than get(i)
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+	private MappedLineScanner() {
+	}
+
+	public static long countLines(@NotNull File file) throws IOException {
+		return countLines(file, 0);
+	}
+
+	/**
+	 * Returns the number of lines {@link java.io.BufferedReader#readLine()} would return.
+	 *
+	 * @param threads number of scanning threads, 0 means all cores
+	 */
+	public static long countLines(@NotNull File file, int threads) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size == 0) {
+				return 0;
+			}
+			List<Future<Long>> results = scan(channel, size, threads, new ChunkScannerFactory<Long>() {
+				@Override
+				public Callable<Long> create(FileChannel channel, long start, int length, long fileSize) {
+					return new NewlineCounter(channel, start, length);
+				}
+			});
+			long count = 0;
+			for (Future<Long> result : results) {
+				count += ConcurrentUtils.await(result);
+			}
+			return endsWithNewline(channel, size) ? count : count + 1;
+		}
+	}
+
+	public static LongArrayList lineOffsets(@NotNull File file) throws IOException {
+		return lineOffsets(file, 0);
+	}
+
+	/**
+	 * Returns the byte offset of the first byte of every line, in file order.
+	 * The size of the list equals {@link #countLines(File, int)}.
+	 *
+	 * @param threads number of scanning threads, 0 means all cores
+	 */
+	public static LongArrayList lineOffsets(@NotNull File file, int threads) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			LongArrayList offsets = new LongArrayList();
+			if (size == 0) {
+				return offsets;
+			}
+			List<Future<LongArrayList>> results = scan(channel, size, threads,
+					new ChunkScannerFactory<LongArrayList>() {
+						@Override
+						public Callable<LongArrayList> create(FileChannel channel, long start, int length, long fileSize) {
+							return new LineStartCollector(channel, start, length, fileSize);
+						}
+					});
+			offsets.add(0L);
+			for (Future<LongArrayList> result : results) {
+				offsets.addAll(ConcurrentUtils.await(result));
+			}
+			return offsets;
+		}
+	}
+
+	private static boolean endsWithNewline(FileChannel channel, long size) throws IOException {
+		ByteBuffer last = ByteBuffer.allocate(1);
+		while (last.hasRemaining()) {
+			if (channel.read(last, size - 1) < 0) {
+				throw new IOException("file was truncated while scanning");
+			}
+		}
+		return last.get(0) == '\n';
+	}
+
+	private static <T> List<Future<T>> scan(FileChannel channel, long size, int threads,
+											ChunkScannerFactory<T> factory) throws IOException {
+		int chunks = (int) ((size + DEFAULT_CHUNK_SIZE - 1) / DEFAULT_CHUNK_SIZE);
+		ExecutorService pool = ConcurrentUtils.newFixedPool("line-scanner",
+				Math.min(ConcurrentUtils.threadsOrDefault(threads), chunks));
+		try {
+			List<Future<T>> results = new ArrayList<>(chunks);
+			for (long start = 0; start < size; start += DEFAULT_CHUNK_SIZE) {
+				int length = (int) Math.min(DEFAULT_CHUNK_SIZE, size - start);
+				results.add(pool.submit(factory.create(channel, start, length, size)));
+			}
+			// wait for everything before the channel can be closed by the caller
+			for (Future<T> result : results) {
+				ConcurrentUtils.await(result);
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private interface ChunkScannerFactory<T> {
+		Callable<T> create(FileChannel channel, long start, int length, long fileSize);
+	}
+
+	private abstract static class ChunkScanner<T> implements Callable<T> {
+		private final FileChannel channel;
+		final long start;
+		private final int length;
+
+		ChunkScanner(FileChannel channel, long start, int length) {
+			this.channel = channel;
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public T call() throws IOException {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			byte[] buffer = new byte[Math.min(SCAN_BUFFER_SIZE, length)];
+			int position = 0;
+			while (mapped.hasRemaining()) {
+				int count = Math.min(buffer.length, mapped.remaining());
+				mapped.get(buffer, 0, count);
+				for (int i = 0; i < count; i++) {
+					if (buffer[i] == '\n') {
+						newline(position + i);
+					}
+				}
+				position += count;
+			}
+			return result();
+		}
+
+		/*
+		 * position is relative to the start of the chunk
+		 */
+		abstract void newline(int position);
+
+		abstract T result();
+	}
+
+	private static final class NewlineCounter extends ChunkScanner<Long> {
+		private long count = 0;
+
+		NewlineCounter(FileChannel channel, long start, int length) {
+			super(channel, start, length);
+		}
+
+		@Override
+		void newline(int position) {
+			count++;
+		}
+
+		@Override
+		Long result() {
+			return count;
+		}
+	}
+
+	private static final class LineStartCollector extends ChunkScanner<LongArrayList> {
+		private final long fileSize;
+		private final LongArrayList starts = new LongArrayList();
+
+		LineStartCollector(FileChannel channel, long start, int length, long fileSize) {
+			super(channel, start, length);
+			this.fileSize = fileSize;
+		}
+
+		@Override
+		void newline(int position) {
+			long next = start + position + 1;
+			// a newline at the very end of the file doesn't start another line
+			if (next < fileSize) {
+				starts.add(next);
+			}
+		}
+
+		@Override
+		LongArrayList result() {
+			return starts;
+		}
+	}
+}
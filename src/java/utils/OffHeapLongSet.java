@@ -0,0 +1,196 @@
+package utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Set of longs in a direct buffer, 8 bytes per slot and no per-entry
+ * objects, so the garbage collector never sees its contents.
+ * <p>
+ * Open addressing with linear probing; the table doubles and is rehashed when
+ * it is 3/4 full. 0 can't be stored in a slot (it marks free slots) and is
+ * kept in a flag. A dropped table is freed as soon as it is rehashed where
+ * the JVM allows it, otherwise when the garbage collector collects the buffer
+ * object. At most 2^27 slots (1GB). Not thread-safe.
+ */
+public final class OffHeapLongSet {
+
+	private static final int MAX_CAPACITY = 1 << 27;
+	/**
+	 * Bytes of the biggest table.
+	 */
+	public static final long MAX_MEMORY = (long) MAX_CAPACITY * 8;
+	private static final int MIN_CAPACITY = 1 << 10;
+
+	private ByteBuffer table;
+	private int capacity;
+	private int mask;
+	private int size = 0;
+	private int maxFill;
+	private boolean containsZero = false;
+
+	public OffHeapLongSet() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expected number of elements the set holds without growing
+	 */
+	public OffHeapLongSet(int expected) {
+		allocate(tableSize(expected));
+	}
+
+	private static int tableSize(long expected) {
+		long needed = Math.max(MIN_CAPACITY, (expected * 4 + 2) / 3 + 1);
+		if (needed > MAX_CAPACITY) {
+			throw new IllegalArgumentException("too many elements: " + expected);
+		}
+		return Integer.highestOneBit((int) needed - 1) << 1;
+	}
+
+	private void allocate(int capacity) {
+		this.table = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder());
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.maxFill = (int) (capacity * 3L / 4);
+	}
+
+	/**
+	 * @return true if the value wasn't in the set
+	 */
+	public boolean add(long value) {
+		if (value == 0) {
+			if (containsZero) {
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+		ByteBuffer t = table;
+		int slot = slot(value);
+		while (true) {
+			long current = t.getLong(slot << 3);
+			if (current == 0) {
+				break;
+			}
+			if (current == value) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		t.putLong(slot << 3, value);
+		if (++size >= maxFill) {
+			grow();
+		}
+		return true;
+	}
+
+	public boolean contains(long value) {
+		if (value == 0) {
+			return containsZero;
+		}
+		ByteBuffer t = table;
+		int slot = slot(value);
+		while (true) {
+			long current = t.getLong(slot << 3);
+			if (current == 0) {
+				return false;
+			}
+			if (current == value) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int slot(long value) {
+		// Stafford's mix13, values may be anything but random
+		long h = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return (int) (h ^ (h >>> 31)) & mask;
+	}
+
+	private void grow() {
+		if (capacity >= MAX_CAPACITY) {
+			throw new IllegalStateException("OffHeapLongSet is full");
+		}
+		ByteBuffer old = table;
+		int oldCapacity = capacity;
+		allocate(oldCapacity * 2);
+		for (int i = 0; i < oldCapacity; i++) {
+			long value = old.getLong(i << 3);
+			if (value != 0) {
+				int slot = slot(value);
+				while (table.getLong(slot << 3) != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table.putLong(slot << 3, value);
+			}
+		}
+		free(old);
+	}
+
+	/*
+	 * frees a direct buffer now rather than at the next GC, best effort:
+	 * Unsafe.invokeCleaner on Java 9+, the Cleaner of the buffer on Java 8
+	 */
+	private static void free(ByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+				return;
+			} catch (NoSuchMethodException e) {
+				// Java 8
+			}
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// left to the garbage collector
+		}
+	}
+
+	/**
+	 * Whether the next {@link #add(long)} of a new value makes the table grow.
+	 */
+	public boolean isFull() {
+		return size + 1 >= maxFill;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Bytes of the table.
+	 */
+	public long memoryUsage() {
+		return (long) capacity * 8;
+	}
+
+	/**
+	 * Bytes the next growth takes at its peak: the table and the one twice
+	 * its size it is rehashed into are both allocated.
+	 */
+	public long memoryUsageDuringGrowth() {
+		return (long) capacity * 24;
+	}
+
+	public void clear() {
+		for (int i = 0; i < capacity; i++) {
+			table.putLong(i << 3, 0L);
+		}
+		size = 0;
+		containsZero = false;
+	}
+}
@@ -0,0 +1,225 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream compressing fixed-size blocks on a thread pool, like pigz.
+ * <p>
+ * Every block becomes a complete gzip member (header, deflate data, CRC32 and
+ * size trailer) and members are written in order, so the result is a standard
+ * multi-member gzip file readable by {@link java.util.zip.GZIPInputStream},
+ * zcat and gzip -d. The ratio is slightly worse than a single member because
+ * each block starts with an empty dictionary.
+ * <p>
+ * The stream is not thread-safe; a single producer writes, the pool compresses.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	// same header as java.util.zip.GZIPOutputStream: no flags, no mtime, unknown OS
+	private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+	private static final int TRAILER_SIZE = 8;
+
+	private final OutputStream out;
+	private final int blockSize;
+	private final ExecutorService pool;
+	private final BlockingQueue<Deflater> deflaters;
+	private final ConcurrentLinkedQueue<byte[]> freeBlocks = new ConcurrentLinkedQueue<>();
+	private final ArrayDeque<Future<Member>> pending = new ArrayDeque<>();
+	private final int maxPending;
+
+	private byte[] block;
+	private int count = 0;
+	private boolean written = false;
+	private boolean closed = false;
+
+	public ParallelGzipOutputStream(@NotNull OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE, 0, Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * @param blockSize uncompressed size of every gzip member
+	 * @param threads   number of compressing threads, 0 means all cores
+	 * @param level     deflate level, see {@link Deflater}
+	 */
+	public ParallelGzipOutputStream(@NotNull OutputStream out, int blockSize, int threads, int level) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("blockSize <= 0");
+		}
+		threads = ConcurrentUtils.threadsOrDefault(threads);
+		this.out = out;
+		this.blockSize = blockSize;
+		this.pool = ConcurrentUtils.newFixedPool("gzip-writer", threads);
+		this.deflaters = new ArrayBlockingQueue<>(threads);
+		for (int i = 0; i < threads; i++) {
+			deflaters.add(new Deflater(level, true));
+		}
+		// enough queued blocks to keep every thread busy while the head is written
+		this.maxPending = threads * 2;
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		block[count++] = (byte) b;
+		if (count == blockSize) {
+			submitBlock();
+		}
+	}
+
+	@Override
+	public void write(@NotNull byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if ((off | len | (off + len) | (b.length - (off + len))) < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			int n = Math.min(len, blockSize - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == blockSize) {
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compresses what is buffered as a (possibly short) member and waits until
+	 * all members are written.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (count > 0) {
+			submitBlock();
+		}
+		while (!pending.isEmpty()) {
+			writeHead();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		boolean complete = false;
+		try {
+			// an empty input still has to be a valid gzip file
+			if (count > 0 || !written) {
+				submitBlock();
+			}
+			while (!pending.isEmpty()) {
+				writeHead();
+			}
+			complete = true;
+		} finally {
+			closed = true;
+			pool.shutdownNow();
+			for (Deflater deflater : deflaters) {
+				deflater.end();
+			}
+			if (complete) {
+				out.close();
+			} else {
+				FileUtils.closeAll(out);
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		while (pending.size() >= maxPending || (!pending.isEmpty() && pending.peekFirst().isDone())) {
+			writeHead();
+		}
+		pending.addLast(pool.submit(new Compressor(block, count)));
+		written = true;
+		byte[] free = freeBlocks.poll();
+		block = free != null ? free : new byte[blockSize];
+		count = 0;
+	}
+
+	private void writeHead() throws IOException {
+		Member member = ConcurrentUtils.await(pending.pollFirst());
+		out.write(member.data, 0, member.length);
+	}
+
+	private static final class Member {
+		private final byte[] data;
+		private final int length;
+
+		private Member(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	private final class Compressor implements Callable<Member> {
+		private final byte[] input;
+		private final int length;
+
+		private Compressor(byte[] input, int length) {
+			this.input = input;
+			this.length = length;
+		}
+
+		@Override
+		public Member call() throws InterruptedException {
+			CRC32 crc = new CRC32();
+			crc.update(input, 0, length);
+			// zlib's deflateBound plus gzip header and trailer, so one pass is almost always enough
+			byte[] data = new byte[length + (length >> 12) + (length >> 14) + (length >> 25) + 13
+					+ HEADER.length + TRAILER_SIZE];
+			System.arraycopy(HEADER, 0, data, 0, HEADER.length);
+			int size = HEADER.length;
+			Deflater deflater = deflaters.take();
+			try {
+				deflater.reset();
+				deflater.setInput(input, 0, length);
+				deflater.finish();
+				while (!deflater.finished()) {
+					if (size == data.length - TRAILER_SIZE) {
+						data = Arrays.copyOf(data, data.length * 2);
+					}
+					size += deflater.deflate(data, size, data.length - TRAILER_SIZE - size);
+				}
+			} finally {
+				deflaters.add(deflater);
+				freeBlocks.add(input);
+			}
+			writeIntLE(data, size, (int) crc.getValue());
+			writeIntLE(data, size + 4, length);
+			return new Member(data, size + TRAILER_SIZE);
+		}
+	}
+
+	private static void writeIntLE(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >>> 8);
+		buffer[offset + 2] = (byte) (value >>> 16);
+		buffer[offset + 3] = (byte) (value >>> 24);
+	}
+}
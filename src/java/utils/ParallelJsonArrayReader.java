@@ -0,0 +1,379 @@
+package utils;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads the elements of a JSON array, like {@link JsonUtils.JsonArrayReader},
+ * with the binding to objects done on a pool of threads.
+ * <p>
+ * A scanner thread reads the array and cuts out the text of every element,
+ * only looking at brackets, braces and strings; batches of elements are bound
+ * by the workers with Gson and handed to the reading thread. In ordered mode
+ * (the default) elements come in array order, in unordered mode batches come
+ * as they are bound. At most {@link #maxPendingBatches(int)} batches are
+ * scanned ahead of the reader, so memory doesn't depend on the file size.
+ * <pre>
+ * try (ParallelJsonArrayReader&lt;Product&gt; reader = JsonUtils.openParallelJsonArrayReader(file, Product.class, 8)) {
+ *     for (Product product = reader.next(); product != null; product = reader.next()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Like {@link JsonUtils.JsonArrayReader#next()}, {@link #next()} returns null
+ * at the end; use {@link #hasNext()} if the array may contain nulls.
+ */
+public final class ParallelJsonArrayReader<T> implements Closeable {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ParallelJsonArrayReader.class);
+
+	public static final int DEFAULT_BATCH_ELEMENTS = 256;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// a batch is handed over early once its elements have this many chars
+	private static final int MAX_BATCH_CHARS = 1024 * 1024;
+
+	/**
+	 * Receives the elements on the thread that called {@link #forEach}.
+	 */
+	public interface Handler<T> {
+		void handle(T element) throws IOException;
+	}
+
+	// marks the end of the batches in the queue
+	private final Future<List<T>> end = new FutureTask<>(new Callable<List<T>>() {
+		@Override
+		public List<T> call() {
+			return null;
+		}
+	});
+
+	private final Reader reader;
+	private final Type type;
+	private final int threads;
+	private final Gson gson = JsonUtils.getGson();
+	private boolean ordered = true;
+	private int batchElements = DEFAULT_BATCH_ELEMENTS;
+	private int maxPendingBatches;
+
+	private ExecutorService pool;
+	private Thread scanner;
+	private Semaphore pending;
+	private final BlockingQueue<Future<List<T>>> batches = new LinkedBlockingQueue<>();
+	// written by the scanner before it queues the end
+	private volatile long submitted = 0;
+	private volatile Throwable scanFailure;
+	private volatile boolean closed = false;
+	private long taken = 0;
+	private boolean endSeen = false;
+	@Nullable
+	private List<T> current;
+	private int index = 0;
+
+	public ParallelJsonArrayReader(@NotNull File jsonArrayFile, @NotNull Type type, int threads) throws IOException {
+		this(FileUtils.openBufferReader(jsonArrayFile), type, threads);
+	}
+
+	/**
+	 * @param threads number of workers, all cores if 0 or less
+	 */
+	public ParallelJsonArrayReader(@NotNull Reader reader, @NotNull Type type, int threads) {
+		this.reader = reader;
+		this.type = type;
+		this.threads = ConcurrentUtils.threadsOrDefault(threads);
+		this.maxPendingBatches = this.threads * 4;
+	}
+
+	public ParallelJsonArrayReader<T> ordered(boolean ordered) {
+		checkNotStarted();
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * Elements bound by a worker at once, 256 by default.
+	 */
+	public ParallelJsonArrayReader<T> batchElements(int batchElements) {
+		checkNotStarted();
+		if (batchElements <= 0) {
+			throw new IllegalArgumentException("batchElements <= 0");
+		}
+		this.batchElements = batchElements;
+		return this;
+	}
+
+	/**
+	 * Batches scanned, bound or waiting for the reader at once, 4 per worker by default.
+	 */
+	public ParallelJsonArrayReader<T> maxPendingBatches(int maxPendingBatches) {
+		checkNotStarted();
+		if (maxPendingBatches <= 0) {
+			throw new IllegalArgumentException("maxPendingBatches <= 0");
+		}
+		this.maxPendingBatches = maxPendingBatches;
+		return this;
+	}
+
+	private void checkNotStarted() {
+		if (scanner != null) {
+			throw new IllegalStateException("reading has started");
+		}
+	}
+
+	public boolean hasNext() throws IOException {
+		while (current == null || index == current.size()) {
+			current = nextBatch();
+			index = 0;
+			if (current == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next element, null at the end of the array
+	 */
+	@Nullable
+	public T next() throws IOException {
+		return hasNext() ? current.get(index++) : null;
+	}
+
+	/**
+	 * Hands every remaining element to {@code handler} and closes the reader.
+	 */
+	public void forEach(@NotNull Handler<T> handler) throws IOException {
+		try {
+			while (hasNext()) {
+				handler.handle(current.get(index++));
+			}
+		} finally {
+			close();
+		}
+	}
+
+	@NotNull
+	public List<T> readAll() throws IOException {
+		final List<T> result = new ObjectArrayList<>();
+		forEach(new Handler<T>() {
+			@Override
+			public void handle(T element) {
+				result.add(element);
+			}
+		});
+		return result;
+	}
+
+	@Nullable
+	private List<T> nextBatch() throws IOException {
+		if (closed) {
+			throw new IOException("reader is closed");
+		}
+		if (scanner == null) {
+			start();
+		}
+		while (!endSeen || taken < submitted) {
+			Future<List<T>> batch;
+			try {
+				batch = batches.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while reading a JSON array");
+			}
+			if (batch == end) {
+				endSeen = true;
+				if (scanFailure != null) {
+					throw ConcurrentUtils.asIOException(scanFailure);
+				}
+				continue;
+			}
+			taken++;
+			pending.release();
+			return ConcurrentUtils.await(batch);
+		}
+		return null;
+	}
+
+	private void start() {
+		pool = ConcurrentUtils.newFixedPool("json-binder", threads);
+		pending = new Semaphore(maxPendingBatches);
+		final CompletionService<List<T>> completion = ordered ? null
+				: new ExecutorCompletionService<>(pool, batches);
+		scanner = ConcurrentUtils.newThreadFactory("json-scanner").newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan(completion);
+				} catch (Throwable t) {
+					if (!closed) {
+						scanFailure = t;
+					}
+				} finally {
+					batches.add(end);
+				}
+			}
+		});
+		scanner.start();
+	}
+
+	/*
+	 * cuts the array into batches of elements, a comma or bracket at depth 0 ends an element;
+	 * a batch is the text of its elements as a JSON array
+	 */
+	private void scan(CompletionService<List<T>> completion) throws IOException, InterruptedException {
+		char[] buffer = new char[BUFFER_SIZE];
+		StringBuilder batch = new StringBuilder().append('[');
+		int batchSize = 0;
+		boolean inArray = false;
+		boolean inString = false;
+		boolean escaped = false;
+		// whether the current element has more than whitespace
+		boolean content = false;
+		int depth = 0;
+		long elements = 0;
+		long offset = 0;
+		int n;
+		while ((n = reader.read(buffer)) >= 0) {
+			int start = 0;
+			for (int i = 0; i < n; i++) {
+				char c = buffer[i];
+				if (!inArray) {
+					if (c == '[') {
+						inArray = true;
+						start = i + 1;
+					} else if (!Character.isWhitespace(c) && c != '\uFEFF') {
+						throw new IOException("not a JSON array, found '" + c + "' at char " + (offset + i));
+					}
+					continue;
+				}
+				if (inString) {
+					if (escaped) {
+						escaped = false;
+					} else if (c == '\\') {
+						escaped = true;
+					} else if (c == '"') {
+						inString = false;
+					}
+					continue;
+				}
+				switch (c) {
+					case '"':
+						inString = true;
+						content = true;
+						break;
+					case '{':
+					case '[':
+						depth++;
+						content = true;
+						break;
+					case '}':
+					case ']':
+						if (depth > 0) {
+							depth--;
+							break;
+						}
+						if (c == '}') {
+							throw new IOException("unexpected '}' at char " + (offset + i));
+						}
+						// end of the array
+						if (content) {
+							batchSize++;
+							elements++;
+						} else if (elements > 0) {
+							throw new IOException("missing element before char " + (offset + i));
+						}
+						batch.append(buffer, start, i - start).append(']');
+						submit(batch.toString(), batchSize, completion);
+						LOG.debug("Scanned {} elements in {} batches", elements, submitted);
+						return;
+					case ',':
+						if (depth > 0) {
+							break;
+						}
+						if (!content) {
+							throw new IOException("missing element before char " + (offset + i));
+						}
+						content = false;
+						batchSize++;
+						elements++;
+						if (batchSize >= batchElements || batch.length() + i - start >= MAX_BATCH_CHARS) {
+							batch.append(buffer, start, i - start).append(']');
+							submit(batch.toString(), batchSize, completion);
+							batch.setLength(1);
+							batchSize = 0;
+							start = i + 1;
+						}
+						break;
+					default:
+						if (!content && !Character.isWhitespace(c)) {
+							content = true;
+						}
+				}
+			}
+			if (inArray) {
+				batch.append(buffer, start, n - start);
+			}
+			offset += n;
+		}
+		throw new IOException("JSON array ends before ']' at char " + offset);
+	}
+
+	private void submit(final String batch, final int size, CompletionService<List<T>> completion)
+			throws InterruptedException {
+		if (size == 0) {
+			return;
+		}
+		Callable<List<T>> task = new Callable<List<T>>() {
+			@Override
+			public List<T> call() throws IOException {
+				List<T> values = new ObjectArrayList<>(size);
+				JsonReader in = new JsonReader(new StringReader(batch));
+				in.beginArray();
+				while (in.hasNext()) {
+					values.add(gson.<T>fromJson(in, type));
+				}
+				return values;
+			}
+		};
+		pending.acquire();
+		if (completion != null) {
+			completion.submit(task);
+		} else {
+			batches.add(pool.submit(task));
+		}
+		submitted++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (scanner != null) {
+			scanner.interrupt();
+			pool.shutdownNow();
+		}
+		reader.close();
+	}
+}
@@ -0,0 +1,530 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link LineHandler} over every line of a set of files on a pool of
+ * threads.
+ * <p>
+ * Inputs are cut into tasks:
+ * <ul>
+ * <li>uncompressed files into byte ranges of {@link #splitSize(long)} bytes, a
+ * line belongs to the range its first byte is in ({@link LineRangeInputStream});</li>
+ * <li>gzip files with a {@link GzipIndex} sidecar into the splits of the index;</li>
+ * <li>other compressed files can't be split, the calling thread reads them and
+ * hands batches of {@link #batchLines(int)} lines to the workers.</li>
+ * </ul>
+ * Lines written to the {@link Output} go to the sinks, files opened with
+ * {@link FileUtils#openWriter(File)}. In ordered mode (the default) every
+ * task buffers its output and the output of the tasks is written in input
+ * order, so the output lines are in the order of their input lines. In
+ * unordered mode workers flush their output as they go. Lines are decoded as
+ * UTF-8.
+ * <pre>
+ * new ParallelLineProcessor(8).process(input, new ParallelLineProcessor.LineHandler() {
+ *     public void handle(String line, ParallelLineProcessor.Output output) {
+ *         output.write(line.toLowerCase());
+ *     }
+ * }, outputFile);
+ * </pre>
+ */
+public final class ParallelLineProcessor {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ParallelLineProcessor.class);
+
+	public static final long DEFAULT_SPLIT_SIZE = 4L * 1024 * 1024;
+	public static final int DEFAULT_BATCH_LINES = 16 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// unordered workers flush a sink once this many chars are buffered
+	private static final int FLUSH_SIZE = 256 * 1024;
+
+	private final int threads;
+	private boolean ordered = true;
+	private long splitSize = DEFAULT_SPLIT_SIZE;
+	private int batchLines = DEFAULT_BATCH_LINES;
+
+	/**
+	 * @param threads number of workers, all cores if 0 or less
+	 */
+	public ParallelLineProcessor(int threads) {
+		this.threads = ConcurrentUtils.threadsOrDefault(threads);
+	}
+
+	public ParallelLineProcessor ordered(boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	public ParallelLineProcessor splitSize(long splitSize) {
+		if (splitSize <= 0) {
+			throw new IllegalArgumentException("splitSize <= 0");
+		}
+		this.splitSize = splitSize;
+		return this;
+	}
+
+	public ParallelLineProcessor batchLines(int batchLines) {
+		if (batchLines <= 0) {
+			throw new IllegalArgumentException("batchLines <= 0");
+		}
+		this.batchLines = batchLines;
+		return this;
+	}
+
+	public interface LineHandler {
+		/**
+		 * Called concurrently from all workers.
+		 */
+		void handle(@NotNull String line, @NotNull Output output) throws IOException;
+	}
+
+	public interface Output {
+		/**
+		 * Writes a line to the first sink.
+		 */
+		void write(@NotNull String line) throws IOException;
+
+		void write(int sink, @NotNull String line) throws IOException;
+	}
+
+	@NotNull
+	public Stats process(@NotNull File input, @NotNull LineHandler handler, File... sinks) throws IOException {
+		return process(Collections.singletonList(input), handler, sinks);
+	}
+
+	/**
+	 * Processes the lines of all inputs, writing the output lines to {@code sinks}.
+	 */
+	@NotNull
+	public Stats process(@NotNull List<File> inputs, @NotNull LineHandler handler, File... sinks) throws IOException {
+		Stats stats = new Stats(inputs.size());
+		BufferedWriter[] writers = new BufferedWriter[sinks.length];
+		ExecutorService pool = ConcurrentUtils.newFixedPool("line-processor", threads);
+		TaskSource source = new TaskSource(inputs, handler, writers, stats);
+		try {
+			for (int i = 0; i < sinks.length; i++) {
+				writers[i] = FileUtils.openWriter(sinks[i]);
+			}
+			CompletionService<TaskOutput> completion = new ExecutorCompletionService<>(pool);
+			Deque<Future<TaskOutput>> running = new ArrayDeque<>();
+			int maxRunning = threads * 2;
+			for (Task task = source.next(); task != null; task = source.next()) {
+				running.add(ordered ? pool.submit(task) : completion.submit(task));
+				stats.tasks++;
+				if (running.size() >= maxRunning) {
+					finishOne(running, completion);
+				}
+			}
+			while (!running.isEmpty()) {
+				finishOne(running, completion);
+			}
+		} finally {
+			pool.shutdownNow();
+			try {
+				FileUtils.closeAll(source);
+			} finally {
+				FileUtils.closeAll(writers);
+			}
+		}
+		stats.elapsedNanos = System.nanoTime() - stats.startNanos;
+		LOG.info("Processed {}", stats);
+		return stats;
+	}
+
+	private void finishOne(Deque<Future<TaskOutput>> running, CompletionService<TaskOutput> completion)
+			throws IOException {
+		if (ordered) {
+			ConcurrentUtils.await(running.poll()).flush();
+			return;
+		}
+		Future<TaskOutput> done;
+		try {
+			done = completion.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while processing lines");
+		}
+		running.remove(done);
+		ConcurrentUtils.await(done);
+	}
+
+	/**
+	 * Cuts the inputs into tasks one file at a time.
+	 */
+	private final class TaskSource implements Closeable {
+		private final List<File> inputs;
+		private final LineHandler handler;
+		private final Writer[] writers;
+		private final Stats stats;
+		private int fileIndex = 0;
+		private final Deque<Task> splits = new ArrayDeque<>();
+		private BufferedReader unsplittable;
+
+		private TaskSource(List<File> inputs, LineHandler handler, Writer[] writers, Stats stats) {
+			this.inputs = inputs;
+			this.handler = handler;
+			this.writers = writers;
+			this.stats = stats;
+		}
+
+		private Task next() throws IOException {
+			while (true) {
+				if (!splits.isEmpty()) {
+					return splits.poll();
+				}
+				if (unsplittable != null) {
+					List<String> batch = new ObjectArrayList<>(batchLines);
+					for (String line; batch.size() < batchLines && (line = unsplittable.readLine()) != null; ) {
+						batch.add(line);
+					}
+					if (batch.size() == batchLines) {
+						return new BatchTask(this, batch);
+					}
+					unsplittable.close();
+					unsplittable = null;
+					if (!batch.isEmpty()) {
+						return new BatchTask(this, batch);
+					}
+				}
+				if (fileIndex == inputs.size()) {
+					return null;
+				}
+				openFile(inputs.get(fileIndex++));
+			}
+		}
+
+		private void openFile(File file) throws IOException {
+			FileUtils.assertFileExists(file);
+			CompressionCodec codec = CompressionCodecs.detect(file);
+			if (codec == CompressionCodecs.NONE) {
+				long size = file.length();
+				for (long start = 0; start < size; start += splitSize) {
+					splits.add(new RangeTask(this, file, start, Math.min(start + splitSize, size)));
+				}
+				return;
+			}
+			GzipIndex index = codec == CompressionCodecs.GZIP ? GzipIndex.load(file) : null;
+			if (index != null) {
+				int parts = (int) Math.max(1, Math.min(Integer.MAX_VALUE, index.getUncompressedSize() / splitSize));
+				for (GzipIndex.Split split : index.split(parts)) {
+					splits.add(new IndexSplitTask(this, index, split));
+				}
+				return;
+			}
+			unsplittable = new BufferedReader(new InputStreamReader(FileUtils.openInputStream(file),
+					StandardCharsets.UTF_8), BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (unsplittable != null) {
+				unsplittable.close();
+			}
+		}
+	}
+
+	private abstract class Task implements Callable<TaskOutput> {
+		private final TaskSource source;
+
+		private Task(TaskSource source) {
+			this.source = source;
+		}
+
+		/**
+		 * @return number of lines handled
+		 */
+		abstract long handleLines(LineHandler handler, TaskOutput output) throws IOException;
+
+		@Override
+		public TaskOutput call() throws IOException {
+			long start = System.nanoTime();
+			TaskOutput output = new TaskOutput(source.writers, !ordered);
+			long lines = handleLines(source.handler, output);
+			if (!ordered) {
+				output.flush();
+			}
+			source.stats.worker().add(lines, System.nanoTime() - start);
+			return output;
+		}
+	}
+
+	private abstract class ReaderTask extends Task {
+		private ReaderTask(TaskSource source) {
+			super(source);
+		}
+
+		abstract BufferedReader open() throws IOException;
+
+		@Override
+		long handleLines(LineHandler handler, TaskOutput output) throws IOException {
+			long lines = 0;
+			try (BufferedReader reader = open()) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					handler.handle(line, output);
+					lines++;
+				}
+			}
+			return lines;
+		}
+	}
+
+	private final class RangeTask extends ReaderTask {
+		private final File file;
+		private final long start;
+		private final long end;
+
+		private RangeTask(TaskSource source, File file, long start, long end) {
+			super(source);
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		BufferedReader open() throws IOException {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				boolean lineStart = true;
+				if (start > 0) {
+					ByteBuffer previous = ByteBuffer.allocate(1);
+					if (channel.read(previous, start - 1) != 1) {
+						throw new IOException("file was truncated while processing: " + file);
+					}
+					lineStart = previous.get(0) == '\n';
+				}
+				channel.position(start);
+				InputStream in = new LineRangeInputStream(
+						new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE), start, end, lineStart);
+				return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+	}
+
+	private final class IndexSplitTask extends ReaderTask {
+		private final GzipIndex index;
+		private final GzipIndex.Split split;
+
+		private IndexSplitTask(TaskSource source, GzipIndex index, GzipIndex.Split split) {
+			super(source);
+			this.index = index;
+			this.split = split;
+		}
+
+		@Override
+		BufferedReader open() throws IOException {
+			return index.openLineReader(split);
+		}
+	}
+
+	private final class BatchTask extends Task {
+		private final List<String> lines;
+
+		private BatchTask(TaskSource source, List<String> lines) {
+			super(source);
+			this.lines = lines;
+		}
+
+		@Override
+		long handleLines(LineHandler handler, TaskOutput output) throws IOException {
+			for (String line : lines) {
+				handler.handle(line, output);
+			}
+			return lines.size();
+		}
+	}
+
+	/**
+	 * Output of one task, a buffer per sink.
+	 */
+	private static final class TaskOutput implements Output {
+		private final Writer[] writers;
+		private final StringBuilder[] buffers;
+		private final boolean flushEarly;
+
+		private TaskOutput(Writer[] writers, boolean flushEarly) {
+			this.writers = writers;
+			this.buffers = new StringBuilder[writers.length];
+			this.flushEarly = flushEarly;
+		}
+
+		@Override
+		public void write(@NotNull String line) throws IOException {
+			write(0, line);
+		}
+
+		@Override
+		public void write(int sink, @NotNull String line) throws IOException {
+			if (sink < 0 || sink >= buffers.length) {
+				throw new IllegalArgumentException("No sink " + sink + ", there are " + buffers.length);
+			}
+			StringBuilder buffer = buffers[sink];
+			if (buffer == null) {
+				buffer = buffers[sink] = new StringBuilder();
+			}
+			buffer.append(line).append('\n');
+			if (flushEarly && buffer.length() >= FLUSH_SIZE) {
+				flush(sink);
+			}
+		}
+
+		private void flush() throws IOException {
+			for (int sink = 0; sink < buffers.length; sink++) {
+				flush(sink);
+			}
+		}
+
+		private void flush(int sink) throws IOException {
+			StringBuilder buffer = buffers[sink];
+			if (buffer == null || buffer.length() == 0) {
+				return;
+			}
+			Writer writer = writers[sink];
+			synchronized (writer) {
+				writer.append(buffer);
+			}
+			buffer.setLength(0);
+		}
+	}
+
+	/**
+	 * Totals of a run and of every worker thread.
+	 */
+	public static final class Stats {
+		private final long startNanos = System.nanoTime();
+		private final int files;
+		private final Map<String, WorkerStats> workers = new ConcurrentHashMap<>();
+		private long tasks = 0;
+		private long elapsedNanos;
+
+		private Stats(int files) {
+			this.files = files;
+		}
+
+		private WorkerStats worker() {
+			String name = Thread.currentThread().getName();
+			WorkerStats worker = workers.get(name);
+			if (worker == null) {
+				worker = new WorkerStats(name);
+				workers.put(name, worker);
+			}
+			return worker;
+		}
+
+		public int getFiles() {
+			return files;
+		}
+
+		public long getTasks() {
+			return tasks;
+		}
+
+		public long getLines() {
+			long lines = 0;
+			for (WorkerStats worker : workers.values()) {
+				lines += worker.getLines();
+			}
+			return lines;
+		}
+
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		}
+
+		@NotNull
+		public List<WorkerStats> getWorkers() {
+			List<WorkerStats> list = new ArrayList<>(workers.values());
+			Collections.sort(list, new Comparator<WorkerStats>() {
+				@Override
+				public int compare(WorkerStats o1, WorkerStats o2) {
+					return o1.name.compareTo(o2.name);
+				}
+			});
+			return list;
+		}
+
+		@Override
+		public String toString() {
+			long lines = getLines();
+			return String.format("%d lines of %d files in %d tasks on %d workers, %.1f s: %.0f lines/s",
+					lines, files, tasks, workers.size(), elapsedNanos / 1e9,
+					elapsedNanos > 0 ? lines * 1e9 / elapsedNanos : 0.0);
+		}
+	}
+
+	/**
+	 * Counters of one worker thread, only updated by that thread.
+	 */
+	public static final class WorkerStats {
+		private final String name;
+		private volatile long tasks = 0;
+		private volatile long lines = 0;
+		private volatile long busyNanos = 0;
+
+		private WorkerStats(String name) {
+			this.name = name;
+		}
+
+		private void add(long lines, long nanos) {
+			this.tasks++;
+			this.lines += lines;
+			this.busyNanos += nanos;
+		}
+
+		@NotNull
+		public String getName() {
+			return name;
+		}
+
+		public long getTasks() {
+			return tasks;
+		}
+
+		public long getLines() {
+			return lines;
+		}
+
+		public long getBusyMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(busyNanos);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d lines in %d tasks, busy %.1f s", name, lines, tasks, busyNanos / 1e9);
+		}
+	}
+}
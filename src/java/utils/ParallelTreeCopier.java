@@ -0,0 +1,180 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies a directory tree with a pool of threads.
+ * <p>
+ * The calling thread walks the source tree and creates the directories, file
+ * copies are handed to the pool. At most {@code threads * 4} copies are
+ * queued, so the walk never runs far ahead of the copies. The first failure
+ * stops the walk and is rethrown once the running copies are done.
+ */
+public final class ParallelTreeCopier {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(ParallelTreeCopier.class);
+
+	private static final int QUEUED_PER_THREAD = 4;
+
+	private final int threads;
+	private final boolean link;
+
+	/**
+	 * @param threads number of copying threads, all cores if 0 or less
+	 * @param link    whether to hard link files and copy only those that can't be linked
+	 */
+	public ParallelTreeCopier(int threads, boolean link) {
+		this.threads = ConcurrentUtils.threadsOrDefault(threads);
+		this.link = link;
+	}
+
+	/**
+	 * Copies {@code from} (a file or a directory) to {@code to}. Existing
+	 * files under {@code to} are overwritten.
+	 */
+	@NotNull
+	public CopyStats copy(@NotNull File from, @NotNull File to) throws IOException {
+		CopyStats stats = new CopyStats();
+		ExecutorService pool = ConcurrentUtils.newFixedPool("tree-copy", threads);
+		int maxQueued = threads * QUEUED_PER_THREAD;
+		Semaphore queued = new Semaphore(maxQueued);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			Deque<File[]> stack = new ArrayDeque<>();
+			stack.push(new File[]{from, to});
+			while (!stack.isEmpty() && failure.get() == null) {
+				File[] pair = stack.pop();
+				File source = pair[0];
+				File target = pair[1];
+				if (source.isDirectory()) {
+					FileUtils.mkdirs(target);
+					stats.directories.incrementAndGet();
+					File[] children = source.listFiles();
+					if (children != null) {
+						for (File child : children) {
+							stack.push(new File[]{child, new File(target, child.getName())});
+						}
+					}
+				} else {
+					acquire(queued, 1);
+					pool.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								if (failure.get() == null) {
+									copyFile(source, target, stats);
+								}
+							} catch (Throwable t) {
+								failure.compareAndSet(null, t);
+							} finally {
+								queued.release();
+							}
+						}
+					});
+				}
+			}
+			// all permits are back once every copy is done
+			acquire(queued, maxQueued);
+		} finally {
+			pool.shutdownNow();
+		}
+		if (failure.get() != null) {
+			throw ConcurrentUtils.asIOException(failure.get());
+		}
+		stats.elapsedNanos = System.nanoTime() - stats.startNanos;
+		LOG.info("Copied {} to {}: {}", new Object[]{from, to, stats});
+		return stats;
+	}
+
+	private void copyFile(File from, File to, CopyStats stats) throws IOException {
+		long length = from.length();
+		if (link) {
+			try {
+				Files.createLink(to.toPath(), from.toPath());
+				stats.links.incrementAndGet();
+				stats.files.incrementAndGet();
+				return;
+			} catch (IOException ignore) {
+				// other file system or the target exists, copy it
+			}
+		}
+		FileUtils.transferFile(from, to);
+		stats.files.incrementAndGet();
+		stats.bytes.addAndGet(length);
+	}
+
+	private static void acquire(Semaphore semaphore, int permits) throws InterruptedIOException {
+		try {
+			semaphore.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while copying");
+		}
+	}
+
+	/**
+	 * Counters of a tree copy. Linked files count as files but not as copied bytes.
+	 */
+	public static final class CopyStats {
+		private final long startNanos = System.nanoTime();
+		private final AtomicLong files = new AtomicLong();
+		private final AtomicLong links = new AtomicLong();
+		private final AtomicLong directories = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private volatile long elapsedNanos;
+
+		CopyStats() {
+		}
+
+		public long getFiles() {
+			return files.get();
+		}
+
+		public long getLinks() {
+			return links.get();
+		}
+
+		public long getDirectories() {
+			return directories.get();
+		}
+
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		}
+
+		public double getFilesPerSecond() {
+			return perSecond(getFiles());
+		}
+
+		public double getBytesPerSecond() {
+			return perSecond(getBytes());
+		}
+
+		private double perSecond(long count) {
+			return elapsedNanos > 0 ? count * 1e9 / elapsedNanos : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files (%d linked), %d directories, %.1f MB in %.1f s: %.0f files/s, %.1f MB/s",
+					getFiles(), getLinks(), getDirectories(), getBytes() / 1048576.0, elapsedNanos / 1e9,
+					getFilesPerSecond(), getBytesPerSecond() / 1048576.0);
+		}
+	}
+}
@@ -0,0 +1,518 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file whose entries are deflated on a pool of threads.
+ * <p>
+ * Every entry is deflated with its CRC computed into a memory buffer, or a
+ * spill file next to the zip once it grows past {@link #setSpillThreshold}.
+ * Entries are written in the order they were added, a few are compressed
+ * ahead of the writer. Already compressed inputs (.gz, .jpg, ...) and entries
+ * deflate can't shrink are STORED: their bytes are copied as they are, never
+ * decompressed. Zip64 records are written when an archive needs them.
+ */
+public final class ParallelZipWriter implements Closeable {
+
+	public static final long DEFAULT_SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"zip", "gz", "tgz", "bz2", "xz", "lz4", "snappy", "zst", "7z", "rar",
+			"jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "avi", "wmv", "pdf", "docx", "xlsx", "pptx"));
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final int ZIP64_EXTRA = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+	// names are UTF-8
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+
+	public enum Mode {
+		/**
+		 * Stores inputs with a compressed extension, deflates the others.
+		 */
+		AUTO,
+		DEFLATED,
+		STORED
+	}
+
+	private final File zipFile;
+	private final FileChannel out;
+	private final ExecutorService pool;
+	private final int maxPending;
+	private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+	private final List<Entry> written = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+	private boolean closed = false;
+
+	/**
+	 * @param threads number of compressing threads, all cores if 0 or less
+	 */
+	public ParallelZipWriter(@NotNull File zipFile, int threads) throws IOException {
+		this.zipFile = zipFile.getAbsoluteFile();
+		int poolSize = ConcurrentUtils.threadsOrDefault(threads);
+		this.out = FileChannel.open(zipFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.pool = ConcurrentUtils.newFixedPool("zip-writer", poolSize);
+		this.maxPending = poolSize * 2;
+	}
+
+	public ParallelZipWriter setLevel(int level) {
+		this.level = level;
+		return this;
+	}
+
+	/**
+	 * Compressed entries bigger than this are buffered in a spill file
+	 * instead of memory.
+	 */
+	public ParallelZipWriter setSpillThreshold(long spillThreshold) {
+		this.spillThreshold = spillThreshold;
+		return this;
+	}
+
+	public void addFile(@NotNull File file) throws IOException {
+		addFile(file, file.getName(), Mode.AUTO);
+	}
+
+	/**
+	 * Adds a file as {@code name}. The file is read as is, a .gz input ends up
+	 * as a .gz entry.
+	 */
+	public void addFile(@NotNull File file, @NotNull String name, @NotNull Mode mode) throws IOException {
+		if (closed) {
+			throw new IOException("Zip writer closed");
+		}
+		if (!names.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+		FileUtils.assertFileExists(file);
+		boolean store = mode == Mode.STORED || mode == Mode.AUTO && isCompressed(file);
+		pending.add(pool.submit(new EntryTask(file, name, store)));
+		while (pending.size() > maxPending) {
+			writeEntry(ConcurrentUtils.await(pending.poll()));
+		}
+	}
+
+	/**
+	 * Writes the pending entries and the central directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			while (!pending.isEmpty()) {
+				writeEntry(ConcurrentUtils.await(pending.poll()));
+			}
+			writeCentralDirectory();
+		} finally {
+			for (Runnable queued : pool.shutdownNow()) {
+				((Future<?>) queued).cancel(false);
+			}
+			// entries of a failed archive may still hold spill files
+			for (Future<Entry> future : pending) {
+				try {
+					future.get().release();
+				} catch (Exception ignore) {
+					// failed or cancelled task, nothing to release
+				}
+			}
+			out.close();
+		}
+	}
+
+	private static boolean isCompressed(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	private void writeEntry(Entry entry) throws IOException {
+		try {
+			entry.offset = out.position();
+			byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+			boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+			ByteBuffer header = newBuffer(30 + name.length + (zip64 ? 20 : 0));
+			header.putInt(LOCAL_HEADER);
+			header.putShort((short) (zip64 ? 45 : 20));
+			header.putShort((short) FLAG_UTF8);
+			header.putShort((short) entry.method);
+			header.putInt(entry.dosTime);
+			header.putInt((int) entry.crc);
+			header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize));
+			header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.size));
+			header.putShort((short) name.length);
+			header.putShort((short) (zip64 ? 20 : 0));
+			header.put(name);
+			if (zip64) {
+				header.putShort((short) ZIP64_EXTRA);
+				header.putShort((short) 16);
+				header.putLong(entry.size);
+				header.putLong(entry.compressedSize);
+			}
+			writeFully(header);
+			entry.writeData(out);
+			written.add(entry);
+		} finally {
+			entry.release();
+		}
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		long start = out.position();
+		// headers are batched, archives may have millions of them
+		ByteBuffer batch = newBuffer(BUFFER_SIZE);
+		for (Entry entry : written) {
+			byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+			boolean bigSize = entry.size >= ZIP64_MAGIC;
+			boolean bigCompressed = entry.compressedSize >= ZIP64_MAGIC;
+			boolean bigOffset = entry.offset >= ZIP64_MAGIC;
+			int extra = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+			boolean zip64 = extra > 0;
+			ByteBuffer header = newBuffer(46 + name.length + (zip64 ? extra + 4 : 0));
+			header.putInt(CENTRAL_HEADER);
+			header.putShort((short) 45);
+			header.putShort((short) (zip64 ? 45 : 20));
+			header.putShort((short) FLAG_UTF8);
+			header.putShort((short) entry.method);
+			header.putInt(entry.dosTime);
+			header.putInt((int) entry.crc);
+			header.putInt((int) (bigCompressed ? ZIP64_MAGIC : entry.compressedSize));
+			header.putInt((int) (bigSize ? ZIP64_MAGIC : entry.size));
+			header.putShort((short) name.length);
+			header.putShort((short) (zip64 ? extra + 4 : 0));
+			// comment length, disk number, internal and external attributes
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putInt(0);
+			header.putInt((int) (bigOffset ? ZIP64_MAGIC : entry.offset));
+			header.put(name);
+			if (zip64) {
+				header.putShort((short) ZIP64_EXTRA);
+				header.putShort((short) extra);
+				if (bigSize) {
+					header.putLong(entry.size);
+				}
+				if (bigCompressed) {
+					header.putLong(entry.compressedSize);
+				}
+				if (bigOffset) {
+					header.putLong(entry.offset);
+				}
+			}
+			header.flip();
+			if (header.remaining() > batch.remaining()) {
+				writeFully(batch);
+				batch.clear();
+			}
+			if (header.remaining() > batch.remaining()) {
+				header.compact();
+				writeFully(header);
+			} else {
+				batch.put(header);
+			}
+		}
+		writeFully(batch);
+		long end = out.position();
+		long size = end - start;
+		int count = written.size();
+		boolean zip64 = count >= ZIP64_MAGIC_COUNT || start >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+		if (zip64) {
+			ByteBuffer record = newBuffer(56 + 20);
+			record.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+			record.putLong(44);
+			record.putShort((short) 45);
+			record.putShort((short) 45);
+			record.putInt(0);
+			record.putInt(0);
+			record.putLong(count);
+			record.putLong(count);
+			record.putLong(size);
+			record.putLong(start);
+			record.putInt(ZIP64_LOCATOR);
+			record.putInt(0);
+			record.putLong(end);
+			record.putInt(1);
+			writeFully(record);
+		}
+		ByteBuffer record = newBuffer(22);
+		record.putInt(END_OF_CENTRAL_DIRECTORY);
+		record.putShort((short) 0);
+		record.putShort((short) 0);
+		record.putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : count));
+		record.putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : count));
+		record.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+		record.putInt((int) (zip64 ? ZIP64_MAGIC : start));
+		record.putShort((short) 0);
+		writeFully(record);
+	}
+
+	private static ByteBuffer newBuffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	private static int dosTime(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	/**
+	 * Computes the CRC of an input and, unless it is stored, deflates it.
+	 */
+	private final class EntryTask implements Callable<Entry> {
+		private final File file;
+		private final String name;
+		private final boolean store;
+
+		private EntryTask(File file, String name, boolean store) {
+			this.file = file;
+			this.name = name;
+			this.store = store;
+		}
+
+		@Override
+		public Entry call() throws IOException {
+			Entry entry = new Entry(file, name, dosTime(file.lastModified()));
+			byte[] buffer = BufferPool.shared().takeBytes(BUFFER_SIZE);
+			try {
+				return store ? store(entry, buffer) : deflate(entry, buffer);
+			} finally {
+				BufferPool.shared().release(buffer);
+			}
+		}
+
+		private Entry store(Entry entry, byte[] buffer) throws IOException {
+			CRC32 crc = new CRC32();
+			try (InputStream in = new FileInputStream(file)) {
+				for (int n; (n = in.read(buffer)) > 0; ) {
+					crc.update(buffer, 0, n);
+					entry.size += n;
+				}
+			}
+			entry.stored(crc.getValue());
+			return entry;
+		}
+
+		private Entry deflate(Entry entry, byte[] buffer) throws IOException {
+			CRC32 crc = new CRC32();
+			Deflater deflater = new Deflater(level, true);
+			SpillBuffer data = new SpillBuffer();
+			byte[] deflated = BufferPool.shared().takeBytes(BUFFER_SIZE);
+			try (InputStream in = new FileInputStream(file)) {
+				for (int n; (n = in.read(buffer)) > 0; ) {
+					crc.update(buffer, 0, n);
+					entry.size += n;
+					deflater.setInput(buffer, 0, n);
+					while (!deflater.needsInput()) {
+						data.write(deflated, 0, deflater.deflate(deflated));
+					}
+				}
+				deflater.finish();
+				while (!deflater.finished()) {
+					data.write(deflated, 0, deflater.deflate(deflated));
+				}
+				data.close();
+			} catch (IOException | RuntimeException e) {
+				data.release();
+				throw e;
+			} finally {
+				deflater.end();
+				BufferPool.shared().release(deflated);
+			}
+			if (data.size() >= entry.size) {
+				// incompressible, like zip tools store it
+				data.release();
+				entry.stored(crc.getValue());
+			} else {
+				entry.deflated(crc.getValue(), data);
+			}
+			return entry;
+		}
+	}
+
+	private static final class Entry {
+		private final File file;
+		private final String name;
+		private final int dosTime;
+		private int method;
+		private long crc;
+		private long size = 0;
+		private long compressedSize;
+		private long offset;
+		private SpillBuffer data;
+
+		private Entry(File file, String name, int dosTime) {
+			this.file = file;
+			this.name = name;
+			this.dosTime = dosTime;
+		}
+
+		private void stored(long crc) {
+			this.method = METHOD_STORED;
+			this.crc = crc;
+			this.compressedSize = size;
+		}
+
+		private void deflated(long crc, SpillBuffer data) {
+			this.method = METHOD_DEFLATED;
+			this.crc = crc;
+			this.data = data;
+			this.compressedSize = data.size();
+		}
+
+		private void writeData(FileChannel out) throws IOException {
+			if (data != null) {
+				data.writeTo(out);
+				return;
+			}
+			try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				if (in.size() != size) {
+					throw new IOException("File changed while zipping: " + file);
+				}
+				transfer(in, out, size);
+			}
+		}
+
+		private void release() {
+			if (data != null) {
+				data.release();
+			}
+		}
+	}
+
+	private static void transfer(FileChannel in, FileChannel out, long size) throws IOException {
+		for (long position = 0; position < size; ) {
+			long n = in.transferTo(position, size - position, out);
+			if (n <= 0) {
+				throw new IOException("File truncated while zipping");
+			}
+			position += n;
+		}
+	}
+
+	/**
+	 * Keeps compressed bytes in memory up to the spill threshold, then in a
+	 * temporary file next to the zip.
+	 */
+	private final class SpillBuffer extends OutputStream {
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream(BUFFER_SIZE);
+		private File spillFile;
+		private OutputStream spill;
+		private long size = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(@NotNull byte[] b, int off, int len) throws IOException {
+			if (spill == null && size + len > spillThreshold) {
+				spillFile = File.createTempFile(zipFile.getName() + ".", ".spill", zipFile.getParentFile());
+				spill = new FileOutputStream(spillFile);
+				memory.writeTo(spill);
+				memory = null;
+			}
+			if (spill != null) {
+				spill.write(b, off, len);
+			} else {
+				memory.write(b, off, len);
+			}
+			size += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (spill != null) {
+				spill.close();
+			}
+		}
+
+		private long size() {
+			return size;
+		}
+
+		private void writeTo(FileChannel out) throws IOException {
+			if (spillFile == null) {
+				memory.writeTo(Channels.newOutputStream(out));
+				return;
+			}
+			try (FileChannel in = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ)) {
+				transfer(in, out, size);
+			}
+		}
+
+		private void release() {
+			memory = null;
+			if (spillFile != null) {
+				try {
+					FileUtils.closeAll(spill);
+				} catch (IOException ignore) {
+					// deleted anyway
+				}
+				if (!spillFile.delete() && spillFile.exists()) {
+					spillFile.deleteOnExit();
+				}
+				spillFile = null;
+			}
+		}
+	}
+}
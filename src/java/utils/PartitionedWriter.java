@@ -0,0 +1,307 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Splits lines into a fixed number of files by the hash of a key, or by the
+ * partition the caller gives with every line.
+ * <p>
+ * Lines are buffered in chunks taken from a pool shared by all partitions,
+ * so the memory used doesn't grow with the number of partitions. When the
+ * pool runs out, the partitions holding the most chunks are written until
+ * half of the pool is free again. At most {@link #maxOpenFiles(int)} files
+ * are open at once; the least recently written one is closed to open another
+ * and reopened in append mode later (compressed files then hold several
+ * concatenated streams, which {@link FileUtils#openInputStream(File)} reads
+ * as one).
+ * <p>
+ * Partition {@code i} is written to {@code directory/prefix + i + suffix},
+ * e.g. "part-00042.gz", compressed according to the suffix. Every partition
+ * file is created, even an empty one. Not thread-safe.
+ */
+public final class PartitionedWriter implements Closeable {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(PartitionedWriter.class);
+
+	public static final int DEFAULT_MAX_OPEN_FILES = 64;
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+	private static final int CHUNK_SIZE = 8 * 1024;
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Extracts the key a line is partitioned by.
+	 */
+	public interface KeyExtractor {
+		@NotNull
+		String getKey(@NotNull String line);
+	}
+
+	private final File[] files;
+	@Nullable
+	private final KeyExtractor keys;
+	private final CompressionCodec codec;
+	private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+	@NotNull
+	private final Partition[] partitions;
+	private final List<char[]> freeChunks = new ObjectArrayList<>();
+	private int allocatedChunks = 0;
+	private int maxChunks = -1;
+	// open writers, in order of last use
+	private final LinkedHashMap<Integer, Writer> open = new LinkedHashMap<>(16, 0.75f, true);
+	private final BitSet created = new BitSet();
+	private long lines = 0;
+	private long opens = 0;
+	private long batches = 0;
+	private boolean closed = false;
+
+	public PartitionedWriter(@NotNull File directory, @NotNull String prefix, @NotNull String suffix, int partitions,
+							 @NotNull KeyExtractor keys) throws IOException {
+		this(keys, directory, prefix, suffix, partitions);
+	}
+
+	/**
+	 * A writer whose lines are written with {@link #write(String, int)}.
+	 */
+	public PartitionedWriter(@NotNull File directory, @NotNull String prefix, @NotNull String suffix, int partitions)
+			throws IOException {
+		this(null, directory, prefix, suffix, partitions);
+	}
+
+	private PartitionedWriter(@Nullable KeyExtractor keys, File directory, String prefix, String suffix,
+							  int partitions) throws IOException {
+		if (partitions <= 0) {
+			throw new IllegalArgumentException("partitions <= 0");
+		}
+		FileUtils.mkdirs(directory);
+		this.files = new File[partitions];
+		int digits = Math.max(5, String.valueOf(partitions - 1).length());
+		for (int i = 0; i < partitions; i++) {
+			files[i] = new File(directory, prefix + String.format("%0" + digits + "d", i) + suffix);
+		}
+		this.keys = keys;
+		this.codec = CompressionCodecs.forFile(files[0]);
+		this.partitions = new Partition[partitions];
+		for (int i = 0; i < partitions; i++) {
+			this.partitions[i] = new Partition(i);
+		}
+	}
+
+	/**
+	 * At most this many partition files are open at once, 64 by default.
+	 */
+	public PartitionedWriter maxOpenFiles(int maxOpenFiles) {
+		if (maxOpenFiles <= 0) {
+			throw new IllegalArgumentException("maxOpenFiles <= 0");
+		}
+		this.maxOpenFiles = maxOpenFiles;
+		return this;
+	}
+
+	/**
+	 * Bytes of chunks all partitions share, 64MB by default.
+	 */
+	public PartitionedWriter memoryBudget(long memoryBudget) {
+		if (memoryBudget < 2 * CHUNK_SIZE * 2) {
+			throw new IllegalArgumentException("memoryBudget too small");
+		}
+		if (maxChunks >= 0) {
+			throw new IllegalStateException("memoryBudget after the first line");
+		}
+		this.memoryBudget = memoryBudget;
+		return this;
+	}
+
+	@NotNull
+	public File getFile(int partition) {
+		return files[partition];
+	}
+
+	public int getPartition(@NotNull String line) {
+		if (keys == null) {
+			throw new IllegalStateException("No key extractor, the partition is given with every line");
+		}
+		return (keys.getKey(line).hashCode() & Integer.MAX_VALUE) % partitions.length;
+	}
+
+	public void write(@NotNull String line) throws IOException {
+		write(line, getPartition(line));
+	}
+
+	/**
+	 * Writes a line into a partition chosen by the caller, e.g. from a hash it already has.
+	 */
+	public void write(@NotNull String line, int partition) throws IOException {
+		if (partition < 0 || partition >= partitions.length) {
+			throw new IndexOutOfBoundsException("partition " + partition + " of " + partitions.length);
+		}
+		if (closed) {
+			throw new IOException("Writer closed");
+		}
+		if (maxChunks < 0) {
+			// a char takes two bytes
+			maxChunks = (int) Math.min(Integer.MAX_VALUE, memoryBudget / (CHUNK_SIZE * 2));
+		}
+		Partition target = partitions[partition];
+		target.append(line, 0, line.length());
+		target.append("\n", 0, 1);
+		lines++;
+	}
+
+	/**
+	 * Partitions all lines of a file.
+	 */
+	public void writeAll(@NotNull File input) throws IOException {
+		try (LineCursor cursor = LineCursor.open(input)) {
+			while (cursor.next()) {
+				write(cursor.string());
+			}
+		}
+	}
+
+	@NotNull
+	private char[] takeChunk() throws IOException {
+		if (freeChunks.isEmpty()) {
+			if (allocatedChunks < maxChunks) {
+				allocatedChunks++;
+				return new char[CHUNK_SIZE];
+			}
+			flushBatch();
+		}
+		return freeChunks.remove(freeChunks.size() - 1);
+	}
+
+	/*
+	 * writes the partitions holding the most chunks until half of the pool is free
+	 */
+	private void flushBatch() throws IOException {
+		Partition[] byChunks = partitions.clone();
+		Arrays.sort(byChunks, new Comparator<Partition>() {
+			@Override
+			public int compare(Partition o1, Partition o2) {
+				int compare = Integer.compare(o2.chunks.size(), o1.chunks.size());
+				// among equally big ones, open files are cheaper to write
+				return compare != 0 ? compare : Boolean.compare(open.containsKey(o2.index), open.containsKey(o1.index));
+			}
+		});
+		for (Partition partition : byChunks) {
+			if (freeChunks.size() >= allocatedChunks / 2 || partition.chunks.isEmpty()) {
+				break;
+			}
+			partition.flush();
+		}
+		batches++;
+	}
+
+	@NotNull
+	private Writer writer(int partition) throws IOException {
+		Writer writer = open.get(partition);
+		if (writer != null) {
+			return writer;
+		}
+		if (open.size() >= maxOpenFiles) {
+			Iterator<Writer> eldest = open.values().iterator();
+			Writer closing = eldest.next();
+			eldest.remove();
+			closing.close();
+		}
+		boolean append = created.get(partition);
+		writer = new OutputStreamWriter(codec.openOutputStream(new BufferedOutputStream(
+				new FileOutputStream(files[partition], append), STREAM_BUFFER_SIZE)), StandardCharsets.UTF_8);
+		created.set(partition);
+		open.put(partition, writer);
+		opens++;
+		return writer;
+	}
+
+	/**
+	 * Writes all buffered lines.
+	 */
+	public void flush() throws IOException {
+		for (Partition partition : partitions) {
+			partition.flush();
+		}
+		for (Writer writer : open.values()) {
+			writer.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			for (int i = created.nextClearBit(0); i < partitions.length; i = created.nextClearBit(i + 1)) {
+				// an empty file still holds a valid (empty) compressed stream
+				writer(i);
+			}
+		} finally {
+			for (Writer writer : open.values()) {
+				FileUtils.closeAll(writer);
+			}
+			open.clear();
+		}
+		LOG.info("Wrote {} lines into {} partitions, {} file opens, {} batches", new Object[]{lines,
+				partitions.length, opens, batches});
+	}
+
+	private final class Partition {
+		private final int index;
+		private final List<char[]> chunks = new ObjectArrayList<>();
+		// chars used in the last chunk
+		private int used = CHUNK_SIZE;
+
+		private Partition(int index) {
+			this.index = index;
+		}
+
+		private void append(String s, int off, int len) throws IOException {
+			while (len > 0) {
+				if (used == CHUNK_SIZE) {
+					char[] chunk = takeChunk();
+					chunks.add(chunk);
+					used = 0;
+				}
+				int n = Math.min(len, CHUNK_SIZE - used);
+				s.getChars(off, off + n, chunks.get(chunks.size() - 1), used);
+				used += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void flush() throws IOException {
+			if (chunks.isEmpty()) {
+				return;
+			}
+			Writer writer = writer(index);
+			for (int i = 0, last = chunks.size() - 1; i <= last; i++) {
+				writer.write(chunks.get(i), 0, i == last ? used : CHUNK_SIZE);
+			}
+			freeChunks.addAll(chunks);
+			chunks.clear();
+			used = CHUNK_SIZE;
+		}
+	}
+}
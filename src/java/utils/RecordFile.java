@@ -0,0 +1,255 @@
+package utils;
+
+import org.iq80.snappy.Snappy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A splittable file of key/value records in compressed blocks, written by
+ * {@link RecordFileWriter} and read by {@link RecordFileReader}.
+ * <p>
+ * Layout:
+ * <pre>
+ * header: "BREC", version, compression, 16 bytes sync marker
+ * block:  sync marker, records (varint &gt; 0), raw length (varint), stored length (varint), stored bytes
+ * footer: sync marker, 0 (varint), records (varint), blocks (varint), key range, footer offset (8 bytes), "BEND"
+ * </pre>
+ * A record in a block is a varint key length, the key, a varint value length
+ * and the value. The sync marker is random per file, so a reader can start at
+ * any offset by looking for it. The CRC-32C of the stored bytes of every block
+ * is kept in {@link FileUtils#getSequenceFileCrcFile(File)} next to the file.
+ * Keys in the key range compare as unsigned bytes.
+ */
+public final class RecordFile {
+
+	static final byte[] MAGIC = {'B', 'R', 'E', 'C'};
+	static final byte[] END_MAGIC = {'B', 'E', 'N', 'D'};
+	static final byte[] CRC_MAGIC = {'B', 'C', 'R', 'C'};
+	static final int VERSION = 1;
+	static final int SYNC_SIZE = 16;
+	static final int HEADER_SIZE = MAGIC.length + 2 + SYNC_SIZE;
+	// footer offset and end magic
+	static final int TRAILER_SIZE = 8 + END_MAGIC.length;
+
+	private RecordFile() {
+	}
+
+	public enum Compression {
+		NONE {
+			@Override
+			byte[] compress(byte[] raw, int length) {
+				return Arrays.copyOf(raw, length);
+			}
+
+			@Override
+			void uncompress(byte[] stored, int storedLength, byte[] raw, int rawLength) throws IOException {
+				if (storedLength != rawLength) {
+					throw new IOException("corrupted block: " + storedLength + " != " + rawLength);
+				}
+				System.arraycopy(stored, 0, raw, 0, rawLength);
+			}
+		},
+		SNAPPY {
+			@Override
+			byte[] compress(byte[] raw, int length) {
+				byte[] compressed = new byte[Snappy.maxCompressedLength(length)];
+				int n = Snappy.compress(raw, 0, length, compressed, 0);
+				return Arrays.copyOf(compressed, n);
+			}
+
+			@Override
+			void uncompress(byte[] stored, int storedLength, byte[] raw, int rawLength) throws IOException {
+				if (Snappy.getUncompressedLength(stored, 0) != rawLength) {
+					throw new IOException("corrupted block: unexpected uncompressed length");
+				}
+				Snappy.uncompress(stored, 0, storedLength, raw, 0);
+			}
+		},
+		GZIP {
+			@Override
+			byte[] compress(byte[] raw, int length) throws IOException {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 3));
+				try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+					gzip.write(raw, 0, length);
+				}
+				return out.toByteArray();
+			}
+
+			@Override
+			void uncompress(byte[] stored, int storedLength, byte[] raw, int rawLength) throws IOException {
+				try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+						new ByteArrayInputStream(stored, 0, storedLength)))) {
+					in.readFully(raw, 0, rawLength);
+				}
+			}
+		};
+
+		abstract byte[] compress(byte[] raw, int length) throws IOException;
+
+		abstract void uncompress(byte[] stored, int storedLength, byte[] raw, int rawLength) throws IOException;
+	}
+
+	/**
+	 * Totals of a complete file, see {@link #readFooter(File)}.
+	 */
+	public static final class Footer {
+		private final long records;
+		private final long blocks;
+		@Nullable
+		private final byte[] minKey;
+		@Nullable
+		private final byte[] maxKey;
+
+		Footer(long records, long blocks, @Nullable byte[] minKey, @Nullable byte[] maxKey) {
+			this.records = records;
+			this.blocks = blocks;
+			this.minKey = minKey;
+			this.maxKey = maxKey;
+		}
+
+		public long getRecords() {
+			return records;
+		}
+
+		public long getBlocks() {
+			return blocks;
+		}
+
+		/**
+		 * Smallest key, null for a file without records.
+		 */
+		@Nullable
+		public byte[] getMinKey() {
+			return minKey;
+		}
+
+		@Nullable
+		public byte[] getMaxKey() {
+			return maxKey;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("records %d, blocks %d, keys [%s, %s]", records, blocks,
+					minKey == null ? "" : new String(minKey, StandardCharsets.UTF_8),
+					maxKey == null ? "" : new String(maxKey, StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Reads the footer from the end of the file, without reading the blocks.
+	 *
+	 * @throws IOException if the file isn't a complete record file
+	 */
+	@NotNull
+	public static Footer readFooter(@NotNull File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			long length = raf.length();
+			if (length < HEADER_SIZE + TRAILER_SIZE) {
+				throw new IOException("Not a record file or not closed: " + file);
+			}
+			raf.seek(length - TRAILER_SIZE);
+			long offset = raf.readLong();
+			byte[] end = new byte[END_MAGIC.length];
+			raf.readFully(end);
+			if (!Arrays.equals(end, END_MAGIC) || offset < HEADER_SIZE || offset >= length - TRAILER_SIZE) {
+				throw new IOException("Not a record file or not closed: " + file);
+			}
+			byte[] footer = new byte[(int) (length - TRAILER_SIZE - offset)];
+			raf.seek(offset);
+			raf.readFully(footer);
+			InputStream in = new ByteArrayInputStream(footer, SYNC_SIZE, footer.length - SYNC_SIZE);
+			if (readVarLong(in) != 0) {
+				throw new IOException("Corrupted footer: " + file);
+			}
+			return readFooterBody(in);
+		}
+	}
+
+	static Footer readFooterBody(InputStream in) throws IOException {
+		long records = readVarLong(in);
+		long blocks = readVarLong(in);
+		byte[] minKey = null;
+		byte[] maxKey = null;
+		if (records > 0) {
+			minKey = readBytes(in);
+			maxKey = readBytes(in);
+		}
+		return new Footer(records, blocks, minKey, maxKey);
+	}
+
+	static void writeVarLong(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * @return the next position in {@code buffer}
+	 */
+	static int writeVarLong(byte[] buffer, int position, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position;
+	}
+
+	static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static void writeBytes(OutputStream out, byte[] bytes) throws IOException {
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	static byte[] readBytes(InputStream in) throws IOException {
+		long length = readVarLong(in);
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IOException("Corrupted length: " + length);
+		}
+		byte[] bytes = new byte[(int) length];
+		new DataInputStream(in).readFully(bytes);
+		return bytes;
+	}
+
+	static int compareKeys(byte[] a, int aOffset, int aLength, byte[] b) {
+		int n = Math.min(aLength, b.length);
+		for (int i = 0; i < n; i++) {
+			int compare = (a[aOffset + i] & 0xff) - (b[i] & 0xff);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+		return aLength - b.length;
+	}
+}
@@ -0,0 +1,337 @@
+package utils;
+
+import com.google.common.io.CountingInputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a {@link RecordFile}, all of them or those of the
+ * blocks starting in a byte range (a split). Splits covering the file without
+ * overlap read every record exactly once:
+ * <pre>
+ * try (RecordFileReader reader = new RecordFileReader(file, start, start + splitSize)) {
+ *     while (reader.next()) {
+ *         process(reader.getKeyString(), reader.getValueString());
+ *     }
+ * }
+ * </pre>
+ * The current record is a slice of a reused array ({@link #bytes()}), valid
+ * until the next call of {@link #next()}. Blocks are checked against the
+ * checksum file, if there is one.
+ */
+public final class RecordFileReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final File file;
+	private final long end;
+	private final FileChannel channel;
+	private CountingInputStream counter;
+	private DataInputStream in;
+	private long streamStart;
+	private final RecordFile.Compression compression;
+	private final byte[] sync = new byte[RecordFile.SYNC_SIZE];
+	// block offsets and their CRC-32C, null if not checked
+	private LongArrayList crcOffsets;
+	private int[] crcs;
+	private final Crc32c crc = new Crc32c();
+
+	// the sync marker of the next block is already read
+	private boolean syncRead = false;
+	private long nextBlock;
+	private boolean done = false;
+	private byte[] stored = new byte[0];
+	private byte[] raw = new byte[0];
+	private int rawLength = 0;
+	private int rawPosition = 0;
+	private long blockRecords = 0;
+
+	private int keyOffset;
+	private int keyLength;
+	private int valueOffset;
+	private int valueLength;
+
+	public RecordFileReader(@NotNull File file) throws IOException {
+		this(file, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the blocks whose sync marker starts in [{@code start}, {@code end}).
+	 */
+	public RecordFileReader(@NotNull File file, long start, long end) throws IOException {
+		this.file = file;
+		this.end = end;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			openAt(0);
+			byte[] magic = new byte[RecordFile.MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, RecordFile.MAGIC)) {
+				throw new IOException("Not a record file: " + file);
+			}
+			int version = in.read();
+			if (version != RecordFile.VERSION) {
+				throw new IOException("Unsupported record file version " + version + ": " + file);
+			}
+			int compression = in.read();
+			if (compression < 0 || compression >= RecordFile.Compression.values().length) {
+				throw new IOException("Unknown compression " + compression + ": " + file);
+			}
+			this.compression = RecordFile.Compression.values()[compression];
+			in.readFully(sync);
+			if (start <= RecordFile.HEADER_SIZE) {
+				nextBlock = RecordFile.HEADER_SIZE;
+			} else {
+				openAt(start);
+				seekSync();
+			}
+			File crcFile = FileUtils.getSequenceFileCrcFile(file);
+			if (crcFile.exists()) {
+				loadChecksums(crcFile);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks blocks against the checksum file, true by default if it exists.
+	 */
+	public RecordFileReader setVerifyChecksums(boolean verify) throws IOException {
+		if (!verify) {
+			crcOffsets = null;
+			crcs = null;
+		} else if (crcOffsets == null) {
+			File crcFile = FileUtils.getSequenceFileCrcFile(file);
+			FileUtils.assertFileExists(crcFile);
+			loadChecksums(crcFile);
+		}
+		return this;
+	}
+
+	public RecordFile.Compression getCompression() {
+		return compression;
+	}
+
+	private void openAt(long position) throws IOException {
+		channel.position(position);
+		counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+		in = new DataInputStream(counter);
+		streamStart = position;
+	}
+
+	private long position() {
+		return streamStart + counter.getCount();
+	}
+
+	/*
+	 * moves past the next sync marker, done if there is none before the end of the file
+	 */
+	private void seekSync() throws IOException {
+		byte[] window = new byte[RecordFile.SYNC_SIZE];
+		int filled = 0;
+		while (true) {
+			int b = in.read();
+			if (b < 0) {
+				done = true;
+				return;
+			}
+			if (filled < window.length) {
+				window[filled++] = (byte) b;
+			} else {
+				System.arraycopy(window, 1, window, 0, window.length - 1);
+				window[window.length - 1] = (byte) b;
+			}
+			if (filled == window.length && window[0] == sync[0] && Arrays.equals(window, sync)) {
+				nextBlock = position() - RecordFile.SYNC_SIZE;
+				syncRead = true;
+				return;
+			}
+		}
+	}
+
+	private void loadChecksums(File crcFile) throws IOException {
+		try (DataInputStream crcIn = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(crcFile.toPath())))) {
+			byte[] magic = new byte[RecordFile.CRC_MAGIC.length];
+			crcIn.readFully(magic);
+			if (!Arrays.equals(magic, RecordFile.CRC_MAGIC)) {
+				throw new IOException("Not a record file checksum file: " + crcFile);
+			}
+			int blocks = crcIn.readInt();
+			LongArrayList offsets = new LongArrayList(blocks);
+			int[] values = new int[blocks];
+			for (int i = 0; i < blocks; i++) {
+				offsets.add(crcIn.readLong());
+				values[i] = crcIn.readInt();
+			}
+			crcOffsets = offsets;
+			crcs = values;
+		}
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false after the last record of the file or of the split
+	 */
+	public boolean next() throws IOException {
+		while (blockRecords == 0) {
+			if (!nextBlock()) {
+				return false;
+			}
+		}
+		keyLength = readLength();
+		keyOffset = rawPosition;
+		rawPosition += keyLength;
+		valueLength = readLength();
+		valueOffset = rawPosition;
+		rawPosition += valueLength;
+		if (rawPosition > rawLength) {
+			throw new IOException("Corrupted block at " + nextBlock + " in " + file);
+		}
+		blockRecords--;
+		return true;
+	}
+
+	private int readLength() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (rawPosition >= rawLength) {
+				break;
+			}
+			byte b = raw[rawPosition++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				if (value > rawLength) {
+					break;
+				}
+				return (int) value;
+			}
+		}
+		throw new IOException("Corrupted block at " + nextBlock + " in " + file);
+	}
+
+	private boolean nextBlock() throws IOException {
+		if (done || nextBlock >= end) {
+			done = true;
+			return false;
+		}
+		long blockStart = nextBlock;
+		try {
+			if (!syncRead) {
+				byte[] marker = new byte[RecordFile.SYNC_SIZE];
+				in.readFully(marker);
+				if (!Arrays.equals(marker, sync)) {
+					throw new IOException("Missing sync marker at " + blockStart + " in " + file);
+				}
+			}
+			syncRead = false;
+			long records = RecordFile.readVarLong(in);
+			if (records == 0) {
+				// the footer
+				done = true;
+				return false;
+			}
+			long rawSize = RecordFile.readVarLong(in);
+			long storedSize = RecordFile.readVarLong(in);
+			if (rawSize > Integer.MAX_VALUE - 8 || storedSize > Integer.MAX_VALUE - 8) {
+				throw new IOException("Corrupted block at " + blockStart + " in " + file);
+			}
+			if (stored.length < storedSize) {
+				stored = new byte[(int) storedSize];
+			}
+			in.readFully(stored, 0, (int) storedSize);
+			verify(blockStart, (int) storedSize);
+			if (raw.length < rawSize) {
+				raw = new byte[(int) rawSize];
+			}
+			compression.uncompress(stored, (int) storedSize, raw, (int) rawSize);
+			rawLength = (int) rawSize;
+			rawPosition = 0;
+			blockRecords = records;
+			nextBlock = position();
+			return true;
+		} catch (EOFException e) {
+			throw new IOException("Truncated block at " + blockStart + " in " + file, e);
+		}
+	}
+
+	private void verify(long blockStart, int storedSize) throws IOException {
+		if (crcOffsets == null) {
+			return;
+		}
+		int index = Arrays.binarySearch(crcOffsets.elements(), 0, crcOffsets.size(), blockStart);
+		if (index < 0) {
+			throw new IOException("No checksum for the block at " + blockStart + " in " + file);
+		}
+		crc.reset();
+		crc.update(stored, 0, storedSize);
+		if ((int) crc.getValue() != crcs[index]) {
+			throw new IOException("Checksum error in the block at " + blockStart + " in " + file);
+		}
+	}
+
+	/**
+	 * The array holding the current record, only valid until {@link #next()}.
+	 */
+	@NotNull
+	public byte[] bytes() {
+		return raw;
+	}
+
+	public int keyOffset() {
+		return keyOffset;
+	}
+
+	public int keyLength() {
+		return keyLength;
+	}
+
+	public int valueOffset() {
+		return valueOffset;
+	}
+
+	public int valueLength() {
+		return valueLength;
+	}
+
+	@NotNull
+	public byte[] getKey() {
+		return Arrays.copyOfRange(raw, keyOffset, keyOffset + keyLength);
+	}
+
+	@NotNull
+	public byte[] getValue() {
+		return Arrays.copyOfRange(raw, valueOffset, valueOffset + valueLength);
+	}
+
+	@NotNull
+	public String getKeyString() {
+		return new String(raw, keyOffset, keyLength, StandardCharsets.UTF_8);
+	}
+
+	@NotNull
+	public String getValueString() {
+		return new String(raw, valueOffset, valueLength, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,175 @@
+package utils;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Writes a {@link RecordFile}. Records are collected in a block until it
+ * reaches {@link #setBlockSize(int)} bytes, then the block is compressed and
+ * written. The file is complete, with footer and checksum file, only after
+ * {@link #close()}. Not thread-safe.
+ */
+public final class RecordFileWriter implements Closeable {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final File file;
+	private final RecordFile.Compression compression;
+	private final byte[] sync = new byte[RecordFile.SYNC_SIZE];
+	private final DataOutputStream out;
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	private byte[] block = new byte[64 * 1024];
+	private int blockLength = 0;
+	private int blockRecords = 0;
+	private long position;
+	private long records = 0;
+	private byte[] minKey = null;
+	private byte[] maxKey = null;
+	// offset and CRC-32C of every block, for the checksum file
+	private final LongArrayList blockOffsets = new LongArrayList();
+	private final LongArrayList blockCrcs = new LongArrayList();
+	private final Crc32c crc = new Crc32c();
+	private boolean closed = false;
+
+	public RecordFileWriter(@NotNull File file, @NotNull RecordFile.Compression compression) throws IOException {
+		this.file = file;
+		this.compression = compression;
+		new SecureRandom().nextBytes(sync);
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		out.write(RecordFile.MAGIC);
+		out.write(RecordFile.VERSION);
+		out.write(compression.ordinal());
+		out.write(sync);
+		position = RecordFile.HEADER_SIZE;
+	}
+
+	/**
+	 * Uncompressed bytes of records per block, 1MB by default. A split is
+	 * read from the first block starting in it, smaller blocks make finer splits.
+	 */
+	public RecordFileWriter setBlockSize(int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("blockSize <= 0");
+		}
+		this.blockSize = blockSize;
+		return this;
+	}
+
+	public void append(@NotNull String key, @NotNull String value) throws IOException {
+		append(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public void append(@NotNull byte[] key, @NotNull byte[] value) throws IOException {
+		append(key, 0, key.length, value, 0, value.length);
+	}
+
+	public void append(@NotNull byte[] key, int keyOffset, int keyLength,
+					   @NotNull byte[] value, int valueOffset, int valueLength) throws IOException {
+		if (closed) {
+			throw new IOException("Writer closed");
+		}
+		// two varints take at most 10 bytes
+		ensureCapacity(blockLength + keyLength + valueLength + 10);
+		blockLength = RecordFile.writeVarLong(block, blockLength, keyLength);
+		System.arraycopy(key, keyOffset, block, blockLength, keyLength);
+		blockLength += keyLength;
+		blockLength = RecordFile.writeVarLong(block, blockLength, valueLength);
+		System.arraycopy(value, valueOffset, block, blockLength, valueLength);
+		blockLength += valueLength;
+		blockRecords++;
+		records++;
+		if (minKey == null || RecordFile.compareKeys(key, keyOffset, keyLength, minKey) < 0) {
+			minKey = Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength);
+		}
+		if (maxKey == null || RecordFile.compareKeys(key, keyOffset, keyLength, maxKey) > 0) {
+			maxKey = Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength);
+		}
+		if (blockLength >= blockSize) {
+			writeBlock();
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > block.length) {
+			block = Arrays.copyOf(block, Math.max(capacity, (int) Math.min(Integer.MAX_VALUE - 8, block.length * 2L)));
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (blockRecords == 0) {
+			return;
+		}
+		byte[] stored = compression.compress(block, blockLength);
+		crc.reset();
+		crc.update(stored, 0, stored.length);
+		blockOffsets.add(position);
+		blockCrcs.add(crc.getValue());
+		ByteArrayOutputStream header = new ByteArrayOutputStream(RecordFile.SYNC_SIZE + 15);
+		header.write(sync);
+		RecordFile.writeVarLong(header, blockRecords);
+		RecordFile.writeVarLong(header, blockLength);
+		RecordFile.writeVarLong(header, stored.length);
+		header.writeTo(out);
+		out.write(stored);
+		position += header.size() + stored.length;
+		blockLength = 0;
+		blockRecords = 0;
+	}
+
+	/**
+	 * Records written so far.
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writeBlock();
+			long footerOffset = position;
+			out.write(sync);
+			RecordFile.writeVarLong(out, 0);
+			RecordFile.writeVarLong(out, records);
+			RecordFile.writeVarLong(out, blockOffsets.size());
+			if (records > 0) {
+				RecordFile.writeBytes(out, minKey);
+				RecordFile.writeBytes(out, maxKey);
+			}
+			out.writeLong(footerOffset);
+			out.write(RecordFile.END_MAGIC);
+		} finally {
+			out.close();
+		}
+		writeChecksums();
+	}
+
+	private void writeChecksums() throws IOException {
+		try (DataOutputStream crcOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(FileUtils.getSequenceFileCrcFile(file))))) {
+			crcOut.write(RecordFile.CRC_MAGIC);
+			crcOut.writeInt(blockOffsets.size());
+			for (int i = 0; i < blockOffsets.size(); i++) {
+				crcOut.writeLong(blockOffsets.getLong(i));
+				crcOut.writeInt((int) blockCrcs.getLong(i));
+			}
+		}
+	}
+}
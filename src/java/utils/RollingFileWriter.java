@@ -0,0 +1,236 @@
+package utils;
+
+import com.google.common.io.CountingOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes records (lines) into a series of segment files, rotating on size,
+ * record count or age.
+ * <p>
+ * A segment is written to a {@link FileUtils#tmpFile} in the output directory
+ * (or its "tmp" subdirectory), compressed with the configured codec. On
+ * rotation it is closed and renamed to
+ * {@code Utils.getNameWithDateSuffix(baseName) + "_" + sequence + extension},
+ * so a file with that name is always complete and consumers may pick it up as
+ * soon as it appears. Empty segments are never published.
+ * <p>
+ * Thread-safe: records of several threads are never interleaved.
+ * <pre>
+ * try (RollingFileWriter writer = new RollingFileWriter(dir, "events", CompressionCodecs.GZIP)
+ *         .maxBytes(256 << 20).maxAge(10, TimeUnit.MINUTES)) {
+ *     writer.write(record);
+ * }
+ * </pre>
+ */
+public final class RollingFileWriter implements Closeable, Flushable {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(RollingFileWriter.class);
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	// how often the age of the segment is checked at most
+	private static final long MAX_CHECK_PERIOD = 1000;
+
+	private final File directory;
+	private final String baseName;
+	private final CompressionCodec codec;
+	private long maxBytes = Long.MAX_VALUE;
+	private long maxRecords = Long.MAX_VALUE;
+	private long maxAge = 0;
+	@Nullable
+	private ScheduledExecutorService timer;
+	private volatile Throwable timerFailure;
+
+	@Nullable
+	private Segment segment;
+	private int sequence = 0;
+	private int published = 0;
+	private boolean closed = false;
+
+	public RollingFileWriter(@NotNull File directory, @NotNull String baseName, @NotNull CompressionCodec codec)
+			throws IOException {
+		FileUtils.mkdirs(directory);
+		this.directory = directory;
+		this.baseName = baseName;
+		this.codec = codec;
+	}
+
+	/**
+	 * Rotates once a segment has this many bytes on disk. The size is checked
+	 * after each record and lags behind by what the codec still buffers.
+	 */
+	public RollingFileWriter maxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes <= 0");
+		}
+		this.maxBytes = maxBytes;
+		return this;
+	}
+
+	public RollingFileWriter maxRecords(long maxRecords) {
+		if (maxRecords <= 0) {
+			throw new IllegalArgumentException("maxRecords <= 0");
+		}
+		this.maxRecords = maxRecords;
+		return this;
+	}
+
+	/**
+	 * Rotates a segment this long after its first record, also when no more
+	 * records come, by a background thread.
+	 */
+	public synchronized RollingFileWriter maxAge(long time, @NotNull TimeUnit unit) {
+		if (time <= 0) {
+			throw new IllegalArgumentException("time <= 0");
+		}
+		this.maxAge = unit.toMillis(time);
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(ConcurrentUtils.newThreadFactory("rolling-writer"));
+			long period = Math.max(1, Math.min(maxAge, MAX_CHECK_PERIOD));
+			timer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						rotateIfOlder(System.currentTimeMillis());
+					} catch (Throwable t) {
+						LOG.error("Can't rotate {}", baseName, t);
+						timerFailure = t;
+					}
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a record followed by a line separator.
+	 */
+	public synchronized void write(@NotNull String record) throws IOException {
+		ensureOpen();
+		if (segment == null) {
+			segment = new Segment(FileUtils.tmpFile(new File(directory, baseName), false));
+		}
+		segment.writer.write(record);
+		segment.writer.newLine();
+		segment.records++;
+		if (segment.records >= maxRecords || segment.bytes.getCount() >= maxBytes) {
+			rotate();
+		}
+	}
+
+	/**
+	 * Publishes the current segment, if it has records.
+	 *
+	 * @return the published file, null if there was nothing to publish
+	 */
+	@Nullable
+	public synchronized File rotate() throws IOException {
+		if (segment == null) {
+			return null;
+		}
+		Segment current = segment;
+		segment = null;
+		current.writer.close();
+		File target = nextName();
+		if (!current.file.renameTo(target)) {
+			throw new IOException("Can't rename " + current.file + " to " + target);
+		}
+		published++;
+		LOG.info("Published {} with {} records", target, current.records);
+		return target;
+	}
+
+	private synchronized void rotateIfOlder(long now) throws IOException {
+		if (!closed && segment != null && now - segment.created >= maxAge) {
+			rotate();
+		}
+	}
+
+	/*
+	 * the date suffix has minutes, the sequence keeps names unique within a minute and across restarts
+	 */
+	private File nextName() {
+		String name = Utils.getNameWithDateSuffix(baseName);
+		File target;
+		do {
+			target = new File(directory, String.format("%s_%04d%s", name, sequence++, codec.getExtension()));
+		} while (target.exists());
+		return target;
+	}
+
+	/**
+	 * Flushes the current segment. It stays unpublished until rotation.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		ensureOpen();
+		if (segment != null) {
+			segment.writer.flush();
+		}
+	}
+
+	/**
+	 * Number of segments published so far.
+	 */
+	public synchronized int getPublished() {
+		return published;
+	}
+
+	/**
+	 * Publishes the last segment and stops the timer.
+	 */
+	@Override
+	public void close() throws IOException {
+		ScheduledExecutorService stop;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			stop = timer;
+		}
+		if (stop != null) {
+			stop.shutdownNow();
+		}
+		synchronized (this) {
+			rotate();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Writer closed");
+		}
+		Throwable t = timerFailure;
+		if (t != null) {
+			throw new IOException("rotation failed", t);
+		}
+	}
+
+	private final class Segment {
+		private final File file;
+		private final CountingOutputStream bytes;
+		private final BufferedWriter writer;
+		private final long created = System.currentTimeMillis();
+		private long records = 0;
+
+		private Segment(File file) throws IOException {
+			this.file = file;
+			this.bytes = new CountingOutputStream(new FileOutputStream(file));
+			this.writer = new BufferedWriter(new OutputStreamWriter(codec.openOutputStream(bytes),
+					StandardCharsets.UTF_8), BUFFER_SIZE);
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package utils;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the lines appended to a file, like {@code tail -F}, and remembers how
+ * far it got in a checkpoint file, so a restarted reader goes on after the
+ * last line it handed over.
+ * <p>
+ * Complete lines (ending with "\n") are handed to a {@link BatchHandler} as
+ * soon as they are read, at most {@link #batchLines(int)} at a time; after the
+ * handler returns, the checkpoint is written with
+ * {@link FileUtils#writeAtomically}. A batch whose handler failed, or which
+ * was handled just before a crash, is handed over again.
+ * <p>
+ * When the file is replaced (its file key, the inode, changes) the rest of the
+ * old file is read, including a last line without "\n", then the new file
+ * from its start. When it gets shorter than the position, it was truncated
+ * and is read again from its start. Changes are noticed with a
+ * {@link WatchService} on the directory, and by polling in case events are
+ * late or not supported. Lines are decoded as UTF-8.
+ * <pre>
+ * try (TailFollower follower = new TailFollower(log, checkpoint)) {
+ *     follower.follow(handler);  // until follower.stop() from another thread
+ * }
+ * </pre>
+ */
+public final class TailFollower implements Closeable {
+
+	private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(TailFollower.class);
+
+	public static final long DEFAULT_POLL_INTERVAL = 500;
+	public static final int DEFAULT_BATCH_LINES = 1000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Receives the lines read, without line terminators.
+	 */
+	public interface BatchHandler {
+		void handle(@NotNull List<String> lines) throws IOException;
+	}
+
+	private final File file;
+	private final File checkpoint;
+	private long pollInterval = DEFAULT_POLL_INTERVAL;
+	private int batchLines = DEFAULT_BATCH_LINES;
+	private volatile boolean stopped = false;
+
+	@Nullable
+	private FileChannel channel;
+	@Nullable
+	private Object fileKey;
+	// offset of the first byte not handed over yet, what the checkpoint holds
+	private long position = 0;
+	// bytes read after position, the start of an incomplete line
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int buffered = 0;
+	private final List<String> batch = new ObjectArrayList<>();
+
+	public TailFollower(@NotNull File file, @NotNull File checkpoint) {
+		this.file = file.getAbsoluteFile();
+		this.checkpoint = checkpoint.getAbsoluteFile();
+	}
+
+	/**
+	 * Longest time to notice new lines if the watch service doesn't report them, 500ms by default.
+	 */
+	public TailFollower pollInterval(long time, @NotNull TimeUnit unit) {
+		this.pollInterval = Math.max(1, unit.toMillis(time));
+		return this;
+	}
+
+	public TailFollower batchLines(int batchLines) {
+		if (batchLines <= 0) {
+			throw new IllegalArgumentException("batchLines <= 0");
+		}
+		this.batchLines = batchLines;
+		return this;
+	}
+
+	/**
+	 * Offset in the current file after the last line handed over.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Hands over the lines appended until now and returns.
+	 *
+	 * @return number of lines handed over
+	 */
+	public long poll(@NotNull BatchHandler handler) throws IOException {
+		long lines = 0;
+		while (true) {
+			if (channel == null && !open()) {
+				return lines;
+			}
+			lines += readAvailable(handler);
+			Object currentKey = currentFileKey();
+			if (currentKey == null || fileKey != null && !fileKey.equals(currentKey)) {
+				// replaced or deleted, the lines appended before the rename are the last ones
+				lines += readAvailable(handler);
+				if (buffered > 0) {
+					batch.add(decode(0, buffered));
+					position += buffered;
+					buffered = 0;
+					lines++;
+				}
+				deliver(handler);
+				LOG.info("{} was rotated after {} bytes", file, position);
+				closeChannel();
+				position = 0;
+				writeCheckpoint(currentKey);
+				continue;
+			}
+			if (channel.size() < position + buffered) {
+				LOG.warn("{} was truncated to {} bytes at {}, reading from its start", new Object[]{file,
+						channel.size(), position + buffered});
+				position = 0;
+				buffered = 0;
+				writeCheckpoint(fileKey);
+				continue;
+			}
+			return lines;
+		}
+	}
+
+	/**
+	 * Hands over lines as they are appended, until {@link #stop()} is called
+	 * or the thread is interrupted.
+	 */
+	public void follow(@NotNull BatchHandler handler) throws IOException {
+		WatchService watcher = null;
+		try {
+			try {
+				watcher = FileSystems.getDefault().newWatchService();
+				file.getParentFile().toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (IOException | UnsupportedOperationException e) {
+				LOG.warn("Can't watch {}, polling every {} ms: {}", new Object[]{file.getParentFile(), pollInterval, e});
+				FileUtils.closeAll(watcher);
+				watcher = null;
+			}
+			while (!stopped) {
+				if (poll(handler) == 0 && !await(watcher)) {
+					break;
+				}
+			}
+		} finally {
+			FileUtils.closeAll(watcher);
+		}
+	}
+
+	/*
+	 * waits for a change in the directory or the poll interval, false if interrupted
+	 */
+	private boolean await(@Nullable WatchService watcher) {
+		try {
+			if (watcher == null) {
+				Thread.sleep(pollInterval);
+				return true;
+			}
+			WatchKey key = watcher.poll(pollInterval, TimeUnit.MILLISECONDS);
+			if (key != null) {
+				key.pollEvents();
+				key.reset();
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ClosedWatchServiceException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Makes {@link #follow} return after the batch it is handing over.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	private boolean open() throws IOException {
+		Object currentKey = currentFileKey();
+		if (currentKey == null) {
+			return false;
+		}
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		fileKey = currentKey;
+		position = 0;
+		buffered = 0;
+		if (checkpoint.exists()) {
+			String[] saved = FileUtils.read(checkpoint).trim().split("\t", 2);
+			String savedKey = saved.length > 1 ? saved[1] : "";
+			if (savedKey.equals(String.valueOf(fileKey))) {
+				position = Long.parseLong(saved[0]);
+			} else {
+				LOG.info("{} was replaced since the checkpoint, reading from its start", file);
+			}
+		}
+		if (channel.size() < position) {
+			LOG.warn("{} is shorter than the checkpoint {}, reading from its start", file, position);
+			position = 0;
+		}
+		return true;
+	}
+
+	@Nullable
+	private Object currentFileKey() throws IOException {
+		try {
+			Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+			// without file keys only truncation is noticed
+			return key != null ? key : "";
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private long readAvailable(BatchHandler handler) throws IOException {
+		long lines = 0;
+		while (true) {
+			if (buffered == buffer.length) {
+				// a line longer than the buffer
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			int n = channel.read(ByteBuffer.wrap(buffer, buffered, buffer.length - buffered), position + buffered);
+			if (n <= 0) {
+				deliver(handler);
+				return lines;
+			}
+			int end = buffered + n;
+			int start = 0;
+			for (int i = buffered; i < end; i++) {
+				if (buffer[i] == '\n') {
+					batch.add(decode(start, i));
+					lines++;
+					start = i + 1;
+					if (batch.size() >= batchLines) {
+						position += start;
+						System.arraycopy(buffer, start, buffer, 0, end - start);
+						end -= start;
+						i -= start;
+						start = 0;
+						// if the handler fails, the rest is read again from position
+						buffered = 0;
+						deliver(handler);
+					}
+				}
+			}
+			position += start;
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			buffered = end - start;
+		}
+	}
+
+	private String decode(int start, int end) {
+		if (end > start && buffer[end - 1] == '\r') {
+			end--;
+		}
+		return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private void deliver(BatchHandler handler) throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		handler.handle(batch);
+		batch.clear();
+		writeCheckpoint(fileKey);
+	}
+
+	private void writeCheckpoint(@Nullable Object key) throws IOException {
+		FileUtils.writeAtomically(checkpoint, position + "\t" + (key != null ? key : "") + "\n");
+	}
+
+	private void closeChannel() throws IOException {
+		FileChannel open = channel;
+		channel = null;
+		fileKey = null;
+		if (open != null) {
+			open.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		stop();
+		closeChannel();
+	}
+}
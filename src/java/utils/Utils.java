@@ -5,6 +5,8 @@ import java.net.InetAddress;
 import java.net.URLDecoder;
 import java.net.UnknownHostException;
 import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -72,7 +74,21 @@ public class Utils {
 		return 0;
 	}
 
-	public static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy_MM_dd_HH_mm");
+	/**
+	 * Shared by all threads: formatting and parsing are synchronized, a plain
+	 * SimpleDateFormat garbles dates used concurrently. Don't change its settings.
+	 */
+	public static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy_MM_dd_HH_mm") {
+		@Override
+		public synchronized StringBuffer format(Date date, StringBuffer toAppendTo, FieldPosition pos) {
+			return super.format(date, toAppendTo, pos);
+		}
+
+		@Override
+		public synchronized Date parse(String text, ParsePosition pos) {
+			return super.parse(text, pos);
+		}
+	};
 
 	/*
 	 * get name with date specific as suffix